@@ -23,17 +23,36 @@ public class ConversionData {
 	private final Landscape landscape;
 	private final LocalHeightDataProvider heightProvider;
 	private final TrackNetwork network = new TrackNetwork();
-	private final ObjectList objects = new ObjectList();
+	private final ObjectList objects;
 
 	public ConversionData(OsmDatapack data, GlobalToLocalConverter converter,
 	        HeightDataProvider heightProvider, Collection<GridPart> gridparts) {
 		this.data = data;
 		this.converter = converter;
+		this.objects = new ObjectList();
 		this.heightProvider =
 		        new LocalHeightDataProvider(converter, heightProvider);
 		landscape = Landscape.generateFormOsmData(data, converter, gridparts);
 	}
 
+	/**
+	 * Creates the data for changed osm data. The landscape, heights and
+	 * objects of the previous data are used again and need to be updated for
+	 * the changed parts. The network is empty.
+	 * 
+	 * @param previous
+	 *            The data of the last conversion.
+	 * @param data
+	 *            The new osm data.
+	 */
+	public ConversionData(ConversionData previous, OsmDatapack data) {
+		this.data = data;
+		this.converter = previous.converter;
+		this.heightProvider = previous.heightProvider;
+		this.landscape = previous.landscape;
+		this.objects = previous.objects;
+	}
+
 	public OsmDatapack getOsmData() {
 		return data;
 	}
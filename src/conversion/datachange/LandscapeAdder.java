@@ -1,13 +1,14 @@
 package conversion.datachange;
 
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Set;
 
 import conversion.ConversionData;
+import conversion.datachange.geometry.GridPart;
 import conversion.datachange.geometry.Polygon;
 import conversion.datachange.geometry.SimplePolygon;
 import data.osm.OsmWay;
-import data.osm.OsmWaySegment;
+import data.osm.OsmWaySegmentCursor;
 import data.osm.Propertyable;
 import data.osm.SimpleProperties;
 import data.position.local.LocalPoint;
@@ -51,30 +52,43 @@ public class LandscapeAdder {
 	}
 
 	public void addLandscapes() {
+		addLandscapes(null);
+	}
+
+	/**
+	 * Adds the landscapes, but only to some grid parts.
+	 * 
+	 * @param parts
+	 *            The parts, <code>null</code> for all parts.
+	 */
+	public void addLandscapes(Set<GridPart> parts) {
 		for (OsmWay way : data.getOsmData().getWays()) {
 			if (!way.isArea()) {
-				addLandscapeFor(way);
+				addLandscapeFor(way, parts);
 			}
 		}
 	}
 
 	// TODO: test if this is even needed, or if there already is this ground
 	// under the way.
-	private void addLandscapeFor(OsmWay way) {
+	private void addLandscapeFor(OsmWay way, Set<GridPart> parts) {
 		Propertyable landscapeType = getLandscapeProperties(way);
 		if (landscapeType != null) {
-			Iterator<OsmWaySegment> it = way.getSegments();
-			while (it.hasNext()) {
-				OsmWaySegment segment = it.next();
+			OsmWaySegmentCursor segment = way.getSegmentCursor();
+			while (segment.next()) {
 				Polygon poly = getAreaForSegment(segment);
-				data.getLandscape().addPolygon(landscapeType, poly);
+				data.getLandscape().addPolygon(landscapeType, poly, parts);
 			}
 		}
 	}
 
-	private Polygon getAreaForSegment(OsmWaySegment segment) {
-		LocalPoint start = data.getConverter().toLocal(segment.getStart());
-		LocalPoint end = data.getConverter().toLocal(segment.getEnd());
+	private Polygon getAreaForSegment(OsmWaySegmentCursor segment) {
+		LocalPoint start =
+		        data.getConverter().toLocal(segment.getStartLat(),
+		                segment.getStartLon());
+		LocalPoint end =
+		        data.getConverter().toLocal(segment.getEndLat(),
+		                segment.getEndLon());
 
 		double forwardx = (start.getX() - end.getX());
 		double forwardy = (start.getY() - end.getY());
@@ -1,27 +1,74 @@
 package conversion.datachange;
 
+import java.util.concurrent.ConcurrentHashMap;
+
+import conversion.datachange.geometry.GridPart;
 import conversion.landscape.Landscape;
 import conversion.landscape.LandscapePolygon;
+import conversion.landscape.LandscapeRaster;
 import data.height.HeightDisplacer;
 import data.osm.Propertyable;
 import data.position.local.LocalPoint;
 
+/**
+ * Moves the terrain up or down depending on the landuse.
+ * <p>
+ * The landuse is read from the {@link LandscapeRaster} of the grid part, the
+ * displacement of each polygon in it is only computed once.
+ * 
+ * @author michael
+ */
 public class LandscapeDisplacer implements HeightDisplacer {
+	/**
+	 * The raster resolution. This gives a 10m spacing, the spacing of the
+	 * height rasters, so the heights are sampled exactly on raster points.
+	 */
+	private static final int RASTER_RESOLUTION = GridPart.GRID_SPACING / 10;
 
 	private final Landscape landscape;
 
+	/**
+	 * The displacements by polygon id, for the raster they were computed for.
+	 */
+	private final ConcurrentHashMap<GridPart, Displacements> displacements =
+	        new ConcurrentHashMap<GridPart, Displacements>();
+
+	private static class Displacements {
+		private final LandscapeRaster raster;
+		private final float[] byId;
+
+		public Displacements(LandscapeRaster raster, float[] byId) {
+			this.raster = raster;
+			this.byId = byId;
+		}
+	}
+
 	public LandscapeDisplacer(Landscape landscape) {
 		this.landscape = landscape;
 	}
 
 	@Override
 	public double getDisplacement(LocalPoint p) {
-		LandscapePolygon wayUnder = landscape.getWayUnder(p);
-		if (wayUnder != null) {
-			return getDisplacement(wayUnder.getOriginal());
-		} else {
+		GridPart part = GridPart.getUnder(p);
+		LandscapeRaster raster = landscape.getRaster(part, RASTER_RESOLUTION);
+		if (raster == null) {
 			return 0;
 		}
+		Displacements forPart = displacements.get(part);
+		if (forPart == null || forPart.raster != raster) {
+			forPart = new Displacements(raster, computeDisplacements(raster));
+			displacements.put(part, forPart);
+		}
+		return forPart.byId[raster.getIdAt(p.getX(), p.getY())];
+	}
+
+	private float[] computeDisplacements(LandscapeRaster raster) {
+		float[] byId = new float[raster.getIdCount()];
+		for (int id = 1; id < byId.length; id++) {
+			LandscapePolygon polygon = raster.getPolygon(id);
+			byId[id] = (float) getDisplacement(polygon.getOriginal());
+		}
+		return byId;
 	}
 
 	private double getDisplacement(Propertyable wayUnder) {
@@ -1,5 +1,6 @@
 package conversion.datachange;
 
+import java.util.Collection;
 import java.util.Random;
 
 import conversion.ConversionData;
@@ -7,7 +8,7 @@ import conversion.datachange.geometry.GridPart;
 import conversion.datachange.geometry.SimpleRectangle;
 import conversion.landscape.Landscape;
 import conversion.landscape.LandscapePolygon;
-import data.osm.OsmNode;
+import conversion.landscape.LandscapeRaster;
 import data.osm.Propertyable;
 import data.osm.SimpleProperties;
 import data.position.local.LatLon;
@@ -35,32 +36,50 @@ public class TreeAdder {
 
 	public void addTrees() {
 		Landscape landscape = data.getLandscape();
-		for (GridPart part : landscape.getConvertedBlocks()) {
+		addTrees(landscape.getConvertedBlocks());
+	}
+
+	/**
+	 * Adds the trees only on some grid parts.
+	 * 
+	 * @param parts
+	 *            The parts.
+	 */
+	public void addTrees(Collection<GridPart> parts) {
+		for (GridPart part : parts) {
 			addLandscapeObjects(part);
 		}
 	}
 
 	private void addLandscapeObjects(GridPart part) {
+		// the points are in the middle of the cells, so they are every
+		// second point of a raster with twice the resolution.
+		LandscapeRaster raster =
+		        data.getLandscape().rasterize(part, 2 * POINTS_PER_GRIDSIDE);
+		if (raster == null) {
+			return;
+		}
 
 		for (int x = 0; x < POINTS_PER_GRIDSIDE; x++) {
 			for (int y = 0; y < POINTS_PER_GRIDSIDE; y++) {
-				double wx =
-				        (x + .5) / POINTS_PER_GRIDSIDE * GridPart.GRID_SPACING;
-				double wy =
-				        (y + .5) / POINTS_PER_GRIDSIDE * GridPart.GRID_SPACING;
-				LocalPoint point =
-				        new LocalPoint(part.getMinX() + wx, part.getMinY() + wy);
-
-				LandscapePolygon way = data.getLandscape().getWayUnder(point);
+				LandscapePolygon way = raster.getPolygon(2 * x + 1, 2 * y + 1);
 				if (way != null) {
+					double wx =
+					        (x + .5) / POINTS_PER_GRIDSIDE
+					                * GridPart.GRID_SPACING;
+					double wy =
+					        (y + .5) / POINTS_PER_GRIDSIDE
+					                * GridPart.GRID_SPACING;
+					LocalPoint point =
+					        new LocalPoint(part.getMinX() + wx, part.getMinY()
+					                + wy);
+
 					SimpleProperties properties =
 					        getPointProperties(way.getOriginal());
 					if (properties != null) {
 						LatLon pos = data.getConverter().toGlobal(point);
-						OsmNode node =
-						        new OsmNode(pos.getLat(), pos.getLon(),
-						                properties);
-						data.getOsmData().addNode(node);
+						data.getOsmData().addNode(pos.getLat(), pos.getLon(),
+						        properties);
 					}
 				}
 			}
@@ -82,9 +101,8 @@ public class TreeAdder {
 			for (LocalPoint point : bounds.getPoints(10, new Random())) {
 				if (poly.getPolygon().contains(point)) {
 					LatLon pos = data.getConverter().toGlobal(point);
-					OsmNode node =
-					        new OsmNode(pos.getLat(), pos.getLon(), properties);
-					data.getOsmData().addNode(node);
+					data.getOsmData().addNode(pos.getLat(), pos.getLon(),
+					        properties);
 				}
 			}
 		}
@@ -1,8 +1,11 @@
 package conversion.datachange.geometry;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 import data.osm.OsmNode;
 import data.osm.OsmRelation;
@@ -12,6 +15,9 @@ import data.position.local.GlobalToLocalConverter;
 import data.position.local.LocalPoint;
 
 public class ComplexPolygon implements Polygon {
+	private static final String OUTER = "outer";
+	private static final String INNER = "inner";
+
 	private final LinkedList<Polygon> outer;
 	private final LinkedList<Polygon> inner;
 	private final SimpleRectangle bounds;
@@ -62,16 +68,49 @@ public class ComplexPolygon implements Polygon {
 		return false;
 	}
 
+	List<Polygon> getOuter() {
+		return outer;
+	}
+
+	List<Polygon> getInner() {
+		return inner;
+	}
+
+	/**
+	 * Clips the outer and inner rings to the grid part. The result uses the
+	 * even-odd rule, so the inner rings cut holes into the outer ones.
+	 * 
+	 * @return A {@link SimplePolygon} if only one ring is left, a
+	 *         {@link MultiRingPolygon} or <code>null</code> if no outer ring
+	 *         is on the part.
+	 */
 	@Override
 	public Polygon generateUnion(GridPart grid) {
-		// TODO Auto-generated method stub
-		return null;
+		List<SimplePolygon> rings = new ArrayList<SimplePolygon>();
+		for (Polygon ring : outer) {
+			addClipped(rings, ring, grid);
+		}
+		if (rings.isEmpty()) {
+			return null;
+		}
+		for (Polygon ring : inner) {
+			addClipped(rings, ring, grid);
+		}
+		return MultiRingPolygon.fromRings(rings);
+	}
+
+	private static void addClipped(List<SimplePolygon> rings, Polygon ring,
+	        GridPart grid) {
+		SimplePolygon clipped = ((SimplePolygon) ring).generateUnion(grid);
+		if (clipped != null) {
+			rings.add(clipped);
+		}
 	}
 
 	public static ComplexPolygon fromRelation(OsmRelation relation,
 	        GlobalToLocalConverter converter) {
-		LinkedList<Polygon> outer = getRings(relation, "outer", converter);
-		LinkedList<Polygon> inner = getRings(relation, "inner", converter);
+		LinkedList<Polygon> outer = getRings(relation, OUTER, converter);
+		LinkedList<Polygon> inner = getRings(relation, INNER, converter);
 
 		if (outer.size() < 1) {
 			return null;
@@ -81,71 +120,150 @@ public class ComplexPolygon implements Polygon {
 	}
 
 	/**
-	 * Gets rings of ways as polygons.
+	 * Gets the rings formed by the member ways with the given role as
+	 * polygons.
+	 * <p>
+	 * The ways are joined at their end nodes, using an index from end node
+	 * to ways, so this is linear in the number of nodes. Ways may be
+	 * reversed. Rings are extended in both directions from their first way,
+	 * rings that still cannot be closed are closed directly. Rings with less
+	 * than three points are dropped.
 	 * 
 	 * @param relation
-	 * @param string
+	 *            The multipolygon relation.
+	 * @param role
+	 *            The role, "outer" or "inner". Ways without a role are
+	 *            treated as outer ways.
 	 * @param converter
-	 * @return
+	 *            The converter to use.
+	 * @return The rings.
 	 */
 	private static LinkedList<Polygon> getRings(OsmRelation relation,
 	        String role, GlobalToLocalConverter converter) {
-		LinkedList<OsmWay> possibleWays = new LinkedList<OsmWay>();
-
+		ArrayList<OsmWay> ways = new ArrayList<OsmWay>();
 		for (OsmRoledWay way : relation.getWays()) {
-			possibleWays.add(way.getWay());
+			String wayRole = way.getRole();
+			boolean noRole = wayRole == null || wayRole.isEmpty();
+			if (role.equals(wayRole) || (OUTER.equals(role) && noRole)) {
+				ways.add(way.getWay());
+			}
 		}
 
-		LinkedList<Polygon> result = new LinkedList<Polygon>();
-		while (!possibleWays.isEmpty()) {
-			LinkedList<OsmNode> outline = extractRing(possibleWays);
-			LocalPoint[] points = new LocalPoint[outline.size()];
-			int i = 0;
-			for (OsmNode node : outline) {
-				points[i] = converter.toLocal(node);
-				i++;
+		HashMap<OsmNode, List<Integer>> ends =
+		        new HashMap<OsmNode, List<Integer>>();
+		for (int i = 0; i < ways.size(); i++) {
+			OsmWay way = ways.get(i);
+			addEnd(ends, way.getFirstNode(), i);
+			if (!way.isArea()) {
+				addEnd(ends, way.getLastNode(), i);
 			}
-			result.add(SimplePolygon.fromArray(points));
 		}
-		return result;
-	}
 
-	private static LinkedList<OsmNode> extractRing(
-	        LinkedList<OsmWay> possibleWays) {
-		LinkedList<OsmNode> list = new LinkedList<OsmNode>();
-		list.add(possibleWays.get(0).getFirstNode()); // entry point
+		LinkedList<Polygon> result = new LinkedList<Polygon>();
+		boolean[] used = new boolean[ways.size()];
+		ArrayList<LocalPoint> points = new ArrayList<LocalPoint>();
+		ArrayList<LocalPoint> before = new ArrayList<LocalPoint>();
+		for (int start = 0; start < ways.size(); start++) {
+			if (used[start]) {
+				continue;
+			}
+			used[start] = true;
+			points.clear();
+			OsmWay way = ways.get(start);
+			OsmNode first = way.getFirstNode();
+			addPoints(points, way, false, converter);
+			OsmNode last = way.getLastNode();
 
-		while (true) {
-			OsmWay nextWay = removeWayStarting(list.getLast(), possibleWays);
-			if (nextWay == null) {
-				break;
+			while (!last.equals(first)) {
+				int next = removeWayEndingAt(last, ends, used);
+				if (next < 0) {
+					// unclosed ring
+					break;
+				}
+				OsmWay nextWay = ways.get(next);
+				boolean reversed = !nextWay.getFirstNode().equals(last);
+				addPoints(points, nextWay, reversed, converter);
+				last = reversed ? nextWay.getFirstNode() : nextWay.getLastNode();
 			}
-			LinkedList<OsmNode> newNodes = new LinkedList<OsmNode>();
-			for (OsmNode node : nextWay) {
-				newNodes.add(node);
+
+			if (!last.equals(first)) {
+				// the ring is open, the ways before the start are missing.
+				before.clear();
+				before.add(points.get(0));
+				while (!first.equals(last)) {
+					int previous = removeWayEndingAt(first, ends, used);
+					if (previous < 0) {
+						break;
+					}
+					OsmWay previousWay = ways.get(previous);
+					boolean reversed =
+					        !previousWay.getFirstNode().equals(first);
+					addPoints(before, previousWay, reversed, converter);
+					first =
+					        reversed ? previousWay.getFirstNode() : previousWay
+					                .getLastNode();
+				}
+				if (before.size() > 1) {
+					before.remove(0);
+					Collections.reverse(before);
+					points.addAll(0, before);
+				}
 			}
-			if (nextWay.getLastNode() == list.getLast()) {
-				Collections.reverse(newNodes);
+
+			if (last.equals(first)) {
+				points.remove(points.size() - 1);
 			}
-			for (OsmNode node : newNodes) {
-				if (node != list.getFirst() && node != list.getLast()) {
-					list.add(node);
-				}
+			if (points.size() > 2) {
+				result.add(SimplePolygon.fromArray(points
+				        .toArray(new LocalPoint[points.size()])));
 			}
 		}
-		return list;
+		return result;
 	}
 
-	private static OsmWay removeWayStarting(OsmNode node,
-	        LinkedList<OsmWay> ways) {
-		Iterator<OsmWay> it = ways.iterator();
-		while (it.hasNext()) {
-			OsmWay next = it.next();
-			if (next.getFirstNode() == node || next.getLastNode() == node) {
-				it.remove();
-				return next;
+	private static void addEnd(HashMap<OsmNode, List<Integer>> ends,
+	        OsmNode node, int way) {
+		List<Integer> list = ends.get(node);
+		if (list == null) {
+			list = new ArrayList<Integer>(2);
+			ends.put(node, list);
+		}
+		list.add(way);
+	}
+
+	/**
+	 * Finds an unused way that starts or ends at the node and marks it as
+	 * used.
+	 * 
+	 * @return The index of the way or -1 if there is none.
+	 */
+	private static int removeWayEndingAt(OsmNode node,
+	        HashMap<OsmNode, List<Integer>> ends, boolean[] used) {
+		List<Integer> list = ends.get(node);
+		if (list == null) {
+			return -1;
+		}
+		while (!list.isEmpty()) {
+			int way = list.remove(list.size() - 1);
+			if (!used[way]) {
+				used[way] = true;
+				return way;
 			}
 		}
-		return null;
+		return -1;
+	}
+
+	/**
+	 * Adds the points of a way to the ring. The first point is skipped if
+	 * the ring already contains it.
+	 */
+	private static void addPoints(List<LocalPoint> points, OsmWay way,
+	        boolean reversed, GlobalToLocalConverter converter) {
+		int count = way.getNodeCount();
+		for (int i = points.isEmpty() ? 0 : 1; i < count; i++) {
+			int position = reversed ? count - 1 - i : i;
+			points.add(converter.toLocal(way.getLat(position),
+			        way.getLon(position)));
+		}
 	}
 }
@@ -0,0 +1,52 @@
+package conversion.datachange.geometry;
+
+import data.position.local.LocalPoint;
+
+/**
+ * The piece of a polygon that covers a whole grid part. It has no vertices,
+ * a point is contained if it is in the part.
+ * 
+ * @author michael
+ */
+public class FilledGridPart implements Polygon {
+	private final GridPart part;
+	private final SimpleRectangle bounds;
+
+	public FilledGridPart(GridPart part) {
+		this.part = part;
+		this.bounds =
+		        new SimpleRectangle(part.getMinX(), part.getMinY(),
+		                part.getMaxX(), part.getMaxY());
+	}
+
+	public GridPart getPart() {
+		return part;
+	}
+
+	@Override
+	public boolean contains(LocalPoint p) {
+		return contains(p.getX(), p.getY());
+	}
+
+	@Override
+	public boolean contains(double x, double y) {
+		return bounds.getMinX() <= x && x <= bounds.getMaxX()
+		        && bounds.getMinY() <= y && y <= bounds.getMaxY();
+	}
+
+	@Override
+	public SimpleRectangle getBounds() {
+		return bounds;
+	}
+
+	@Override
+	public Polygon generateUnion(GridPart grid) {
+		return part.equals(grid) ? this : null;
+	}
+
+	@Override
+	public String toString() {
+		return "FilledGridPart[" + part.getGridX() + ", " + part.getGridY()
+		        + "]";
+	}
+}
@@ -24,6 +24,14 @@ public class GridPart {
 		this.gridy = gridy;
 	}
 
+	public int getGridX() {
+		return gridx;
+	}
+
+	public int getGridY() {
+		return gridy;
+	}
+
 	public float getMinX() {
 		return gridx * GRID_SPACING;
 	}
@@ -0,0 +1,91 @@
+package conversion.datachange.geometry;
+
+import java.util.Collection;
+
+import data.osm.OsmImportFilter;
+import data.position.local.GlobalToLocalConverter;
+
+/**
+ * An import filter that only accepts nodes on or near a set of grid parts.
+ * <p>
+ * The node coordinates are converted to local coordinates and then looked up
+ * in a flag grid, so no objects are created per node.
+ * 
+ * @author michael
+ */
+public class GridPartImportFilter implements OsmImportFilter {
+	private final GlobalToLocalConverter converter;
+	private final double margin;
+
+	private final int minGridX;
+	private final int minGridY;
+	private final int width;
+	private final int height;
+	private final boolean[] active;
+
+	/**
+	 * Creates a new filter.
+	 * 
+	 * @param converter
+	 *            The converter to convert the nodes to local space.
+	 * @param parts
+	 *            The parts the nodes should be on.
+	 * @param margin
+	 *            The distance in meters a node may have to the parts.
+	 */
+	public GridPartImportFilter(GlobalToLocalConverter converter,
+	        Collection<GridPart> parts, double margin) {
+		if (parts.isEmpty()) {
+			throw new IllegalArgumentException("No grid parts given.");
+		}
+		this.converter = converter;
+		this.margin = margin;
+
+		int minx = Integer.MAX_VALUE;
+		int miny = Integer.MAX_VALUE;
+		int maxx = Integer.MIN_VALUE;
+		int maxy = Integer.MIN_VALUE;
+		for (GridPart part : parts) {
+			minx = Math.min(minx, part.getGridX());
+			miny = Math.min(miny, part.getGridY());
+			maxx = Math.max(maxx, part.getGridX());
+			maxy = Math.max(maxy, part.getGridY());
+		}
+		minGridX = minx;
+		minGridY = miny;
+		width = maxx - minx + 1;
+		height = maxy - miny + 1;
+		active = new boolean[width * height];
+		for (GridPart part : parts) {
+			active[(part.getGridX() - minx) * height + part.getGridY() - miny] =
+			        true;
+		}
+	}
+
+	@Override
+	public boolean acceptNode(double lat, double lon) {
+		double x = converter.toLocalX(lat);
+		double y = converter.toLocalY(lon);
+
+		int startx = toGrid(x - margin) - minGridX;
+		int endx = toGrid(x + margin) - minGridX;
+		int starty = toGrid(y - margin) - minGridY;
+		int endy = toGrid(y + margin) - minGridY;
+		if (endx < 0 || endy < 0 || startx >= width || starty >= height) {
+			return false;
+		}
+
+		for (int gx = Math.max(startx, 0); gx <= Math.min(endx, width - 1); gx++) {
+			for (int gy = Math.max(starty, 0); gy <= Math.min(endy, height - 1); gy++) {
+				if (active[gx * height + gy]) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static int toGrid(double coordinate) {
+		return (int) Math.floor(coordinate / GridPart.GRID_SPACING);
+	}
+}
@@ -0,0 +1,240 @@
+package conversion.datachange.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import data.position.local.LocalPoint;
+
+/**
+ * A polygon with any number of rings, for example the outer and inner rings
+ * of a multipolygon clipped to a grid part. A point is inside if it is inside
+ * an odd number of rings.
+ * <p>
+ * All edges are kept in one list. For {@link #contains(double, double)}, they
+ * are sorted into bands along the y axis, so only the edges of one band need
+ * to be tested.
+ * 
+ * @author michael
+ */
+public class MultiRingPolygon implements Polygon {
+	private static final int EDGES_PER_BAND = 4;
+	private static final int MAX_BANDS = 64;
+
+	private final double[] xs;
+	private final double[] ys;
+	/**
+	 * The first point of each ring, followed by the point count.
+	 */
+	private final int[] ringStarts;
+	/**
+	 * The point before point i in its ring, that is where the edge to i
+	 * starts.
+	 */
+	private final int[] previous;
+	/**
+	 * The dx/dy of the edge ending at point i.
+	 */
+	private final double[] slopes;
+
+	private final SimpleRectangle bounds;
+
+	private final double bandHeight;
+	private final int bandCount;
+	/**
+	 * The edges of band b are bandEdges[bandStarts[b]] up to
+	 * bandEdges[bandStarts[b + 1] - 1].
+	 */
+	private final int[] bandStarts;
+	private final int[] bandEdges;
+
+	/**
+	 * Creates a new polygon.
+	 * 
+	 * @param rings
+	 *            The rings, at least one.
+	 */
+	MultiRingPolygon(List<SimplePolygon> rings) {
+		if (rings.isEmpty()) {
+			throw new IllegalArgumentException("There needs to be a ring.");
+		}
+		int count = 0;
+		for (SimplePolygon ring : rings) {
+			count += ring.getPointCount();
+		}
+		xs = new double[count];
+		ys = new double[count];
+		previous = new int[count];
+		slopes = new double[count];
+		ringStarts = new int[rings.size() + 1];
+
+		int point = 0;
+		for (int r = 0; r < rings.size(); r++) {
+			SimplePolygon ring = rings.get(r);
+			ringStarts[r] = point;
+			int last = point + ring.getPointCount() - 1;
+			for (int i = 0; i < ring.getPointCount(); i++) {
+				xs[point] = ring.getX(i);
+				ys[point] = ring.getY(i);
+				previous[point] = i == 0 ? last : point - 1;
+				point++;
+			}
+		}
+		ringStarts[rings.size()] = count;
+
+		SimpleRectangle bounds = rings.get(0).getBounds();
+		for (SimplePolygon ring : rings) {
+			bounds = bounds.union(ring.getBounds());
+		}
+		this.bounds = bounds;
+
+		for (int i = 0; i < count; i++) {
+			int last = previous[i];
+			slopes[i] = (xs[last] - xs[i]) / (ys[last] - ys[i]);
+		}
+
+		if (bounds.getHeight() > 0) {
+			bandCount =
+			        Math.max(1, Math.min(count / EDGES_PER_BAND, MAX_BANDS));
+		} else {
+			bandCount = 1;
+		}
+		bandHeight = bounds.getHeight() / bandCount;
+
+		// count, then fill the edges of each band.
+		bandStarts = new int[bandCount + 1];
+		for (int i = 0; i < count; i++) {
+			int max = getMaxBand(i);
+			for (int band = getMinBand(i); band <= max; band++) {
+				bandStarts[band + 1]++;
+			}
+		}
+		for (int band = 0; band < bandCount; band++) {
+			bandStarts[band + 1] += bandStarts[band];
+		}
+		bandEdges = new int[bandStarts[bandCount]];
+		int[] filled = new int[bandCount];
+		for (int i = 0; i < count; i++) {
+			int max = getMaxBand(i);
+			for (int band = getMinBand(i); band <= max; band++) {
+				bandEdges[bandStarts[band] + filled[band]++] = i;
+			}
+		}
+	}
+
+	private int getMinBand(int edge) {
+		return getBand(Math.min(ys[edge], ys[previous[edge]]));
+	}
+
+	private int getMaxBand(int edge) {
+		return getBand(Math.max(ys[edge], ys[previous[edge]]));
+	}
+
+	private int getBand(double y) {
+		if (bandCount == 1) {
+			return 0;
+		}
+		int band = (int) ((y - bounds.getMinY()) / bandHeight);
+		return Math.max(0, Math.min(bandCount - 1, band));
+	}
+
+	@Override
+	public boolean contains(LocalPoint p) {
+		return contains(p.getX(), p.getY());
+	}
+
+	@Override
+	public boolean contains(double x, double y) {
+		if (x < bounds.getMinX() || x > bounds.getMaxX()
+		        || y < bounds.getMinY() || y > bounds.getMaxY()) {
+			return false;
+		}
+
+		boolean contained = false;
+		int band = getBand(y);
+		for (int e = bandStarts[band]; e < bandStarts[band + 1]; e++) {
+			int i = bandEdges[e];
+			if ((ys[i] > y) != (ys[previous[i]] > y)) {
+				if (x < slopes[i] * (y - ys[i]) + xs[i]) {
+					contained = !contained;
+				}
+			}
+		}
+		return contained;
+	}
+
+	@Override
+	public SimpleRectangle getBounds() {
+		return bounds;
+	}
+
+	@Override
+	public Polygon generateUnion(GridPart grid) {
+		List<SimplePolygon> clipped = new ArrayList<SimplePolygon>();
+		for (int ring = 0; ring < getRingCount(); ring++) {
+			SimplePolygon part = getRing(ring).generateUnion(grid);
+			if (part != null) {
+				clipped.add(part);
+			}
+		}
+		return fromRings(clipped);
+	}
+
+	/**
+	 * Creates a polygon from rings.
+	 * 
+	 * @param rings
+	 *            The rings.
+	 * @return <code>null</code> if there are no rings, the ring if there is
+	 *         only one, a {@link MultiRingPolygon} otherwise.
+	 */
+	static Polygon fromRings(List<SimplePolygon> rings) {
+		if (rings.isEmpty()) {
+			return null;
+		} else if (rings.size() == 1) {
+			return rings.get(0);
+		} else {
+			return new MultiRingPolygon(rings);
+		}
+	}
+
+	public int getRingCount() {
+		return ringStarts.length - 1;
+	}
+
+	/**
+	 * Gets the index of the first point of a ring.
+	 */
+	public int getRingStart(int ring) {
+		return ringStarts[ring];
+	}
+
+	/**
+	 * Gets the index after the last point of a ring.
+	 */
+	public int getRingEnd(int ring) {
+		return ringStarts[ring + 1];
+	}
+
+	public SimplePolygon getRing(int ring) {
+		int start = getRingStart(ring);
+		int end = getRingEnd(ring);
+		return SimplePolygon.fromCoordinates(
+		        Arrays.copyOfRange(xs, start, end),
+		        Arrays.copyOfRange(ys, start, end), end - start);
+	}
+
+	public double getX(int i) {
+		return xs[i];
+	}
+
+	public double getY(int i) {
+		return ys[i];
+	}
+
+	@Override
+	public String toString() {
+		return "MultiRingPolygon[" + getRingCount() + " rings, " + xs.length
+		        + " points]";
+	}
+}
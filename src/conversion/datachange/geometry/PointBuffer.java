@@ -0,0 +1,29 @@
+package conversion.datachange.geometry;
+
+import java.util.Arrays;
+
+/**
+ * A growing list of points, stored in primitive arrays.
+ * 
+ * @author michael
+ */
+class PointBuffer {
+	double[] xs;
+	double[] ys;
+	int count = 0;
+
+	public PointBuffer(int capacity) {
+		xs = new double[Math.max(capacity, 4)];
+		ys = new double[xs.length];
+	}
+
+	public void add(double x, double y) {
+		if (count == xs.length) {
+			xs = Arrays.copyOf(xs, count * 2);
+			ys = Arrays.copyOf(ys, count * 2);
+		}
+		xs[count] = x;
+		ys[count] = y;
+		count++;
+	}
+}
@@ -0,0 +1,495 @@
+package conversion.datachange.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * Splits a polygon at the borders of all grid parts in one pass over its
+ * edges.
+ * <p>
+ * Every edge is cut at the grid lines it crosses, and each piece of it is
+ * appended to the chains of the grid part it lies in. The chains of a part
+ * are then joined along the border of the part. The outline is also
+ * intersected with a reference line through each grid row, which tells for
+ * every part whether its reference point is inside the polygon. This is used to join the
+ * chains the right way around and to find the parts that are completely
+ * inside without being touched by the outline. Those parts get a
+ * {@link FilledGridPart}.
+ * <p>
+ * The work is linear in the number of vertices plus the number of grid lines
+ * the outline crosses, where clipping the polygon to every part on its own
+ * takes vertices times parts. Multipolygons are split ring by ring.
+ * 
+ * @author michael
+ */
+public class PolygonGridSplitter {
+	public interface PieceVisitor {
+		/**
+		 * Called for every grid part the polygon covers.
+		 * 
+		 * @param part
+		 *            The part.
+		 * @param piece
+		 *            The part of the polygon in the grid part, a
+		 *            {@link SimplePolygon} or a {@link FilledGridPart}.
+		 */
+		public void visitPiece(GridPart part, Polygon piece);
+	}
+
+	/**
+	 * Where the reference point of a part is, relative to its size. It is
+	 * not on a round position, so outlines with round coordinates do not
+	 * pass through it.
+	 */
+	private static final double REFERENCE_X = Math.sqrt(2) - 1;
+	private static final double REFERENCE_Y = Math.sqrt(3) - 1;
+
+	private final SimplePolygon polygon;
+	private final double spacing;
+
+	private final HashMap<GridPart, Cell> cells = new HashMap<GridPart, Cell>();
+	/**
+	 * The cell the last edge piece was added to.
+	 */
+	private Cell current = null;
+	private int fragmentCount = 0;
+
+	/**
+	 * The x coordinates where the outline crosses the reference line of a
+	 * grid row, for the rows from minGridY on.
+	 */
+	private final int minGridY;
+	private final Crossings[] rows;
+
+	/**
+	 * The pieces of the outline in one grid part.
+	 */
+	private static class Cell {
+		private final GridPart part;
+		private final PointBuffer points = new PointBuffer(8);
+		/**
+		 * The index of the first point of each chain.
+		 */
+		private int[] chainStarts = new int[2];
+		private int chainCount = 0;
+		private int lastFragment = -2;
+		private boolean containsFirstFragment = false;
+
+		public Cell(GridPart part) {
+			this.part = part;
+		}
+
+		public void add(int fragment, double x1, double y1, double x2,
+		        double y2) {
+			if (fragment == 0) {
+				containsFirstFragment = true;
+			}
+			if (lastFragment != fragment - 1) {
+				if (chainCount == chainStarts.length) {
+					chainStarts = Arrays.copyOf(chainStarts, chainCount * 2);
+				}
+				chainStarts[chainCount++] = points.count;
+				points.add(x1, y1);
+			}
+			points.add(x2, y2);
+			lastFragment = fragment;
+		}
+
+		public int getChainEnd(int chain) {
+			return chain + 1 < chainCount ? chainStarts[chain + 1]
+			        : points.count;
+		}
+	}
+
+	private static class Crossings {
+		private double[] xs = new double[4];
+		private int count = 0;
+
+		public void add(double x) {
+			if (count == xs.length) {
+				xs = Arrays.copyOf(xs, count * 2);
+			}
+			xs[count++] = x;
+		}
+
+		/**
+		 * Checks if there is an odd number of crossings left of x. The
+		 * crossings need to be sorted.
+		 */
+		public boolean isInside(double x) {
+			int index = Arrays.binarySearch(xs, 0, count, x);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			return index % 2 == 1;
+		}
+	}
+
+	private PolygonGridSplitter(SimplePolygon polygon) {
+		this.polygon = polygon;
+		this.spacing = GridPart.GRID_SPACING;
+
+		SimpleRectangle bounds = polygon.getBounds();
+		minGridY = (int) Math.floor(bounds.getMinY() / spacing);
+		int maxGridY = (int) Math.floor(bounds.getMaxY() / spacing);
+		rows = new Crossings[maxGridY - minGridY + 1];
+		for (int i = 0; i < rows.length; i++) {
+			rows[i] = new Crossings();
+		}
+	}
+
+	/**
+	 * Splits a polygon at the grid part borders.
+	 * 
+	 * @param polygon
+	 *            The polygon.
+	 * @param visitor
+	 *            The visitor that gets each piece. It is called once for
+	 *            every grid part the polygon covers, in no special order.
+	 */
+	public static void split(SimplePolygon polygon, PieceVisitor visitor) {
+		PolygonGridSplitter splitter = new PolygonGridSplitter(polygon);
+		splitter.addEdges();
+		splitter.visitPieces(visitor);
+	}
+
+	/**
+	 * Splits a multipolygon at the grid part borders. Each ring is split on
+	 * its own, the pieces of the rings on one part are then combined with
+	 * the even-odd rule.
+	 * 
+	 * @param polygon
+	 *            The polygon.
+	 * @param visitor
+	 *            The visitor that gets each piece. The pieces may also be
+	 *            {@link MultiRingPolygon}s.
+	 */
+	public static void split(ComplexPolygon polygon, PieceVisitor visitor) {
+		final HashMap<GridPart, List<Polygon>> pieces =
+		        new HashMap<GridPart, List<Polygon>>();
+		PieceVisitor collector = new PieceVisitor() {
+			@Override
+			public void visitPiece(GridPart part, Polygon piece) {
+				List<Polygon> list = pieces.get(part);
+				if (list == null) {
+					list = new ArrayList<Polygon>(2);
+					pieces.put(part, list);
+				}
+				list.add(piece);
+			}
+		};
+		for (Polygon ring : polygon.getOuter()) {
+			split((SimplePolygon) ring, collector);
+		}
+		for (Polygon ring : polygon.getInner()) {
+			split((SimplePolygon) ring, collector);
+		}
+
+		for (Entry<GridPart, List<Polygon>> entry : pieces.entrySet()) {
+			Polygon piece = combine(entry.getKey(), entry.getValue());
+			if (piece != null) {
+				visitor.visitPiece(entry.getKey(), piece);
+			}
+		}
+	}
+
+	/**
+	 * Combines the ring pieces on a part. Filled parts cancel each other out
+	 * in pairs.
+	 */
+	private static Polygon combine(GridPart part, List<Polygon> pieces) {
+		boolean filled = false;
+		ArrayList<SimplePolygon> rings = new ArrayList<SimplePolygon>();
+		for (Polygon piece : pieces) {
+			if (piece instanceof FilledGridPart) {
+				filled = !filled;
+			} else {
+				rings.add((SimplePolygon) piece);
+			}
+		}
+
+		if (filled) {
+			if (rings.isEmpty()) {
+				return new FilledGridPart(part);
+			}
+			double[] xs =
+			        new double[] {
+			                part.getMinX(), part.getMaxX(), part.getMaxX(),
+			                part.getMinX()
+			        };
+			double[] ys =
+			        new double[] {
+			                part.getMinY(), part.getMinY(), part.getMaxY(),
+			                part.getMaxY()
+			        };
+			rings.add(SimplePolygon.fromCoordinates(xs, ys, 4));
+		}
+		return MultiRingPolygon.fromRings(rings);
+	}
+
+	private void addEdges() {
+		int count = polygon.getPointCount();
+		double lastX = polygon.getX(count - 1);
+		double lastY = polygon.getY(count - 1);
+		for (int i = 0; i < count; i++) {
+			double x = polygon.getX(i);
+			double y = polygon.getY(i);
+			addReferenceCrossings(lastX, lastY, x, y);
+			addEdge(lastX, lastY, x, y);
+			lastX = x;
+			lastY = y;
+		}
+		for (Crossings row : rows) {
+			Arrays.sort(row.xs, 0, row.count);
+		}
+	}
+
+	private void addReferenceCrossings(double x1, double y1, double x2,
+	        double y2) {
+		int first = (int) Math.ceil(Math.min(y1, y2) / spacing - REFERENCE_Y);
+		int last = (int) Math.floor(Math.max(y1, y2) / spacing - REFERENCE_Y);
+		for (int gridY = first; gridY <= last; gridY++) {
+			double y = (gridY + REFERENCE_Y) * spacing;
+			if ((y1 > y) != (y2 > y)) {
+				rows[gridY - minGridY].add(x1 + (y - y1) * (x2 - x1)
+				        / (y2 - y1));
+			}
+		}
+	}
+
+	/**
+	 * Cuts an edge at all grid lines it crosses and adds the pieces to their
+	 * cells.
+	 */
+	private void addEdge(double x1, double y1, double x2, double y2) {
+		int directionX = x2 > x1 ? 1 : x2 < x1 ? -1 : 0;
+		int directionY = y2 > y1 ? 1 : y2 < y1 ? -1 : 0;
+		int lineX = getFirstLine(x1, directionX);
+		int lineY = getFirstLine(y1, directionY);
+
+		double startX = x1;
+		double startY = y1;
+		boolean end = false;
+		while (!end) {
+			double tx = 2;
+			if (isBefore(lineX * spacing, x2, directionX)) {
+				tx = (lineX * spacing - x1) / (x2 - x1);
+			}
+			double ty = 2;
+			if (isBefore(lineY * spacing, y2, directionY)) {
+				ty = (lineY * spacing - y1) / (y2 - y1);
+			}
+
+			double endX;
+			double endY;
+			if (tx >= 1 && ty >= 1) {
+				endX = x2;
+				endY = y2;
+				end = true;
+			} else if (tx < ty) {
+				endX = lineX * spacing;
+				endY = y1 + tx * (y2 - y1);
+				lineX += directionX;
+			} else if (ty < tx) {
+				endX = x1 + ty * (x2 - x1);
+				endY = lineY * spacing;
+				lineY += directionY;
+			} else {
+				// through a grid corner
+				endX = lineX * spacing;
+				endY = lineY * spacing;
+				lineX += directionX;
+				lineY += directionY;
+			}
+
+			if (startX != endX || startY != endY) {
+				addFragment(startX, startY, endX, endY);
+			}
+			startX = endX;
+			startY = endY;
+		}
+	}
+
+	private int getFirstLine(double start, int direction) {
+		if (direction > 0) {
+			return (int) Math.floor(start / spacing) + 1;
+		} else {
+			return (int) Math.ceil(start / spacing) - 1;
+		}
+	}
+
+	private static boolean isBefore(double line, double end, int direction) {
+		return direction > 0 ? line < end : direction < 0 && line > end;
+	}
+
+	private void addFragment(double x1, double y1, double x2, double y2) {
+		GridPart part =
+		        new GridPart((int) Math.floor((x1 + x2) / 2 / spacing),
+		                (int) Math.floor((y1 + y2) / 2 / spacing));
+		if (current == null || !current.part.equals(part)) {
+			current = cells.get(part);
+			if (current == null) {
+				current = new Cell(part);
+				cells.put(part, current);
+			}
+		}
+		current.add(fragmentCount, x1, y1, x2, y2);
+		fragmentCount++;
+	}
+
+	private void visitPieces(PieceVisitor visitor) {
+		for (Entry<GridPart, Cell> entry : cells.entrySet()) {
+			Polygon piece = createPiece(entry.getValue());
+			if (piece != null) {
+				visitor.visitPiece(entry.getKey(), piece);
+			}
+		}
+
+		for (int i = 0; i < rows.length; i++) {
+			Crossings row = rows[i];
+			int gridY = minGridY + i;
+			for (int j = 0; j + 1 < row.count; j += 2) {
+				int gridX = (int) Math.ceil(row.xs[j] / spacing - REFERENCE_X);
+				for (; (gridX + REFERENCE_X) * spacing < row.xs[j + 1]; gridX++) {
+					GridPart part = new GridPart(gridX, gridY);
+					if (!cells.containsKey(part)) {
+						visitor.visitPiece(part, new FilledGridPart(part));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Joins the chains of a cell to one ring.
+	 * 
+	 * @return The piece or <code>null</code> if it has no area.
+	 */
+	private Polygon createPiece(Cell cell) {
+		boolean wraps =
+		        cell.containsFirstFragment
+		                && cell.lastFragment == fragmentCount - 1;
+		if (wraps && cell.chainCount == 1) {
+			// the polygon does not leave the cell.
+			return polygon;
+		}
+
+		PointBuffer points = cell.points;
+		PointBuffer ring = new PointBuffer(points.count + 4 * cell.chainCount);
+		int firstChain;
+		if (wraps) {
+			// the last chain is continued by the first one.
+			int last = cell.chainCount - 1;
+			addPoints(ring, points, cell.chainStarts[last], points.count);
+			addPoints(ring, points, 1, cell.getChainEnd(0));
+			firstChain = 1;
+		} else {
+			addPoints(ring, points, 0, cell.getChainEnd(0));
+			firstChain = 1;
+		}
+		int lastChain = wraps ? cell.chainCount - 1 : cell.chainCount;
+		for (int chain = firstChain; chain < lastChain; chain++) {
+			int start = cell.chainStarts[chain];
+			addBorder(cell.part, ring, points.xs[start], points.ys[start],
+			        true);
+			addPoints(ring, points, start, cell.getChainEnd(chain));
+		}
+
+		int closing = ring.count;
+		addBorder(cell.part, ring, ring.xs[0], ring.ys[0], true);
+		SimplePolygon piece = toPolygon(ring);
+
+		// the border between two chains may be walked around the cell any
+		// number of times. Going the other way once fixes the parity.
+		double referenceX = (cell.part.getGridX() + REFERENCE_X) * spacing;
+		double referenceY = (cell.part.getGridY() + REFERENCE_Y) * spacing;
+		boolean inside =
+		        rows[cell.part.getGridY() - minGridY].isInside(referenceX);
+		if ((piece != null && piece.contains(referenceX, referenceY)) != inside) {
+			ring.count = closing;
+			addBorder(cell.part, ring, ring.xs[0], ring.ys[0], false);
+			piece = toPolygon(ring);
+		}
+		return piece;
+	}
+
+	private static SimplePolygon toPolygon(PointBuffer ring) {
+		if (ring.count < 3) {
+			return null;
+		} else {
+			return SimplePolygon.fromCoordinates(ring.xs, ring.ys, ring.count);
+		}
+	}
+
+	private static void addPoints(PointBuffer to, PointBuffer from, int start,
+	        int end) {
+		for (int i = start; i < end; i++) {
+			to.add(from.xs[i], from.ys[i]);
+		}
+	}
+
+	/**
+	 * Walks along the border of the part from the last point of the ring to
+	 * the given point, adding the corners that are passed. The point itself
+	 * is not added.
+	 * 
+	 * @param forward
+	 *            The direction, forward is from (minX, minY) to (maxX,
+	 *            minY).
+	 */
+	private void addBorder(GridPart part, PointBuffer ring, double toX,
+	        double toY, boolean forward) {
+		double perimeter = 4 * spacing;
+		double from =
+		        getBorderPosition(part, ring.xs[ring.count - 1],
+		                ring.ys[ring.count - 1]);
+		double distance = getBorderPosition(part, toX, toY) - from;
+		if (distance < 0) {
+			distance += perimeter;
+		}
+
+		if (forward) {
+			for (double corner = (Math.floor(from / spacing) + 1) * spacing; corner < from
+			        + distance; corner += spacing) {
+				addCorner(part, ring, corner);
+			}
+		} else {
+			distance = perimeter - distance;
+			for (double corner = (Math.ceil(from / spacing) - 1) * spacing; corner > from
+			        - distance; corner -= spacing) {
+				addCorner(part, ring, corner);
+			}
+		}
+	}
+
+	private void addCorner(GridPart part, PointBuffer ring, double position) {
+		int corner = ((int) Math.round(position / spacing) % 4 + 4) % 4;
+		double x = corner == 0 || corner == 3 ? part.getMinX() : part.getMaxX();
+		double y = corner < 2 ? part.getMinY() : part.getMaxY();
+		ring.add(x, y);
+	}
+
+	/**
+	 * Gets the position of a point on the border, measured from (minX, minY)
+	 * towards (maxX, minY).
+	 */
+	private double getBorderPosition(GridPart part, double x, double y) {
+		double toMinX = x - part.getMinX();
+		double toMaxX = part.getMaxX() - x;
+		double toMinY = y - part.getMinY();
+		double toMaxY = part.getMaxY() - y;
+		double min = Math.min(Math.min(toMinX, toMaxX), Math.min(toMinY, toMaxY));
+		if (min == toMinY) {
+			return toMinX;
+		} else if (min == toMaxX) {
+			return spacing + toMinY;
+		} else if (min == toMaxY) {
+			return 2 * spacing + toMaxX;
+		} else {
+			return 3 * spacing + toMaxY;
+		}
+	}
+}
@@ -1,13 +1,23 @@
 package conversion.datachange.geometry;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import data.position.local.LocalPoint;
-
+/**
+ * Clips polygons to grid parts with four Sutherland-Hodgman passes. The
+ * points are kept in primitive buffers, so no point objects are created.
+ * 
+ * @author michael
+ */
 public class PolygonGridUnionHelper {
-	public static List<LocalPoint> getClipped(GridPart grid, SimplePolygon polygon) {
-		List<LocalPoint> points = polygon.getPoints();
+	/**
+	 * Clips a polygon to a grid part.
+	 * 
+	 * @param grid
+	 *            The part.
+	 * @param polygon
+	 *            The polygon.
+	 * @return The part of the polygon that is inside the grid part, or
+	 *         <code>null</code> if there is none.
+	 */
+	public static SimplePolygon getClipped(GridPart grid, SimplePolygon polygon) {
 		ClipHelper[] helper =
 		        new ClipHelper[] {
 		                new HorizontalClipHelper(grid.getMinX(), false),
@@ -15,46 +25,66 @@ public class PolygonGridUnionHelper {
 		                new VerticalClipHelper(grid.getMinY(), false),
 		                new VerticalClipHelper(grid.getMaxY(), true)
 		        };
-		for (int i = 0; i < helper.length && points.size() > 2; i++) {
-			points = cutWithHelper(points, helper[i]);
+
+		int count = polygon.getPointCount();
+		PointBuffer points = new PointBuffer(count + 4);
+		for (int i = 0; i < count; i++) {
+			points.add(polygon.getX(i), polygon.getY(i));
+		}
+		PointBuffer generated = new PointBuffer(count + 4);
+		for (int i = 0; i < helper.length && points.count > 2; i++) {
+			generated.count = 0;
+			cutWithHelper(points, generated, helper[i]);
+			PointBuffer swap = points;
+			points = generated;
+			generated = swap;
 		}
-		return points;
-	}
 
-	private static List<LocalPoint> cutWithHelper(List<LocalPoint> points,
-	        ClipHelper helper) {
-		ArrayList<LocalPoint> generated = new ArrayList<LocalPoint>();
+		if (points.count > 2) {
+			return SimplePolygon.fromCoordinates(points.xs, points.ys,
+			        points.count);
+		} else {
+			return null;
+		}
+	}
 
-		LocalPoint lastPoint = points.get(points.size() - 1);
-		for (LocalPoint polyPoint : points) {
-			if (helper.shouldBeCut(lastPoint)) {
-				if (helper.shouldBeCut(polyPoint)) {
+	private static void cutWithHelper(PointBuffer points,
+	        PointBuffer generated, ClipHelper helper) {
+		double lastX = points.xs[points.count - 1];
+		double lastY = points.ys[points.count - 1];
+		boolean lastCut = helper.shouldBeCut(lastX, lastY);
+		for (int i = 0; i < points.count; i++) {
+			double x = points.xs[i];
+			double y = points.ys[i];
+			boolean cut = helper.shouldBeCut(x, y);
+			if (lastCut) {
+				if (cut) {
 					// nothing to do
 				} else {
 					// outside => inside
-					generated
-					        .add(helper.getCutWithBorder(lastPoint, polyPoint));
-					generated.add(polyPoint);
+					helper.addCutWithBorder(lastX, lastY, x, y, generated);
+					generated.add(x, y);
 				}
 			} else {
-				if (helper.shouldBeCut(polyPoint)) {
+				if (cut) {
 					// we are getting outside
-					generated
-					        .add(helper.getCutWithBorder(lastPoint, polyPoint));
+					helper.addCutWithBorder(lastX, lastY, x, y, generated);
 				} else {
-					generated.add(polyPoint);
+					generated.add(x, y);
 				}
 			}
-			lastPoint = polyPoint;
+			lastX = x;
+			lastY = y;
+			lastCut = cut;
 		}
-		return generated;
 	}
 
 	private interface ClipHelper {
-		public LocalPoint getCutWithBorder(LocalPoint p1, LocalPoint p2);
+		public void addCutWithBorder(double x1, double y1, double x2,
+		        double y2, PointBuffer to);
 
 		// !contains()
-		public boolean shouldBeCut(LocalPoint p1);
+		public boolean shouldBeCut(double x, double y);
 	}
 
 	private static class HorizontalClipHelper implements ClipHelper {
@@ -67,17 +97,18 @@ public class PolygonGridUnionHelper {
 		}
 
 		@Override
-		public LocalPoint getCutWithBorder(LocalPoint p1, LocalPoint p2) {
-			assert p1.getX() != p2.getX();
+		public void addCutWithBorder(double x1, double y1, double x2,
+		        double y2, PointBuffer to) {
+			assert x1 != x2;
 
-			double m = (p2.getY() - p1.getY()) / (p2.getX() - p1.getX());
-			double c = p1.getY() - m * p1.getX();
-			return new LocalPoint(x, m * x + c);
+			double m = (y2 - y1) / (x2 - x1);
+			double c = y1 - m * x1;
+			to.add(x, m * x + c);
 		}
 
 		@Override
-		public boolean shouldBeCut(LocalPoint p1) {
-			return (p1.getX() > x) == ismax;
+		public boolean shouldBeCut(double x, double y) {
+			return (x > this.x) == ismax;
 		}
 
 	}
@@ -92,17 +123,18 @@ public class PolygonGridUnionHelper {
 		}
 
 		@Override
-		public LocalPoint getCutWithBorder(LocalPoint p1, LocalPoint p2) {
-			assert p1.getY() != p2.getY();
+		public void addCutWithBorder(double x1, double y1, double x2,
+		        double y2, PointBuffer to) {
+			assert y1 != y2;
 
-			double m = (p2.getX() - p1.getX()) / (p2.getY() - p1.getY());
-			double c = p1.getX() - m * p1.getY();
-			return new LocalPoint(m * y + c, y);
+			double m = (x2 - x1) / (y2 - y1);
+			double c = x1 - m * y1;
+			to.add(m * y + c, y);
 		}
 
 		@Override
-		public boolean shouldBeCut(LocalPoint p1) {
-			return (p1.getY() > y) == ismax;
+		public boolean shouldBeCut(double x, double y) {
+			return (y > this.y) == ismax;
 		}
 
 	}
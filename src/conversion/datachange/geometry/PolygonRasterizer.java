@@ -0,0 +1,172 @@
+package conversion.datachange.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Fills polygons into a regular grid of sample points with an even-odd
+ * scanline fill.
+ * <p>
+ * The sample (i, j) is at <code>(minX + i * spacing, minY + j * spacing)</code>
+ * . Each row i is scanned along y, and the samples between two edge crossings
+ * are reported as one span.
+ * <p>
+ * A rasterizer can be used for many polygons, but not by many threads at the
+ * same time.
+ * 
+ * @author michael
+ */
+public class PolygonRasterizer {
+	private final double minX;
+	private final double minY;
+	private final double spacing;
+	private final int rows;
+	private final int columns;
+
+	/**
+	 * The crossings of the current scanline.
+	 */
+	private double[] crossings = new double[16];
+	private int crossingCount;
+
+	public interface SpanVisitor {
+		/**
+		 * Called for a span of samples that are inside the polygon.
+		 * 
+		 * @param row
+		 *            The row.
+		 * @param start
+		 *            The first column of the span.
+		 * @param end
+		 *            The column after the last column of the span.
+		 */
+		public void visitSpan(int row, int start, int end);
+	}
+
+	/**
+	 * Creates a new rasterizer.
+	 * 
+	 * @param minX
+	 *            The x coordinate of the first row.
+	 * @param minY
+	 *            The y coordinate of the first column.
+	 * @param spacing
+	 *            The distance between two samples.
+	 * @param rows
+	 *            The number of rows (in x direction).
+	 * @param columns
+	 *            The number of columns (in y direction).
+	 */
+	public PolygonRasterizer(double minX, double minY, double spacing,
+	        int rows, int columns) {
+		this.minX = minX;
+		this.minY = minY;
+		this.spacing = spacing;
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	/**
+	 * Finds all samples that are inside a polygon.
+	 * 
+	 * @param polygon
+	 *            A {@link SimplePolygon}, {@link ComplexPolygon},
+	 *            {@link MultiRingPolygon} or {@link FilledGridPart}.
+	 * @param visitor
+	 *            The visitor that gets the spans, row by row.
+	 */
+	public void fill(Polygon polygon, SpanVisitor visitor) {
+		SimpleRectangle bounds = polygon.getBounds();
+		int firstRow =
+		        Math.max(0, (int) Math.ceil((bounds.getMinX() - minX) / spacing));
+		int lastRow =
+		        Math.min(rows - 1,
+		                (int) Math.floor((bounds.getMaxX() - minX) / spacing));
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			double x = minX + row * spacing;
+			crossingCount = 0;
+			addCrossings(polygon, x);
+			Arrays.sort(crossings, 0, crossingCount);
+
+			for (int i = 0; i + 1 < crossingCount; i += 2) {
+				int start =
+				        Math.max(0,
+				                (int) Math.ceil((crossings[i] - minY) / spacing));
+				int end =
+				        Math.min(columns, (int) Math.ceil((crossings[i + 1] - minY)
+				                / spacing));
+				if (start < end) {
+					visitor.visitSpan(row, start, end);
+				}
+			}
+		}
+	}
+
+	private void addCrossings(Polygon polygon, double x) {
+		if (polygon instanceof SimplePolygon) {
+			addCrossings((SimplePolygon) polygon, x);
+		} else if (polygon instanceof ComplexPolygon) {
+			ComplexPolygon complex = (ComplexPolygon) polygon;
+			for (Polygon ring : complex.getOuter()) {
+				addCrossings(ring, x);
+			}
+			for (Polygon ring : complex.getInner()) {
+				addCrossings(ring, x);
+			}
+		} else if (polygon instanceof MultiRingPolygon) {
+			MultiRingPolygon multi = (MultiRingPolygon) polygon;
+			for (int ring = 0; ring < multi.getRingCount(); ring++) {
+				addCrossings(multi, multi.getRingStart(ring),
+				        multi.getRingEnd(ring), x);
+			}
+		} else if (polygon instanceof FilledGridPart) {
+			// like the square of the part as simple polygon.
+			SimpleRectangle bounds = polygon.getBounds();
+			if (x >= bounds.getMinX() && x < bounds.getMaxX()) {
+				addCrossing(bounds.getMinY());
+				addCrossing(bounds.getMaxY());
+			}
+		} else {
+			throw new IllegalArgumentException("Cannot rasterize " + polygon);
+		}
+	}
+
+	private void addCrossings(SimplePolygon polygon, double x) {
+		int count = polygon.getPointCount();
+		double lastX = polygon.getX(count - 1);
+		double lastY = polygon.getY(count - 1);
+		for (int i = 0; i < count; i++) {
+			double pointX = polygon.getX(i);
+			double pointY = polygon.getY(i);
+			if ((pointX > x) != (lastX > x)) {
+				double m = (lastY - pointY) / (lastX - pointX);
+				addCrossing(m * (x - pointX) + pointY);
+			}
+			lastX = pointX;
+			lastY = pointY;
+		}
+	}
+
+	private void addCrossings(MultiRingPolygon polygon, int start, int end,
+	        double x) {
+		double lastX = polygon.getX(end - 1);
+		double lastY = polygon.getY(end - 1);
+		for (int i = start; i < end; i++) {
+			double pointX = polygon.getX(i);
+			double pointY = polygon.getY(i);
+			if ((pointX > x) != (lastX > x)) {
+				double m = (lastY - pointY) / (lastX - pointX);
+				addCrossing(m * (x - pointX) + pointY);
+			}
+			lastX = pointX;
+			lastY = pointY;
+		}
+	}
+
+	private void addCrossing(double y) {
+		if (crossingCount == crossings.length) {
+			crossings = Arrays.copyOf(crossings, crossingCount * 2);
+		}
+		crossings[crossingCount++] = y;
+	}
+}
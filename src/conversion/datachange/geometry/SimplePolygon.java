@@ -1,37 +1,87 @@
 package conversion.datachange.geometry;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
-import data.osm.OsmNode;
 import data.osm.OsmWay;
 import data.position.local.GlobalToLocalConverter;
 import data.position.local.LocalPoint;
 
+/**
+ * A polygon with one ring.
+ * <p>
+ * The coordinates are stored in primitive arrays, together with the slope of
+ * every edge, so {@link #contains(double, double)} does not allocate
+ * anything.
+ */
 public class SimplePolygon implements Polygon, Iterable<LocalPoint> {
 
-	private final List<LocalPoint> points;
+	private final double[] xs;
+	private final double[] ys;
+	/**
+	 * The dx/dy of the edge from the previous point to point i. Not used for
+	 * edges that have no dy.
+	 */
+	private final double[] slopes;
 
 	private final SimpleRectangle bounds;
 
-	private SimplePolygon(List<LocalPoint> points) {
-		assert points.size() > 2 : "A polygon needs to have at least 3 Points.";
-		this.points = Collections.unmodifiableList(points);
-		this.bounds = SimpleRectangle.bounds(points);
+	/**
+	 * Creates a new polygon. The arrays are not copied.
+	 */
+	SimplePolygon(double[] xs, double[] ys) {
+		assert xs.length > 2 : "A polygon needs to have at least 3 Points.";
+		assert xs.length == ys.length;
+		this.xs = xs;
+		this.ys = ys;
+
+		int count = xs.length;
+		slopes = new double[count];
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		int last = count - 1;
+		for (int i = 0; i < count; i++) {
+			slopes[i] = (xs[last] - xs[i]) / (ys[last] - ys[i]);
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+			last = i;
+		}
+		this.bounds = new SimpleRectangle(minX, minY, maxX, maxY);
 	}
 
 	public boolean contains(LocalPoint p) {
-		if (!getBounds().contains(p)) {
-			return false;
-		}
 		return contains(p.getX(), p.getY());
 	}
 
 	@Override
 	public Iterator<LocalPoint> iterator() {
-		return points.iterator();
+		return new Iterator<LocalPoint>() {
+			private int position = 0;
+
+			@Override
+			public boolean hasNext() {
+				return position < xs.length;
+			}
+
+			@Override
+			public LocalPoint next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				LocalPoint point = new LocalPoint(xs[position], ys[position]);
+				position++;
+				return point;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 
 	/**
@@ -41,17 +91,19 @@ public class SimplePolygon implements Polygon, Iterable<LocalPoint> {
 	 * @return
 	 */
 	public SimplePolygon generateUnion(GridPart grid) {
-		List<LocalPoint> clipped =
-		        PolygonGridUnionHelper.getClipped(grid, this);
-		if (clipped.size() > 2) {
-			return new SimplePolygon(clipped);
-		} else {
-			return null;
-		}
+		return PolygonGridUnionHelper.getClipped(grid, this);
 	}
 
-	public List<LocalPoint> getPoints() {
-		return points;
+	public int getPointCount() {
+		return xs.length;
+	}
+
+	public double getX(int i) {
+		return xs[i];
+	}
+
+	public double getY(int i) {
+		return ys[i];
 	}
 
 	public SimpleRectangle getBounds() {
@@ -59,32 +111,34 @@ public class SimplePolygon implements Polygon, Iterable<LocalPoint> {
 	}
 
 	public boolean contains(double x, double y) {
-		LocalPoint lastPoint = points.get(points.size() - 1);
+		if (x < bounds.getMinX() || x > bounds.getMaxX()
+		        || y < bounds.getMinY() || y > bounds.getMaxY()) {
+			return false;
+		}
+
 		boolean contained = false;
-		for (LocalPoint point : points) {
-			if ((point.getY() > y) != (lastPoint.getY() > y)) {
-				double m =
-				        (lastPoint.getX() - point.getX())
-				                / (lastPoint.getY() - point.getY());
-				if (x < m * (y - point.getY()) + point.getX()) {
+		int last = xs.length - 1;
+		for (int i = 0; i < xs.length; i++) {
+			if ((ys[i] > y) != (ys[last] > y)) {
+				if (x < slopes[i] * (y - ys[i]) + xs[i]) {
 					contained = !contained;
 				}
 			}
-			lastPoint = point;
+			last = i;
 		}
 		return contained;
 	}
 
 	@Override
 	public String toString() {
-		String string = "Polygon[";
-		Iterator<LocalPoint> iterator = points.iterator();
-		string += iterator.next();
-		while (iterator.hasNext()) {
-			string += ", ";
-			string += iterator.next();
+		StringBuilder string = new StringBuilder("Polygon[");
+		for (int i = 0; i < xs.length; i++) {
+			if (i > 0) {
+				string.append(", ");
+			}
+			string.append(new LocalPoint(xs[i], ys[i]));
 		}
-		return string + "]";
+		return string.append("]").toString();
 	}
 
 	/**
@@ -95,23 +149,46 @@ public class SimplePolygon implements Polygon, Iterable<LocalPoint> {
 	 * @return
 	 */
 	public static Polygon fromWay(OsmWay way, GlobalToLocalConverter converter) {
-		List<LocalPoint> points = new ArrayList<LocalPoint>();
-
-		for (OsmNode node : way) {
-			LocalPoint local = converter.toLocal(node.getLat(), node.getLon());
-			if (points.size() < 1 || !local.equals(points.get(0))) {
-				points.add(local);
+		int count = way.getNodeCount();
+		double[] xs = new double[count];
+		double[] ys = new double[count];
+		int used = 0;
+		for (int i = 0; i < count; i++) {
+			double x = converter.toLocalX(way.getLat(i));
+			double y = converter.toLocalY(way.getLon(i));
+			if (used < 1 || x != xs[0] || y != ys[0]) {
+				xs[used] = x;
+				ys[used] = y;
+				used++;
 			}
 		}
-		return new SimplePolygon(points);
+		return fromCoordinates(xs, ys, used);
 	}
 
 	public static Polygon fromArray(LocalPoint[] points2) {
-		List<LocalPoint> points = new ArrayList<LocalPoint>(points2.length);
-		for (LocalPoint p : points2) {
-			points.add(p);
+		double[] xs = new double[points2.length];
+		double[] ys = new double[points2.length];
+		for (int i = 0; i < points2.length; i++) {
+			xs[i] = points2[i].getX();
+			ys[i] = points2[i].getY();
 		}
-		return new SimplePolygon(points);
+		return new SimplePolygon(xs, ys);
 	}
 
+	/**
+	 * Creates a polygon from the first count coordinates of the arrays.
+	 * 
+	 * @return The polygon.
+	 */
+	static SimplePolygon fromCoordinates(double[] xs, double[] ys, int count) {
+		if (count != xs.length) {
+			double[] newXs = new double[count];
+			double[] newYs = new double[count];
+			System.arraycopy(xs, 0, newXs, 0, count);
+			System.arraycopy(ys, 0, newYs, 0, count);
+			return new SimplePolygon(newXs, newYs);
+		} else {
+			return new SimplePolygon(xs, ys);
+		}
+	}
 }
@@ -5,13 +5,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import conversion.datachange.geometry.ComplexPolygon;
+import conversion.datachange.geometry.FilledGridPart;
 import conversion.datachange.geometry.GridPart;
 import conversion.datachange.geometry.Polygon;
+import conversion.datachange.geometry.PolygonGridSplitter;
 import conversion.datachange.geometry.SimplePolygon;
 import data.osm.OsmDatapack;
 import data.osm.OsmRelation;
@@ -25,6 +29,11 @@ import data.position.local.LocalPoint;
  * <p>
  * It consists of a grid of squares ({@link GridPart}) and polygons contained by
  * the part.
+ * <p>
+ * For each part with polygons, an index is built once the polygons are
+ * sorted. {@link #getWayUnder(LocalPoint)} only uses that index and does not
+ * lock. Users that sample a whole part can use a {@link LandscapeRaster}
+ * instead.
  * 
  * @author michael
  */
@@ -34,6 +43,50 @@ public class Landscape {
 
 	private Set<GridPart> unsorted = new HashSet<GridPart>();
 
+	/**
+	 * The point location indexes. An index is removed whenever the polygons
+	 * of its part change.
+	 */
+	private final ConcurrentHashMap<GridPart, LandscapePartIndex> indexes =
+	        new ConcurrentHashMap<GridPart, LandscapePartIndex>();
+
+	/**
+	 * The rasters that were requested, removed like the indexes.
+	 */
+	private final ConcurrentHashMap<RasterKey, LandscapeRaster> rasters =
+	        new ConcurrentHashMap<RasterKey, LandscapeRaster>();
+
+	/**
+	 * Increased whenever polygons are added or removed.
+	 */
+	private volatile int modificationCount = 0;
+
+	private static class RasterKey {
+		private final GridPart part;
+		private final int resolution;
+
+		public RasterKey(GridPart part, int resolution) {
+			this.part = part;
+			this.resolution = resolution;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof RasterKey) {
+				RasterKey other = (RasterKey) obj;
+				return other.part.equals(part)
+				        && other.resolution == resolution;
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return part.hashCode() * 31 + resolution;
+		}
+	}
+
 	public static Landscape generateFormOsmData(OsmDatapack data,
 	        GlobalToLocalConverter converter, Collection<GridPart> gridparts) {
 		Landscape landscape = new Landscape();
@@ -42,35 +95,108 @@ public class Landscape {
 			landscape.activateGridPart(part);
 		}
 
+		landscape.addOsmPolygons(data, converter, null);
+
+		landscape.sortAll();
+		// landscape.debug();
+		return landscape;
+	}
+
+	/**
+	 * Removes all polygons from the given parts and adds the polygons of the
+	 * osm data again, but only to those parts. This is used when the osm
+	 * data changed in some parts.
+	 * 
+	 * @param data
+	 *            The new osm data.
+	 * @param converter
+	 *            The converter to use.
+	 * @param parts
+	 *            The parts to rebuild. Parts that are not active are
+	 *            ignored.
+	 */
+	public synchronized void rebuildGridParts(OsmDatapack data,
+	        GlobalToLocalConverter converter, Set<GridPart> parts) {
+		for (GridPart part : parts) {
+			if (polygons.containsKey(part)) {
+				polygons.put(part, new ArrayList<LandscapePolygon>());
+			}
+			partChanged(part);
+		}
+		modificationCount++;
+
+		addOsmPolygons(data, converter, parts);
+
+		for (GridPart part : parts) {
+			List<LandscapePolygon> list = polygons.get(part);
+			if (list != null) {
+				Collections.sort(list);
+				unsorted.remove(part);
+				indexes.put(part, new LandscapePartIndex(part, list));
+			}
+		}
+	}
+
+	private void addOsmPolygons(OsmDatapack data,
+	        GlobalToLocalConverter converter, Set<GridPart> onlyParts) {
 		for (OsmWay way : data.getWays()) {
 			if (way.isArea()) {
 				Polygon poly = SimplePolygon.fromWay(way, converter);
 				//TODO: skip if it is an outer part of a multipolygon!
-				landscape.addPolygon(way, poly);
+				addPolygon(way, poly, onlyParts);
 			}
 		}
 		
 		for (OsmRelation relation : data.getRelations()) {
 			if ("multipolygon".equals(relation.getProperty("type"))) {
 				Polygon poly = ComplexPolygon.fromRelation(relation, converter);
-				landscape.addPolygon(relation, poly);
+				if (poly != null) {
+					addPolygon(relation, poly, onlyParts);
+				}
 			}
 		}
-
-		landscape.sortAll();
-		// landscape.debug();
-		return landscape;
 	}
 
 	public synchronized void addPolygon(Propertyable way, Polygon poly) {
-		double sortindex = poly.getBounds().getArea();
-		List<GridPart> parts = GridPart.getInRectangle(poly.getBounds());
-		for (GridPart part : parts) {
-			Polygon partpoly = poly.generateUnion(part);
-			if (partpoly != null) {
-				LandscapePolygon l =
-				        new LandscapePolygon(sortindex, way, partpoly);
-				addGridpartPolygon(part, l);
+		addPolygon(way, poly, null);
+	}
+
+	/**
+	 * Adds a polygon to the grid parts it lies on.
+	 * <p>
+	 * Simple polygons and multipolygons are split at all part borders in one
+	 * pass, see {@link PolygonGridSplitter}. Parts they cover completely get
+	 * a {@link FilledGridPart}.
+	 * 
+	 * @param onlyParts
+	 *            If this is not <code>null</code>, the polygon is only added
+	 *            to those parts.
+	 */
+	public synchronized void addPolygon(final Propertyable way, Polygon poly,
+	        final Set<GridPart> onlyParts) {
+		final double sortindex = poly.getBounds().getArea();
+		PolygonGridSplitter.PieceVisitor visitor =
+		        new PolygonGridSplitter.PieceVisitor() {
+			        @Override
+			        public void visitPiece(GridPart part, Polygon piece) {
+				        if (onlyParts == null || onlyParts.contains(part)) {
+					        addGridpartPolygon(part, new LandscapePolygon(
+					                sortindex, way, piece));
+				        }
+			        }
+		        };
+
+		if (poly instanceof SimplePolygon) {
+			PolygonGridSplitter.split((SimplePolygon) poly, visitor);
+		} else if (poly instanceof ComplexPolygon) {
+			PolygonGridSplitter.split((ComplexPolygon) poly, visitor);
+		} else {
+			List<GridPart> parts = GridPart.getInRectangle(poly.getBounds());
+			for (GridPart part : parts) {
+				Polygon partpoly = poly.generateUnion(part);
+				if (partpoly != null) {
+					visitor.visitPiece(part, partpoly);
+				}
 			}
 		}
 	}
@@ -87,12 +213,16 @@ public class Landscape {
 	}
 
 	/**
-	 * Sorts all entrys of the table.
+	 * Sorts all entrys of the table and builds their indexes.
 	 */
-	private void sortAll() {
-		for (List<LandscapePolygon> list : polygons.values()) {
-			Collections.sort(list);
+	private synchronized void sortAll() {
+		for (Entry<GridPart, List<LandscapePolygon>> entry : polygons
+		        .entrySet()) {
+			Collections.sort(entry.getValue());
+			indexes.put(entry.getKey(), new LandscapePartIndex(entry.getKey(),
+			        entry.getValue()));
 		}
+		unsorted.clear();
 	}
 
 	private synchronized void addGridpartPolygon(GridPart part,
@@ -106,26 +236,134 @@ public class Landscape {
 		if (list != null) {
 			list.add(polygon);
 			unsorted.add(part);
+			partChanged(part);
+			modificationCount++;
 		}
 	}
 
-	public synchronized LandscapePolygon getWayUnder(LocalPoint p) {
+	public LandscapePolygon getWayUnder(LocalPoint p) {
 		GridPart part = GridPart.getUnder(p);
-		List<LandscapePolygon> list = polygons.get(part);
-		if (list == null) {
-			return null;
+		LandscapePartIndex index = indexes.get(part);
+		if (index == null) {
+			index = buildIndex(part);
+			if (index == null) {
+				return null;
+			}
 		}
-		if (unsorted.contains(part)) {
-			Collections.sort(list);
-			unsorted.remove(part);
+		return index.getWayUnder(p);
+	}
+
+	/**
+	 * Builds the index of a part if there is none.
+	 * 
+	 * @return The index, or <code>null</code> if the part is not active.
+	 */
+	private synchronized LandscapePartIndex buildIndex(GridPart part) {
+		LandscapePartIndex index = indexes.get(part);
+		if (index == null) {
+			List<LandscapePolygon> list = polygons.get(part);
+			if (list == null) {
+				return null;
+			}
+			if (unsorted.contains(part)) {
+				Collections.sort(list);
+				unsorted.remove(part);
+			}
+			index = new LandscapePartIndex(part, list);
+			indexes.put(part, index);
 		}
+		return index;
+	}
 
-		for (LandscapePolygon poly : list) {
-			if (poly.getPolygon().contains(p)) {
-				return poly;
+	/**
+	 * Drops everything that was computed for the polygons of a part.
+	 */
+	private void partChanged(GridPart part) {
+		indexes.remove(part);
+		Iterator<RasterKey> it = rasters.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().part.equals(part)) {
+				it.remove();
 			}
 		}
-		return null;
+	}
+
+	/**
+	 * Gets the polygons of a part burned into a raster. The raster is cached
+	 * until the polygons of the part change, so all users that need the same
+	 * resolution share it.
+	 * 
+	 * @param part
+	 *            The part.
+	 * @param resolution
+	 *            The number of sample distances along a side of the part.
+	 * @return The raster, or <code>null</code> if the part is not active.
+	 */
+	public LandscapeRaster getRaster(GridPart part, int resolution) {
+		RasterKey key = new RasterKey(part, resolution);
+		LandscapeRaster raster = rasters.get(key);
+		if (raster == null) {
+			int modification = modificationCount;
+			raster = rasterize(part, resolution);
+			if (raster == null) {
+				return null;
+			}
+			synchronized (this) {
+				// do not cache rasters of polygons that changed meanwhile.
+				if (modification == modificationCount) {
+					LandscapeRaster existing = rasters.putIfAbsent(key, raster);
+					if (existing != null) {
+						raster = existing;
+					}
+				}
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * Burns the polygons of a part into a new raster. Unlike
+	 * {@link #getRaster(GridPart, int)}, the raster is not cached.
+	 * 
+	 * @param part
+	 *            The part.
+	 * @param resolution
+	 *            The number of sample distances along a side of the part.
+	 * @return The raster, or <code>null</code> if the part is not active.
+	 */
+	public LandscapeRaster rasterize(GridPart part, int resolution) {
+		List<LandscapePolygon> sorted;
+		synchronized (this) {
+			List<LandscapePolygon> list = polygons.get(part);
+			if (list == null) {
+				return null;
+			}
+			if (unsorted.contains(part)) {
+				Collections.sort(list);
+				unsorted.remove(part);
+			}
+			sorted = new ArrayList<LandscapePolygon>(list);
+		}
+		return new LandscapeRaster(part, resolution, sorted);
+	}
+
+	/**
+	 * Gets the polygon of the raster cell a point is in.
+	 * 
+	 * @param p
+	 *            The point.
+	 * @param resolution
+	 *            The raster resolution, see
+	 *            {@link #getRaster(GridPart, int)}.
+	 * @return The polygon, or <code>null</code> if there is none.
+	 */
+	public LandscapePolygon getPolygonAt(LocalPoint p, int resolution) {
+		LandscapeRaster raster = getRaster(GridPart.getUnder(p), resolution);
+		if (raster == null) {
+			return null;
+		} else {
+			return raster.getPolygonAt(p.getX(), p.getY());
+		}
 	}
 
 	/**
@@ -149,11 +387,15 @@ public class Landscape {
 	public synchronized void activateGridPart(GridPart part) {
 		if (!polygons.contains(part)) {
 			polygons.put(part, new ArrayList<LandscapePolygon>());
+			partChanged(part);
+			modificationCount++;
 		}
 	}
 
 	public synchronized void deactivateGridPart(GridPart part) {
 		polygons.remove(part);
+		partChanged(part);
+		modificationCount++;
 	}
 
 	public synchronized boolean isLandUnder(LocalPoint position) {
@@ -0,0 +1,99 @@
+package conversion.landscape;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import conversion.datachange.geometry.GridPart;
+import conversion.datachange.geometry.SimpleRectangle;
+import data.position.local.LocalPoint;
+
+/**
+ * An immutable index of the polygons of one grid part.
+ * <p>
+ * The part is divided into {@value #CELLS}x{@value #CELLS} cells. Each cell
+ * lists the polygons whose bounds touch it, in priority order, so a point
+ * only needs to be tested against the polygons of its cell.
+ * 
+ * @author michael
+ */
+class LandscapePartIndex {
+	private static final int CELLS = 16;
+	private static final LandscapePolygon[] NO_POLYGONS =
+	        new LandscapePolygon[0];
+
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	/**
+	 * The candidates, the cell (i, j) is at <code>i * CELLS + j</code>.
+	 */
+	private final LandscapePolygon[][] cells;
+
+	/**
+	 * Creates a new index.
+	 * 
+	 * @param part
+	 *            The part.
+	 * @param sorted
+	 *            The polygons of the part, sorted by priority.
+	 */
+	public LandscapePartIndex(GridPart part, List<LandscapePolygon> sorted) {
+		minX = part.getMinX();
+		minY = part.getMinY();
+		cellSize = (double) GridPart.GRID_SPACING / CELLS;
+
+		List<List<LandscapePolygon>> candidates =
+		        new ArrayList<List<LandscapePolygon>>(CELLS * CELLS);
+		for (int i = 0; i < CELLS * CELLS; i++) {
+			candidates.add(null);
+		}
+		for (LandscapePolygon polygon : sorted) {
+			SimpleRectangle bounds = polygon.getPolygon().getBounds();
+			int minI = getCell(bounds.getMinX() - minX);
+			int maxI = getCell(bounds.getMaxX() - minX);
+			int minJ = getCell(bounds.getMinY() - minY);
+			int maxJ = getCell(bounds.getMaxY() - minY);
+			for (int i = minI; i <= maxI; i++) {
+				for (int j = minJ; j <= maxJ; j++) {
+					List<LandscapePolygon> list = candidates.get(i * CELLS + j);
+					if (list == null) {
+						list = new ArrayList<LandscapePolygon>();
+						candidates.set(i * CELLS + j, list);
+					}
+					list.add(polygon);
+				}
+			}
+		}
+
+		cells = new LandscapePolygon[CELLS * CELLS][];
+		for (int i = 0; i < cells.length; i++) {
+			List<LandscapePolygon> list = candidates.get(i);
+			cells[i] =
+			        list == null ? NO_POLYGONS : list
+			                .toArray(new LandscapePolygon[list.size()]);
+		}
+	}
+
+	private int getCell(double offset) {
+		int cell = (int) Math.floor(offset / cellSize);
+		return Math.max(0, Math.min(CELLS - 1, cell));
+	}
+
+	/**
+	 * Gets the polygon with the highest priority that contains the point.
+	 * 
+	 * @param p
+	 *            The point, it should be in the part.
+	 * @return The polygon or <code>null</code>.
+	 */
+	public LandscapePolygon getWayUnder(LocalPoint p) {
+		int i = getCell(p.getX() - minX);
+		int j = getCell(p.getY() - minY);
+		for (LandscapePolygon polygon : cells[i * CELLS + j]) {
+			if (polygon.getPolygon().contains(p)) {
+				return polygon;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,162 @@
+package conversion.landscape;
+
+import java.util.Arrays;
+import java.util.List;
+
+import conversion.datachange.geometry.GridPart;
+import conversion.datachange.geometry.PolygonRasterizer;
+
+/**
+ * The landscape polygons of a grid part, burned into a raster of sample
+ * points.
+ * <p>
+ * There are <code>resolution + 1</code> samples along each side, the sample
+ * (i, j) is at
+ * <code>(minX + i * GRID_SPACING / resolution, minY + j * GRID_SPACING / resolution)</code>
+ * . Each sample stores the polygon that would be found by
+ * {@link Landscape#getWayUnder(data.position.local.LocalPoint)} for it. The
+ * samples on the far sides are shared with the next parts and are not
+ * painted, so points are looked up by the cell they are in.
+ * 
+ * @author michael
+ */
+public class LandscapeRaster {
+	/**
+	 * The number of polygons that can be stored. Polygons with a lower
+	 * priority are left out.
+	 */
+	private static final int MAX_POLYGONS = Character.MAX_VALUE;
+	/**
+	 * Points this close to a sample, in sample distances, are counted as on
+	 * it, so rounding errors do not move them to the previous cell.
+	 */
+	private static final double SAMPLE_TOLERANCE = 1e-6;
+
+	private final GridPart part;
+	private final int resolution;
+	private final int samples;
+	private final double spacing;
+	/**
+	 * The polygon ids, 0 for no polygon and i for polygons[i - 1].
+	 */
+	private final char[] ids;
+	private final LandscapePolygon[] polygons;
+
+	/**
+	 * Rasterizes the polygons of a part.
+	 * 
+	 * @param part
+	 *            The part.
+	 * @param resolution
+	 *            The number of sample distances along a side.
+	 * @param sorted
+	 *            The polygons of the part, sorted by priority.
+	 */
+	LandscapeRaster(GridPart part, int resolution, List<LandscapePolygon> sorted) {
+		if (resolution < 1) {
+			throw new IllegalArgumentException("Resolution must be positive.");
+		}
+		this.part = part;
+		this.resolution = resolution;
+		this.samples = resolution + 1;
+		this.spacing = (double) GridPart.GRID_SPACING / resolution;
+		this.ids = new char[samples * samples];
+
+		int count = Math.min(sorted.size(), MAX_POLYGONS);
+		polygons = sorted.subList(0, count).toArray(new LandscapePolygon[count]);
+
+		// paint the lowest priority first, so higher priorities win.
+		PolygonRasterizer rasterizer =
+		        new PolygonRasterizer(part.getMinX(), part.getMinY(), spacing,
+		                samples, samples);
+		for (int i = count - 1; i >= 0; i--) {
+			final char id = (char) (i + 1);
+			rasterizer.fill(polygons[i].getPolygon(),
+			        new PolygonRasterizer.SpanVisitor() {
+				        @Override
+				        public void visitSpan(int row, int start, int end) {
+					        Arrays.fill(ids, row * samples + start, row * samples
+					                + end, id);
+				        }
+			        });
+		}
+	}
+
+	public GridPart getPart() {
+		return part;
+	}
+
+	public int getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Gets the number of different polygon ids, including 0 for no polygon.
+	 * 
+	 * @return The id count.
+	 */
+	public int getIdCount() {
+		return polygons.length + 1;
+	}
+
+	/**
+	 * Gets the polygon for an id.
+	 * 
+	 * @param id
+	 *            The id, from 0 to {@link #getIdCount()} - 1.
+	 * @return The polygon, <code>null</code> for id 0.
+	 */
+	public LandscapePolygon getPolygon(int id) {
+		return id == 0 ? null : polygons[id - 1];
+	}
+
+	/**
+	 * Gets the polygon id at a sample.
+	 * 
+	 * @param i
+	 *            The sample in x direction, from 0 to the resolution.
+	 * @param j
+	 *            The sample in y direction, from 0 to the resolution.
+	 * @return The id.
+	 */
+	public int getId(int i, int j) {
+		return ids[i * samples + j];
+	}
+
+	/**
+	 * Gets the id of the cell a point is in. A cell is represented by the
+	 * sample at its lower corner.
+	 * 
+	 * @param x
+	 *            The x coordinate, it should be in the part.
+	 * @param y
+	 *            The y coordinate, it should be in the part.
+	 * @return The id.
+	 */
+	public int getIdAt(double x, double y) {
+		return getId(toSample(x - part.getMinX()), toSample(y - part.getMinY()));
+	}
+
+	private int toSample(double offset) {
+		int sample = (int) Math.floor(offset / spacing + SAMPLE_TOLERANCE);
+		return Math.max(0, Math.min(resolution - 1, sample));
+	}
+
+	/**
+	 * Gets the polygon at a sample.
+	 * 
+	 * @see #getId(int, int)
+	 */
+	public LandscapePolygon getPolygon(int i, int j) {
+		return getPolygon(getId(i, j));
+	}
+
+	/**
+	 * Gets the polygon of the cell a point is in.
+	 * 
+	 * @see #getIdAt(double, double)
+	 */
+	public LandscapePolygon getPolygonAt(double x, double y) {
+		return getPolygon(getIdAt(x, y));
+	}
+}
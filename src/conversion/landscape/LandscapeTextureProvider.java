@@ -19,4 +19,25 @@ public class LandscapeTextureProvider {
 			return finder.getDefault();
 		}
 	}
+
+	/**
+	 * Gets the texture of the landscape raster cell the point is in, using the
+	 * given resolution. This is exact for points that are on the raster.
+	 * 
+	 * @param p
+	 *            The point.
+	 * @param resolution
+	 *            The raster resolution, see
+	 *            {@link Landscape#getRaster(conversion.datachange.geometry.GridPart, int)}
+	 *            .
+	 * @return The texture.
+	 */
+	public TextureLink getTextureAt(LocalPoint p, int resolution) {
+		LandscapePolygon found = landscape.getPolygonAt(p, resolution);
+		if (found != null) {
+			return finder.getTextureFor(found.getOriginal());
+		} else {
+			return finder.getDefault();
+		}
+	}
 }
@@ -1,9 +1,12 @@
 package conversion.objects;
 
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
+import conversion.datachange.geometry.GridPart;
 import conversion.datachange.geometry.Rectangle;
 
 import data.rtree.RTree;
@@ -28,4 +31,23 @@ public class ObjectList {
 	public List<ObjectLink> getObjectsIn(Rectangle bounds) {
 		return positionedObjects.findElementsIntersecting(bounds);
 	}
+
+	/**
+	 * Removes all objects that are positioned on the given grid parts.
+	 * 
+	 * @param parts
+	 *            The parts to clear.
+	 */
+	public void removeObjectsOn(Set<GridPart> parts) {
+		positionedObjects = new RTree<ObjectLink>();
+		Iterator<ObjectLink> iterator = objects.iterator();
+		while (iterator.hasNext()) {
+			ObjectLink link = iterator.next();
+			if (parts.contains(GridPart.getUnder(link.getPosition()))) {
+				iterator.remove();
+			} else {
+				positionedObjects.add(link);
+			}
+		}
+	}
 }
@@ -1,8 +1,10 @@
 package conversion.objects;
 
 import java.util.Random;
+import java.util.Set;
 
 import conversion.ConversionData;
+import conversion.datachange.geometry.GridPart;
 import data.osm.OsmNode;
 import data.osm.OsmWay;
 import data.position.local.LocalPoint;
@@ -18,12 +20,24 @@ public class OsmObjectConverter {
 	}
 
 	public void doConversion(Random rand) {
+		doConversion(rand, null);
+	}
+
+	/**
+	 * Converts the objects, but only the ones on some grid parts.
+	 * 
+	 * @param rand
+	 *            The random generator to use.
+	 * @param parts
+	 *            The parts, <code>null</code> for all parts.
+	 */
+	public void doConversion(Random rand, Set<GridPart> parts) {
 		OsmObjectTyper typer = new OsmObjectTyper();
 		for (OsmNode node : data.getOsmData().getNodes()) {
 			ObjectData kuid = typer.getObjectForPoint(node, rand);
 			if (kuid != null) {
 				LocalPoint position = data.getConverter().toLocal(node);
-				if (data.getLandscape().isLandUnder(position)) {
+				if (isConverted(position, parts)) {
 					ObjectLink object = new ObjectLink(kuid, position, 0);
 					data.getObjects().add(object);
 				}
@@ -36,7 +50,7 @@ public class OsmObjectConverter {
 				if (object != null) {
 					LocalPoint position =
 					        data.getConverter().toLocal(way.getCenter());
-					if (data.getLandscape().isLandUnder(position)) {
+					if (isConverted(position, parts)) {
 						data.getObjects().add(
 						        new ObjectLink(object, position, 0));
 					}
@@ -45,4 +59,9 @@ public class OsmObjectConverter {
 		}
 
 	}
+
+	private boolean isConverted(LocalPoint position, Set<GridPart> parts) {
+		return data.getLandscape().isLandUnder(position)
+		        && (parts == null || parts.contains(GridPart.getUnder(position)));
+	}
 }
@@ -1,10 +1,10 @@
 package conversion.tracks;
 
 import java.util.Hashtable;
-import java.util.Iterator;
 
 import conversion.ConversionData;
 import conversion.landscape.Landscape;
+import conversion.tracks.height.ConnectionHeightType;
 import conversion.tracks.types.BarrierTyper;
 import conversion.tracks.types.ContactWireTyper;
 import conversion.tracks.types.OsmHighwayTyper;
@@ -13,7 +13,7 @@ import conversion.tracks.types.OsmWaterwayTyper;
 import data.osm.OsmDatapack;
 import data.osm.OsmNode;
 import data.osm.OsmWay;
-import data.osm.OsmWaySegment;
+import data.osm.OsmWaySegmentCursor;
 import data.position.local.GlobalToLocalConverter;
 import data.position.local.LocalPoint;
 import export.tracks.TrackConnection;
@@ -58,17 +58,16 @@ public class OsmTrackConverter {
 			return;
 		}
 
-		Iterator<OsmWaySegment> it = way.getSegments();
-		while (it.hasNext()) {
-			OsmWaySegment next = it.next();
-
+		ConnectionHeightType heightType = typer.getHeightType(way);
+		OsmWaySegmentCursor next = way.getSegmentCursor();
+		while (next.next()) {
 			TrackNode start = getNode(next.getStart());
 			TrackNode end = getNode(next.getEnd());
 
 			if (start != null && end != null) {
 				TrackConnection connection = network.connectNodes(start, end);
 				connection.setTracktype(tracktype);
-				connection.setHeightType(typer.getHeightType(way));
+				connection.setHeightType(heightType);
 			}
 		}
 	}
@@ -3,6 +3,7 @@ package conversion.tracks.types;
 import conversion.tracks.OsmWayTyper;
 import conversion.tracks.height.ConnectionHeightType;
 import data.osm.OsmWay;
+import data.osm.TagDictionary;
 import export.tracks.Subnetwork;
 import export.tracks.TrackType;
 import export.trainz.general.Kuid;
@@ -17,14 +18,19 @@ public class BarrierTyper implements OsmWayTyper {
 	private static final TrackType FENCE = new TrackType(
 	        new Kuid(68787, 22126), Subnetwork.BARRIER);
 
+	private static final int KEY_BARRIER = TagDictionary.getCode("barrier");
+	private static final int VALUE_HEDGE = TagDictionary.getCode("hedge");
+	private static final int VALUE_FENCE = TagDictionary.getCode("fence");
+	private static final int VALUE_WALL = TagDictionary.getCode("wall");
+
 	@Override
 	public TrackType getTrack(OsmWay way) {
-		String barrier = way.getProperty("barrier");
-		if ("hedge".equals(barrier)) {
+		int barrier = way.getPropertyCode(KEY_BARRIER);
+		if (barrier == VALUE_HEDGE) {
 			return HEDGE;
-		} else if ("fence".equals(barrier)) {
+		} else if (barrier == VALUE_FENCE) {
 			return FENCE;
-		} else if ("wall".equals(barrier)) {
+		} else if (barrier == VALUE_WALL) {
 			return NOISE_BARRIER;
 		}
 		return null;
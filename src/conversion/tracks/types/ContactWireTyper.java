@@ -3,6 +3,7 @@ package conversion.tracks.types;
 import conversion.tracks.OsmWayTyper;
 import conversion.tracks.height.ConnectionHeightType;
 import data.osm.OsmWay;
+import data.osm.TagDictionary;
 import export.tracks.Subnetwork;
 import export.tracks.TrackType;
 import export.trainz.general.Kuid;
@@ -11,9 +12,14 @@ public class ContactWireTyper implements OsmWayTyper {
 
 	private static final TrackType CONTACT_WIRE = new TrackType(new Kuid(-1, 110004), Subnetwork.CONTACT_WIRE);
 
+	private static final int KEY_ELECTRIFIED =
+	        TagDictionary.getCode("electrified");
+	private static final int VALUE_CONTACT_LINE =
+	        TagDictionary.getCode("contact_line");
+
 	@Override
 	public TrackType getTrack(OsmWay way) {
-		if ("contact_line".equals(way.getProperty("electrified"))) {
+		if (way.getPropertyCode(KEY_ELECTRIFIED) == VALUE_CONTACT_LINE) {
 			return CONTACT_WIRE;
 		}
 		return null;
@@ -3,6 +3,7 @@ package conversion.tracks.types;
 import conversion.tracks.OsmWayTyper;
 import conversion.tracks.height.ConnectionHeightType;
 import data.osm.OsmWay;
+import data.osm.TagDictionary;
 import export.tracks.Subnetwork;
 import export.tracks.TrackType;
 import export.trainz.general.Kuid;
@@ -28,9 +29,17 @@ public class OsmHighwayTyper implements OsmWayTyper {
 	private static final TrackType FILED_TRACK = new TrackType(new Kuid2(68787,
 	        37502, 2), Subnetwork.STREET);
 
+	private static final int KEY_HIGHWAY = TagDictionary.getCode("highway");
+	private static final int KEY_LANES = TagDictionary.getCode("lanes");
+	private static final int VALUE_RESIDENTIAL =
+	        TagDictionary.getCode("residential");
+	private static final int VALUE_PRIMARY = TagDictionary.getCode("primary");
+	private static final int VALUE_TRACK = TagDictionary.getCode("track");
+	private static final int VALUE_2 = TagDictionary.getCode("2");
+
 	@Override
 	public TrackType getTrack(OsmWay way) {
-		if (way.getProperty("highway") != null) {
+		if (way.getPropertyCode(KEY_HIGHWAY) != TagDictionary.NONE) {
 			return getHighway(way);
 		}
 
@@ -38,21 +47,21 @@ public class OsmHighwayTyper implements OsmWayTyper {
 	}
 
 	private TrackType getHighway(OsmWay way) {
-		String highway = way.getProperty("highway");
-		if ("residential".equals(highway)) {
+		int highway = way.getPropertyCode(KEY_HIGHWAY);
+		if (highway == VALUE_RESIDENTIAL) {
 			if (way.isBridge()) {
 				return RESIDENTIAL_BRIDGE;
 			} else {
 				return RESIDENTIAL_TRACK;
 			}
-		} else if ("primary".equals(highway)
-		        || "2".equals(way.getProperty("lanes"))) {
+		} else if (highway == VALUE_PRIMARY
+		        || way.getPropertyCode(KEY_LANES) == VALUE_2) {
 			if (way.isBridge()) {
 				return MOTORWAY_BRIDGE;
 			} else {
 				return MOTORWAY_TRACK;
 			}
-		} else if ("track".equals(highway)) {
+		} else if (highway == VALUE_TRACK) {
 			return FILED_TRACK;
 		} else {
 			if (way.isBridge()) {
@@ -1,11 +1,9 @@
 package conversion.tracks.types;
 
-import java.util.Arrays;
-import java.util.List;
-
 import conversion.tracks.OsmWayTyper;
 import conversion.tracks.height.ConnectionHeightType;
 import data.osm.OsmWay;
+import data.osm.TagDictionary;
 import export.tracks.Subnetwork;
 import export.tracks.TrackType;
 import export.trainz.general.Kuid;
@@ -31,13 +29,16 @@ public class OsmRailwayTyper implements OsmWayTyper {
 	private static final TrackType OLD_TRACK = new TrackType(new Kuid(36713,
 	        38814), Subnetwork.RAIL);
 
-	private static final List<String> RAILWAY_TYPES = Arrays.asList("rail",
-	        "tram", "light_rail");
+	private static final int KEY_RAILWAY = TagDictionary.getCode("railway");
+	private static final int VALUE_RAIL = TagDictionary.getCode("rail");
+	private static final int VALUE_TRAM = TagDictionary.getCode("tram");
+	private static final int VALUE_LIGHT_RAIL =
+	        TagDictionary.getCode("light_rail");
+	private static final int VALUE_DISUSED = TagDictionary.getCode("disused");
 
 	@Override
 	public TrackType getTrack(OsmWay way) {
-		String railway = way.getProperty("railway");
-		if (railway != null) {
+		if (way.getPropertyCode(KEY_RAILWAY) != TagDictionary.NONE) {
 			return getRailway(way);
 		}
 
@@ -45,14 +46,15 @@ public class OsmRailwayTyper implements OsmWayTyper {
 	}
 
 	private TrackType getRailway(OsmWay way) {
-		String railway = way.getProperty("railway");
-		if (RAILWAY_TYPES.contains(railway)) {
+		int railway = way.getPropertyCode(KEY_RAILWAY);
+		if (railway == VALUE_RAIL || railway == VALUE_TRAM
+		        || railway == VALUE_LIGHT_RAIL) {
 			if (way.isBridge()) {
 				return BETON_DIRTY_BRIDGE;
 			} else {
 				return BETON_DIRTY_TRACK;
 			}
-		} else if ("disused".equals(railway)){
+		} else if (railway == VALUE_DISUSED){
 			return OLD_TRACK;
 		} else {
 			return null;
@@ -3,6 +3,7 @@ package conversion.tracks.types;
 import conversion.tracks.OsmWayTyper;
 import conversion.tracks.height.ConnectionHeightType;
 import data.osm.OsmWay;
+import data.osm.TagDictionary;
 import export.tracks.Subnetwork;
 import export.tracks.TrackType;
 import export.trainz.general.Kuid;
@@ -13,9 +14,11 @@ public class OsmWaterwayTyper implements OsmWayTyper {
 	private static final TrackType RIVER =
 	        new TrackType(new Kuid(68787, 37115), Subnetwork.WATERWAY);
 
+	private static final int KEY_WATERWAY = TagDictionary.getCode("waterway");
+
 	@Override
 	public TrackType getTrack(OsmWay way) {
-		if (way.getProperty("waterway") != null) {
+		if (way.getPropertyCode(KEY_WATERWAY) != TagDictionary.NONE) {
 			if (!way.isTunnel()) {
 				return RIVER;
 			} else {
@@ -2,4 +2,26 @@ package data.height;
 
 public interface HeightDataProvider {
 	public float getHeight(double lat, double lon);
+
+	/**
+	 * Gets the heights of a regular lat/lon grid.
+	 * 
+	 * @param lat
+	 *            The latitude of the first row.
+	 * @param lon
+	 *            The longitude of the first column.
+	 * @param latStep
+	 *            The latitude difference between two rows.
+	 * @param lonStep
+	 *            The longitude difference between two columns.
+	 * @param rows
+	 *            The number of rows.
+	 * @param columns
+	 *            The number of columns.
+	 * @param heights
+	 *            The array to fill, the height of row r and column c is put
+	 *            to <code>r * columns + c</code>.
+	 */
+	public void getHeights(double lat, double lon, double latStep,
+	        double lonStep, int rows, int columns, float[] heights);
 }
@@ -0,0 +1,97 @@
+package data.height;
+
+/**
+ * The final heights of a square local area, sampled at a fixed spacing.
+ * Heights between the samples are interpolated bilinear.
+ * 
+ * @author michael
+ */
+class HeightRaster {
+	private final double minX;
+	private final double minY;
+	private final double spacing;
+	/**
+	 * The number of samples along one side, including both borders.
+	 */
+	private final int samples;
+	/**
+	 * The heights, the sample (i, j) is at <code>i * samples + j</code>.
+	 */
+	private final float[] heights;
+
+	/**
+	 * Creates a new raster.
+	 * 
+	 * @param minX
+	 *            The x coordinate of the first sample.
+	 * @param minY
+	 *            The y coordinate of the first sample.
+	 * @param spacing
+	 *            The distance between two samples.
+	 * @param samples
+	 *            The number of samples along one side.
+	 * @param heights
+	 *            The heights, the sample (i, j) at
+	 *            <code>i * samples + j</code>. The array is not copied.
+	 */
+	public HeightRaster(double minX, double minY, double spacing, int samples,
+	        float[] heights) {
+		if (heights.length != samples * samples) {
+			throw new IllegalArgumentException("Wrong height array size.");
+		}
+		this.minX = minX;
+		this.minY = minY;
+		this.spacing = spacing;
+		this.samples = samples;
+		this.heights = heights;
+	}
+
+	/**
+	 * Checks if a point is inside the raster, including the borders.
+	 */
+	public boolean contains(double x, double y) {
+		double max = (samples - 1) * spacing;
+		return x >= minX && x <= minX + max && y >= minY && y <= minY + max;
+	}
+
+	/**
+	 * Checks if the raster intersects or touches a rectangle.
+	 */
+	public boolean intersects(double minX, double minY, double maxX,
+	        double maxY) {
+		double max = (samples - 1) * spacing;
+		return maxX >= this.minX && minX <= this.minX + max
+		        && maxY >= this.minY && minY <= this.minY + max;
+	}
+
+	/**
+	 * Gets the interpolated height at a point. The point should be inside the
+	 * raster, points outside get the height of the nearest border.
+	 */
+	public float getHeight(double x, double y) {
+		double fx = (x - minX) / spacing;
+		double fy = (y - minY) / spacing;
+		int i = clamp((int) Math.floor(fx));
+		int j = clamp((int) Math.floor(fy));
+		float partX = (float) Math.min(Math.max(fx - i, 0), 1);
+		float partY = (float) Math.min(Math.max(fy - j, 0), 1);
+
+		int index = i * samples + j;
+		float height0 =
+		        heights[index] * (1 - partY) + heights[index + 1] * partY;
+		float height1 =
+		        heights[index + samples] * (1 - partY)
+		                + heights[index + samples + 1] * partY;
+		return height0 * (1 - partX) + height1 * partX;
+	}
+
+	private int clamp(int sample) {
+		if (sample < 0) {
+			return 0;
+		} else if (sample >= samples - 1) {
+			return samples - 2;
+		} else {
+			return sample;
+		}
+	}
+}
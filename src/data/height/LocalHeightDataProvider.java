@@ -1,37 +1,180 @@
 package data.height;
 
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import data.position.local.GlobalToLocalConverter;
 import data.position.local.LatLon;
 import data.position.local.LocalPoint;
 
+/**
+ * Provides the final local heights, that are the heights of the global
+ * provider with all displacers applied.
+ * <p>
+ * The heights are computed once for each {@value #RASTER_SIZE}m square that
+ * is used, with a {@value #RASTER_SPACING}m spacing. Heights are then
+ * interpolated from those rasters.
+ * 
+ * @author michael
+ */
 public class LocalHeightDataProvider {
+	/**
+	 * The size of a raster. This is the size of a grid part, so rasters are
+	 * computed for the parts that are really used.
+	 */
+	private static final int RASTER_SIZE = 720;
+	/**
+	 * The raster spacing. This is the spacing of the map grid, so the map
+	 * grid points are exactly on the raster points.
+	 */
+	private static final int RASTER_SPACING = 10;
+	private static final int RASTER_SAMPLES = RASTER_SIZE / RASTER_SPACING + 1;
+
 	private final GlobalToLocalConverter converter;
 	private final HeightDataProvider provider;
-	private final LinkedList<HeightDisplacer> displacers = new LinkedList<HeightDisplacer>();
+	private final List<HeightDisplacer> displacers =
+	        new CopyOnWriteArrayList<HeightDisplacer>();
+
+	private final ConcurrentHashMap<Long, HeightRaster> rasters =
+	        new ConcurrentHashMap<Long, HeightRaster>();
+	/**
+	 * Increased whenever the cached rasters get invalid, so rasters that were
+	 * being computed at that time are not cached.
+	 */
+	private volatile int generation = 0;
 
 	public LocalHeightDataProvider(GlobalToLocalConverter converter,
 	        HeightDataProvider provider) {
 		this.converter = converter;
 		this.provider = provider;
 	}
-	
-	public void addDisplacer(HeightDisplacer displacer) {
+
+	public synchronized void addDisplacer(HeightDisplacer displacer) {
 		displacers.add(displacer);
+		generation++;
+		rasters.clear();
+	}
+
+	/**
+	 * Drops the cached heights of an area, e.g. because the landscape there
+	 * changed.
+	 * 
+	 * @param minX
+	 *            The minimum x coordinate of the area.
+	 * @param minY
+	 *            The minimum y coordinate of the area.
+	 * @param maxX
+	 *            The maximum x coordinate of the area.
+	 * @param maxY
+	 *            The maximum y coordinate of the area.
+	 */
+	public synchronized void invalidate(double minX, double minY, double maxX,
+	        double maxY) {
+		generation++;
+		Iterator<HeightRaster> it = rasters.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().intersects(minX, minY, maxX, maxY)) {
+				it.remove();
+			}
+		}
 	}
 
 	public float getHeight(float x, float y) {
-		return getHeight(new LocalPoint(x, y));
+		return getHeight((double) x, (double) y);
 	}
 
 	public float getHeight(LocalPoint position) {
-		LatLon pos = converter.toGlobal(position);
-		float height = provider.getHeight(pos.getLat(), pos.getLon());
-		for (HeightDisplacer displacer : displacers) {
-			height += displacer.getDisplacement(position);
+		return getHeight(position.getX(), position.getY());
+	}
+
+	private float getHeight(double x, double y) {
+		return getRaster(x, y).getHeight(x, y);
+	}
+
+	/**
+	 * Gets the heights of a regular local grid.
+	 * 
+	 * @param x
+	 *            The x coordinate of the first point.
+	 * @param y
+	 *            The y coordinate of the first point.
+	 * @param spacing
+	 *            The distance between two grid points in meters.
+	 * @param xCount
+	 *            The number of points in x direction.
+	 * @param yCount
+	 *            The number of points in y direction.
+	 * @param heights
+	 *            The array to fill, the height of the point (i, j) is put to
+	 *            <code>i * yCount + j</code>.
+	 */
+	public void getHeights(double x, double y, double spacing, int xCount,
+	        int yCount, float[] heights) {
+		HeightRaster raster = null;
+		for (int i = 0; i < xCount; i++) {
+			double px = x + i * spacing;
+			for (int j = 0; j < yCount; j++) {
+				double py = y + j * spacing;
+				if (raster == null || !raster.contains(px, py)) {
+					raster = getRaster(px, py);
+				}
+				heights[i * yCount + j] = raster.getHeight(px, py);
+			}
 		}
-		return height;
+	}
 
+	private HeightRaster getRaster(double x, double y) {
+		int rasterX = (int) Math.floor(x / RASTER_SIZE);
+		int rasterY = (int) Math.floor(y / RASTER_SIZE);
+		Long key = Long.valueOf((long) rasterX << 32 | rasterY & 0xffffffffL);
+		HeightRaster raster = rasters.get(key);
+		if (raster == null) {
+			int rasterGeneration = generation;
+			double minX = (double) rasterX * RASTER_SIZE;
+			double minY = (double) rasterY * RASTER_SIZE;
+			float[] heights = new float[RASTER_SAMPLES * RASTER_SAMPLES];
+			computeHeights(minX, minY, RASTER_SPACING, RASTER_SAMPLES,
+			        RASTER_SAMPLES, heights);
+			raster =
+			        new HeightRaster(minX, minY, RASTER_SPACING,
+			                RASTER_SAMPLES, heights);
+			synchronized (this) {
+				if (rasterGeneration == generation) {
+					HeightRaster existing = rasters.putIfAbsent(key, raster);
+					if (existing != null) {
+						raster = existing;
+					}
+				}
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * Computes the heights of a grid from the global provider and the
+	 * displacers.
+	 * 
+	 * @see #getHeights(double, double, double, int, int, float[])
+	 */
+	private void computeHeights(double x, double y, double spacing,
+	        int xCount, int yCount, float[] heights) {
+		// lat only depends on x and lon only on y.
+		LatLon start = converter.toGlobal(new LocalPoint(x, y));
+		LatLon next = converter.toGlobal(new LocalPoint(x + spacing, y + spacing));
+		provider.getHeights(start.getLat(), start.getLon(), next.getLat()
+		        - start.getLat(), next.getLon() - start.getLon(), xCount,
+		        yCount, heights);
+
+		for (HeightDisplacer displacer : displacers) {
+			for (int i = 0; i < xCount; i++) {
+				for (int j = 0; j < yCount; j++) {
+					heights[i * yCount + j] +=
+					        displacer.getDisplacement(new LocalPoint(x + i
+					                * spacing, y + j * spacing));
+				}
+			}
+		}
 	}
 }
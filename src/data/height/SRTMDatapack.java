@@ -3,23 +3,56 @@ package data.height;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 
+/**
+ * The height data of one 1x1 degree srtm tile.
+ * <p>
+ * The resolution is detected from the file size, so SRTM3 (1201x1201
+ * samples) and SRTM1 (3601x3601 samples) tiles can both be used.
+ * <p>
+ * The samples are either read into memory ({@link #readFile}) or read
+ * directly from the mapped file ({@link #mapFile}).
+ * 
+ * @author michael
+ */
 public class SRTMDatapack {
+	/**
+	 * The maximum tile size we accept. This allows 1/4 arc second data.
+	 */
+	private static final int MAX_TILESIZE = 4 * 3600;
+
 	/**
 	 * How big is a tile in x or y direction, not including the border.
 	 */
-	private static final int TILESIZE = 1200;
-	private static final int DATASIZE = (TILESIZE + 1) * (TILESIZE + 1);
-	private final short[] data;
+	private final int tileSize;
+	/**
+	 * The samples, row by row from north to south. Only absolute reads are
+	 * used, so this can be read by many threads.
+	 */
+	private final ShortBuffer data;
 	private final SRTMDatapackPosition position;
 
-	private SRTMDatapack(SRTMDatapackPosition position, short[] data) {
+	private SRTMDatapack(SRTMDatapackPosition position, int tileSize,
+	        ShortBuffer data) {
 		this.position = position;
+		this.tileSize = tileSize;
 		this.data = data;
-		assert data == null || data.length == DATASIZE;
+		assert data == null || data.limit() == getDataSize(tileSize);
+	}
+
+	/**
+	 * Gets the number of samples along one side of the tile, not including
+	 * the border.
+	 * 
+	 * @return The tile size, e.g. 1200 for SRTM3 or 3600 for SRTM1.
+	 */
+	public int getTileSize() {
+		return tileSize;
 	}
 
 	public float getData(float lat, float lon) {
@@ -27,15 +60,15 @@ public class SRTMDatapack {
 			return 0.0f;
 		}
 		
-		float deast = (lon - position.getLon()) * TILESIZE;
+		float deast = (lon - position.getLon()) * tileSize;
 		int tileeast = (int) Math.floor(deast);
 		float tileEastPart = deast - tileeast;
-		float dnorth = (lat - position.getLat()) * TILESIZE;
+		float dnorth = (lat - position.getLat()) * tileSize;
 		int tilenorth = (int) Math.floor(dnorth);
 		float tileNorthPart = dnorth - tilenorth;
 
-		if (tileeast < 0 || tileeast >= TILESIZE || tilenorth < 0
-		        || tilenorth >= TILESIZE) {
+		if (tileeast < 0 || tileeast >= tileSize || tilenorth < 0
+		        || tilenorth >= tileSize) {
 			throw new IllegalArgumentException(
 			        "Coordinates are outside this tile");
 		}
@@ -51,30 +84,159 @@ public class SRTMDatapack {
 		return height0 * (1 - tileNorthPart) + height1 * tileNorthPart;
 	}
 
+	/**
+	 * Gets the heights along a row of constant latitude. All samples need to
+	 * be in this tile, samples that are slightly outside because of rounding
+	 * are moved to the border.
+	 * 
+	 * @param lat
+	 *            The latitude of the row.
+	 * @param lon
+	 *            The longitude of the first sample.
+	 * @param lonStep
+	 *            The longitude difference between two samples.
+	 * @param count
+	 *            The number of samples.
+	 * @param heights
+	 *            The array to write the heights to.
+	 * @param offset
+	 *            Where the first height is written to.
+	 */
+	public void getDataRow(double lat, double lon, double lonStep, int count,
+	        float[] heights, int offset) {
+		if (data == null) {
+			for (int i = 0; i < count; i++) {
+				heights[offset + i] = 0;
+			}
+			return;
+		}
+
+		double dnorth = (lat - position.getLat()) * tileSize;
+		int tilenorth = clampToTile((int) Math.floor(dnorth));
+		float tileNorthPart = (float) (dnorth - tilenorth);
+		int row0 = (tileSize - tilenorth) * (tileSize + 1);
+		// one row more north
+		int row1 = row0 - (tileSize + 1);
+
+		double deast = (lon - position.getLon()) * tileSize;
+		double deastStep = lonStep * tileSize;
+		for (int i = 0; i < count; i++, deast += deastStep) {
+			int tileeast = clampToTile((int) Math.floor(deast));
+			float tileEastPart = (float) (deast - tileeast);
+
+			float height0 =
+			        data.get(row0 + tileeast) * (1 - tileEastPart)
+			                + data.get(row0 + tileeast + 1) * tileEastPart;
+			float height1 =
+			        data.get(row1 + tileeast) * (1 - tileEastPart)
+			                + data.get(row1 + tileeast + 1) * tileEastPart;
+			heights[offset + i] =
+			        height0 * (1 - tileNorthPart) + height1 * tileNorthPart;
+		}
+	}
+
+	private int clampToTile(int sample) {
+		if (sample < 0) {
+			return 0;
+		} else if (sample >= tileSize) {
+			return tileSize - 1;
+		} else {
+			return sample;
+		}
+	}
+
 	private float getDataXY(int tilenorth, int tileeast) {
-		return data[(TILESIZE - tilenorth) * (TILESIZE + 1) + tileeast];
+		return data.get((tileSize - tilenorth) * (tileSize + 1) + tileeast);
+	}
+
+	private static int getDataSize(int tileSize) {
+		return (tileSize + 1) * (tileSize + 1);
+	}
+
+	/**
+	 * Detects the tile size of a .hgt file from its length.
+	 * 
+	 * @param length
+	 *            The file length in bytes.
+	 * @return The tile size.
+	 * @throws IOException
+	 *             If the length is not the one of a square tile.
+	 */
+	public static int getTileSize(long length) throws IOException {
+		long samples = length / 2;
+		int side = (int) Math.round(Math.sqrt(samples));
+		if (length % 2 != 0 || (long) side * side != samples || side < 2
+		        || side > MAX_TILESIZE + 1) {
+			throw new IOException("File size " + length
+			        + " is not the size of a height tile.");
+		}
+		return side - 1;
 	}
 
 	public static SRTMDatapack readFile(SRTMDatapackPosition position, File file)
 	        throws IOException {
-		int buffersize = DATASIZE * 2;
+		int tileSize = getTileSize(file.length());
+		int datasize = getDataSize(tileSize);
+		int buffersize = datasize * 2;
 		ByteBuffer buffer = ByteBuffer.allocate(buffersize);
 		FileInputStream in = new FileInputStream(file);
-		int realyRead = in.read(buffer.array());
-		in.close();
+		int realyRead = 0;
+		try {
+			while (realyRead < buffersize) {
+				int read =
+				        in.read(buffer.array(), realyRead, buffersize
+				                - realyRead);
+				if (read < 0) {
+					break;
+				}
+				realyRead += read;
+			}
+		} finally {
+			in.close();
+		}
 
 		if (realyRead != buffersize) {
 			throw new IOException("Did not read enough bytes! (File to short)");
 		}
 		ShortBuffer sbuffer =
 		        buffer.order(ByteOrder.BIG_ENDIAN).asShortBuffer();
-		short[] shorts = new short[DATASIZE];
+		short[] shorts = new short[datasize];
 		sbuffer.rewind();
 		sbuffer.get(shorts);
-		return new SRTMDatapack(position, shorts);
+		return new SRTMDatapack(position, tileSize, ShortBuffer.wrap(shorts));
+	}
+
+	/**
+	 * Maps a .hgt file into memory. The samples are not copied, so this
+	 * needs almost no heap. The mapping is released when the pack is
+	 * garbage collected.
+	 * 
+	 * @param position
+	 *            The position of the tile.
+	 * @param file
+	 *            The .hgt file.
+	 * @return The pack.
+	 * @throws IOException
+	 *             If the file does not have the size of a tile.
+	 */
+	public static SRTMDatapack mapFile(SRTMDatapackPosition position,
+	        File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			int tileSize = getTileSize(channel.size());
+			int buffersize = getDataSize(tileSize) * 2;
+			ShortBuffer sbuffer =
+			        channel.map(FileChannel.MapMode.READ_ONLY, 0, buffersize)
+			                .order(ByteOrder.BIG_ENDIAN).asShortBuffer();
+			return new SRTMDatapack(position, tileSize, sbuffer);
+		} finally {
+			// the mapping stays valid.
+			in.close();
+		}
 	}
 
 	public static SRTMDatapack emptyPack(SRTMDatapackPosition position) {
-		return new SRTMDatapack(position, null);
+		return new SRTMDatapack(position, 0, null);
 	}
 }
@@ -1,16 +1,88 @@
 package data.height;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Hashtable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
+/**
+ * Provides heights from srtm .hgt files.
+ * <p>
+ * The tiles are loaded when they are first used. Only a limited number of
+ * them is kept open, the least recently used ones are dropped. By default,
+ * the files are mapped into memory instead of read, so an open tile needs
+ * almost no heap.
+ * <p>
+ * Tiles can also be stored as .hgt.zip or .hgt.gz. Those are unpacked once
+ * into the tile cache directory, later runs use the unpacked file directly.
+ * <p>
+ * Height lookups do not lock. Only the first thread that needs a tile loads
+ * it, other threads that need the same tile wait for that load.
+ * 
+ * @author michael
+ */
 public class SRTMImporter implements HeightDataProvider {
-	List<File> lookupPaths = new LinkedList<File>();
+	private static final int DEFAULT_MAX_OPEN_TILES = 16;
 
-	private Hashtable<SRTMDatapackPosition, SRTMDatapack> datapacks =
-	        new Hashtable<SRTMDatapackPosition, SRTMDatapack>();
+	private static final String ZIP_SUFFIX = ".zip";
+	private static final String GZIP_SUFFIX = ".gz";
+
+	volatile List<File> lookupPaths = new LinkedList<File>();
+
+	private volatile File tileCache = new File(System.getProperty("user.home"),
+	        ".osm-to-trainz/srtm-cache");
+
+	private volatile int maxOpenTiles = DEFAULT_MAX_OPEN_TILES;
+
+	private volatile boolean memoryMapped = true;
+
+	private final ConcurrentHashMap<SRTMDatapackPosition, Tile> tiles =
+	        new ConcurrentHashMap<SRTMDatapackPosition, Tile>();
+
+	/**
+	 * Only one thread at a time removes tiles.
+	 */
+	private final Object evictionLock = new Object();
+
+	/**
+	 * The clock for {@link Tile#lastUse}. It only advances when a tile is
+	 * loaded, so lookups of loaded tiles only read it, and each tile is
+	 * written at most once between two loads.
+	 */
+	private final AtomicLong useClock = new AtomicLong();
+
+	/**
+	 * A tile that is loaded or being loaded.
+	 * 
+	 * @author michael
+	 */
+	private static class Tile {
+		private final FutureTask<SRTMDatapack> load;
+		/**
+		 * The use clock when this tile was used last. This is only a hint
+		 * for the eviction, so races do not matter.
+		 */
+		private volatile long lastUse;
+
+		public Tile(FutureTask<SRTMDatapack> load, long lastUse) {
+			this.load = load;
+			this.lastUse = lastUse;
+		}
+	}
 
 	@Override
 	public float getHeight(double lat, double lon) {
@@ -25,36 +97,257 @@ public class SRTMImporter implements HeightDataProvider {
 		}
 	}
 
-	private synchronized SRTMDatapack getDatapack(SRTMDatapackPosition position) {
-		try {
-			SRTMDatapack datapack = datapacks.get(position);
-			if (datapack == null) {
-				File file = findFile(position.toFilename());
-				if (file != null) {
-					datapack = SRTMDatapack.readFile(position, file);
-					datapacks.put(position, datapack);
+	@Override
+	public void getHeights(double lat, double lon, double latStep,
+	        double lonStep, int rows, int columns, float[] heights) {
+		for (int row = 0; row < rows; row++) {
+			double rowLat = lat + row * latStep;
+			int tileLat = (int) Math.floor(rowLat);
+			int column = 0;
+			while (column < columns) {
+				// find all samples of this row that are in the same tile.
+				double startLon = lon + column * lonStep;
+				int tileLon = (int) Math.floor(startLon);
+				int end = column + 1;
+				while (end < columns
+				        && (int) Math.floor(lon + end * lonStep) == tileLon) {
+					end++;
+				}
+
+				int offset = row * columns + column;
+				SRTMDatapack datapack =
+				        getDatapack(new SRTMDatapackPosition(tileLat, tileLon));
+				if (datapack != null) {
+					datapack.getDataRow(rowLat, startLon, lonStep, end
+					        - column, heights, offset);
 				} else {
-					datapacks.put(position, SRTMDatapack.emptyPack(position));
+					Arrays.fill(heights, offset, offset + end - column, 0);
+				}
+				column = end;
+			}
+		}
+	}
+
+	/**
+	 * Gets the pack for a position. This only blocks if the pack is not
+	 * loaded yet.
+	 * 
+	 * @param position
+	 *            The position.
+	 * @return The pack, or <code>null</code> if the tile file could not be
+	 *         read.
+	 */
+	private SRTMDatapack getDatapack(final SRTMDatapackPosition position) {
+		Tile tile = tiles.get(position);
+		long now = useClock.get();
+		if (tile == null) {
+			Tile newTile =
+			        new Tile(new FutureTask<SRTMDatapack>(
+			                new Callable<SRTMDatapack>() {
+				                @Override
+				                public SRTMDatapack call() {
+					                return loadDatapack(position);
+				                }
+			                }), useClock.incrementAndGet());
+			tile = tiles.putIfAbsent(position, newTile);
+			if (tile == null) {
+				tile = newTile;
+				tile.load.run();
+				evictTiles(position);
+			}
+		} else if (tile.lastUse != now) {
+			// only write if needed, so threads do not contend for the tile.
+			tile.lastUse = now;
+		}
+
+		try {
+			return tile.load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	private SRTMDatapack loadDatapack(SRTMDatapackPosition position) {
+		try {
+			File file = findFile(position.toFilename());
+			if (file != null && memoryMapped) {
+				try {
+					return SRTMDatapack.mapFile(position, file);
+				} catch (IOException e) {
+					// out of mappings, if tiles are evicted faster than the
+					// old mappings are collected.
+					return SRTMDatapack.readFile(position, file);
 				}
+			} else if (file != null) {
+				return SRTMDatapack.readFile(position, file);
+			} else {
+				return SRTMDatapack.emptyPack(position);
 			}
-			return datapack;
 		} catch (IOException e) {
+			System.err.println("Could not read height tile "
+			        + position.toFilename() + ": " + e.getMessage());
 			return null;
 		}
 	}
 
-	private File findFile(String filename) {
+	/**
+	 * Removes the least recently used tiles until there are at most
+	 * {@link #maxOpenTiles} left.
+	 * 
+	 * @param keep
+	 *            A tile that should not be removed.
+	 */
+	private void evictTiles(SRTMDatapackPosition keep) {
+		synchronized (evictionLock) {
+			while (tiles.size() > maxOpenTiles) {
+				Entry<SRTMDatapackPosition, Tile> oldest = null;
+				for (Entry<SRTMDatapackPosition, Tile> entry : tiles
+				        .entrySet()) {
+					if (!entry.getKey().equals(keep)
+					        && (oldest == null || entry.getValue().lastUse
+					                - oldest.getValue().lastUse < 0)) {
+						oldest = entry;
+					}
+				}
+				if (oldest == null) {
+					break;
+				}
+				tiles.remove(oldest.getKey(), oldest.getValue());
+			}
+		}
+	}
+
+	private File findFile(String filename) throws IOException {
 		for (File directory : lookupPaths) {
 			File file = new File(directory, filename);
 			if (file.exists()) {
 				return file;
 			}
+			File zipped = new File(directory, filename + ZIP_SUFFIX);
+			if (zipped.exists()) {
+				return getUnpacked(zipped, filename);
+			}
+			File gzipped = new File(directory, filename + GZIP_SUFFIX);
+			if (gzipped.exists()) {
+				return getUnpacked(gzipped, filename);
+			}
 		}
 		return null;
 	}
 
-	public synchronized void setLookupPaths(List<File> lookupPaths) {
+	/**
+	 * Gets the unpacked version of a compressed tile from the tile cache,
+	 * unpacks it if it is not there yet.
+	 * 
+	 * @param packed
+	 *            The .zip or .gz file.
+	 * @param filename
+	 *            The name of the .hgt file.
+	 * @return The unpacked file.
+	 * @throws IOException
+	 *             If the file could not be unpacked.
+	 */
+	private File getUnpacked(File packed, String filename) throws IOException {
+		File unpacked = new File(tileCache, filename);
+		if (unpacked.exists() && unpacked.lastModified() >= packed.lastModified()) {
+			return unpacked;
+		}
+
+		if (!tileCache.isDirectory() && !tileCache.mkdirs()) {
+			throw new IOException("Could not create tile cache " + tileCache);
+		}
+		File temp = File.createTempFile(filename, ".part", tileCache);
+		try {
+			InputStream in = openPacked(packed, filename);
+			try {
+				OutputStream out = new FileOutputStream(temp);
+				try {
+					byte[] buffer = new byte[1 << 16];
+					int read;
+					while ((read = in.read(buffer)) >= 0) {
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			// checks the size before the file is put into the cache.
+			SRTMDatapack.getTileSize(temp.length());
+			unpacked.delete();
+			if (!temp.renameTo(unpacked)) {
+				throw new IOException("Could not move " + temp + " to "
+				        + unpacked);
+			}
+		} finally {
+			temp.delete();
+		}
+		return unpacked;
+	}
+
+	private static InputStream openPacked(File packed, String filename)
+	        throws IOException {
+		InputStream in = new FileInputStream(packed);
+		try {
+			if (packed.getName().endsWith(GZIP_SUFFIX)) {
+				return new GZIPInputStream(in);
+			}
+
+			ZipInputStream zip = new ZipInputStream(in);
+			ZipEntry entry;
+			while ((entry = zip.getNextEntry()) != null) {
+				String name = new File(entry.getName()).getName();
+				if (!entry.isDirectory() && name.equalsIgnoreCase(filename)) {
+					return zip;
+				}
+			}
+			throw new IOException("No entry " + filename + " in " + packed);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	public void setLookupPaths(List<File> lookupPaths) {
 		this.lookupPaths = lookupPaths;
 	}
 
+	/**
+	 * Sets the directory compressed tiles are unpacked to.
+	 * 
+	 * @param tileCache
+	 *            The directory. It is created when it is needed.
+	 */
+	public void setTileCache(File tileCache) {
+		this.tileCache = tileCache;
+	}
+
+	/**
+	 * Sets how many tiles are kept open at most.
+	 * 
+	 * @param maxOpenTiles
+	 *            The number of tiles, at least 1.
+	 */
+	public void setMaxOpenTiles(int maxOpenTiles) {
+		if (maxOpenTiles < 1) {
+			throw new IllegalArgumentException("At least one tile is needed.");
+		}
+		this.maxOpenTiles = maxOpenTiles;
+	}
+
+	/**
+	 * Sets if tiles that are opened from now on are mapped into memory or
+	 * read into the heap.
+	 * 
+	 * @param memoryMapped
+	 *            <code>true</code> to map the files.
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
 }
@@ -0,0 +1,69 @@
+package data.osm;
+
+/**
+ * Decides how many rectangles are requested at once.
+ * <p>
+ * The size grows slowly while the server answers faster than the target
+ * time, and is halved when it answers too slowly or fails. This finds the
+ * biggest requests the server handles well.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author michael
+ */
+class AdaptiveBatchSize {
+	private final int min;
+	private final int max;
+	private final long targetMillis;
+	private int size;
+
+	/**
+	 * Creates a new batch size.
+	 * 
+	 * @param initial
+	 *            The size to start with.
+	 * @param min
+	 *            The minimum size, at least 1.
+	 * @param max
+	 *            The maximum size.
+	 * @param targetMillis
+	 *            The response time to aim for.
+	 */
+	public AdaptiveBatchSize(int initial, int min, int max, long targetMillis) {
+		if (min < 1 || min > max) {
+			throw new IllegalArgumentException("Invalid batch size limits.");
+		}
+		this.min = min;
+		this.max = max;
+		this.targetMillis = targetMillis;
+		this.size = Math.max(min, Math.min(max, initial));
+	}
+
+	public synchronized int get() {
+		return size;
+	}
+
+	/**
+	 * Adapts the size to a successful request.
+	 * 
+	 * @param requested
+	 *            The number of rectangles that were requested.
+	 * @param millis
+	 *            The time the request took.
+	 */
+	public synchronized void succeeded(int requested, long millis) {
+		if (millis > targetMillis * 2) {
+			size = Math.max(min, Math.min(size, requested) / 2);
+		} else if (millis < targetMillis && requested >= size) {
+			// only grow if the full size was used.
+			size = Math.min(max, size + Math.max(1, size / 4));
+		}
+	}
+
+	/**
+	 * Adapts the size to a failed request.
+	 */
+	public synchronized void failed() {
+		size = Math.max(min, size / 2);
+	}
+}
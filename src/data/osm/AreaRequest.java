@@ -0,0 +1,96 @@
+package data.osm;
+
+import gui.LatLonRectangle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A box that is requested from the server together with the tiles it covers.
+ * The tiles are received as soon as the box is received.
+ * 
+ * @author michael
+ */
+class AreaRequest {
+	private final LatLonRectangle bounds;
+	private final List<LatLonRectangle> tiles;
+
+	public AreaRequest(LatLonRectangle tile) {
+		this(tile, Collections.singletonList(tile));
+	}
+
+	private AreaRequest(LatLonRectangle bounds, List<LatLonRectangle> tiles) {
+		this.bounds = bounds;
+		this.tiles = tiles;
+	}
+
+	public LatLonRectangle getBounds() {
+		return bounds;
+	}
+
+	/**
+	 * Gets the tiles this request satisfies.
+	 */
+	public List<LatLonRectangle> getTiles() {
+		return Collections.unmodifiableList(tiles);
+	}
+
+	/**
+	 * Gets the area of the bounds in square degrees.
+	 */
+	public double getArea() {
+		return getArea(bounds.getMinlat(), bounds.getMaxlat(),
+		        bounds.getMinlon(), bounds.getMaxlon());
+	}
+
+	/**
+	 * Gets the area of the union of the bounds of both requests.
+	 */
+	public double getUnionArea(AreaRequest other) {
+		return getArea(Math.min(bounds.getMinlat(), other.bounds.getMinlat()),
+		        Math.max(bounds.getMaxlat(), other.bounds.getMaxlat()),
+		        Math.min(bounds.getMinlon(), other.bounds.getMinlon()),
+		        Math.max(bounds.getMaxlon(), other.bounds.getMaxlon()));
+	}
+
+	private static double getArea(double minlat, double maxlat,
+	        double minlon, double maxlon) {
+		return (maxlat - minlat) * (maxlon - minlon);
+	}
+
+	/**
+	 * Creates a request that covers the bounds and tiles of both requests.
+	 */
+	public AreaRequest merge(AreaRequest other) {
+		LatLonRectangle union =
+		        new LatLonRectangle(Math.min(bounds.getMinlat(),
+		                other.bounds.getMinlat()), Math.max(
+		                bounds.getMaxlat(), other.bounds.getMaxlat()),
+		                Math.min(bounds.getMinlon(), other.bounds.getMinlon()),
+		                Math.max(bounds.getMaxlon(), other.bounds.getMaxlon()));
+		List<LatLonRectangle> allTiles =
+		        new ArrayList<LatLonRectangle>(tiles.size()
+		                + other.tiles.size());
+		allTiles.addAll(tiles);
+		allTiles.addAll(other.tiles);
+		return new AreaRequest(union, allTiles);
+	}
+
+	/**
+	 * Checks if the bounds of the other request are inside of this bounds.
+	 */
+	public boolean contains(AreaRequest other, double epsilon) {
+		return bounds.getMinlat() <= other.bounds.getMinlat() + epsilon
+		        && bounds.getMaxlat() >= other.bounds.getMaxlat() - epsilon
+		        && bounds.getMinlon() <= other.bounds.getMinlon() + epsilon
+		        && bounds.getMaxlon() >= other.bounds.getMaxlon() - epsilon;
+	}
+
+	@Override
+	public String toString() {
+		return "AreaRequest[" + bounds.getMinlat() + ".." + bounds.getMaxlat()
+		        + ", " + bounds.getMinlon() + ".." + bounds.getMaxlon() + ", "
+		        + tiles.size() + " tiles]";
+	}
+}
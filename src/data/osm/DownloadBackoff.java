@@ -0,0 +1,72 @@
+package data.osm;
+
+import java.util.Random;
+
+/**
+ * The retry delay of a download that is shared by all loaders.
+ * <p>
+ * After each failure, the delay doubles up to a maximum. The actual delay
+ * is chosen randomly up to that value (full jitter), so that the loaders do
+ * not retry all at the same time. If the server asks for a minimum delay,
+ * that one is used as lower bound. A success resets the delay.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author michael
+ */
+class DownloadBackoff {
+	private final long baseMillis;
+	private final long maxMillis;
+	private final Random random = new Random();
+
+	private int failures = 0;
+	/**
+	 * The time before which no new request should be sent.
+	 */
+	private long pausedUntil = 0;
+
+	public DownloadBackoff(long baseMillis, long maxMillis) {
+		this.baseMillis = baseMillis;
+		this.maxMillis = maxMillis;
+	}
+
+	/**
+	 * Waits until requests are allowed again.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		while (true) {
+			long wait;
+			synchronized (this) {
+				wait = pausedUntil - System.currentTimeMillis();
+			}
+			if (wait <= 0) {
+				return;
+			}
+			Thread.sleep(wait);
+		}
+	}
+
+	public synchronized void succeeded() {
+		failures = 0;
+	}
+
+	/**
+	 * Notes a failed request and pauses all requests.
+	 * 
+	 * @param minimumMillis
+	 *            The delay the server requested, 0 if none.
+	 * @return The delay that was chosen.
+	 */
+	public synchronized long failed(long minimumMillis) {
+		failures++;
+		long limit = baseMillis << Math.min(failures - 1, 20);
+		limit = Math.min(maxMillis, limit);
+		long delay = (long) (random.nextDouble() * limit);
+		delay = Math.max(delay, minimumMillis);
+		pausedUntil =
+		        Math.max(pausedUntil, System.currentTimeMillis() + delay);
+		return delay;
+	}
+}
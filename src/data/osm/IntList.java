@@ -0,0 +1,36 @@
+package data.osm;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints that is reused by the readers.
+ * 
+ * @author michael
+ */
+class IntList {
+	private int[] values = new int[16];
+	private int size = 0;
+
+	public void add(int value) {
+		if (size >= values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	public int get(int index) {
+		return values[index];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+}
@@ -0,0 +1,134 @@
+package data.osm;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to non-negative int values.
+ * <p>
+ * It uses open addressing with linear probing over two parallel primitive
+ * arrays, so there is no object per entry. This is used to map osm ids to
+ * the index of the element in a pack.
+ * <p>
+ * This class is not synchronized.
+ * 
+ * @author michael
+ */
+class LongIntIndex {
+	private static final int NOT_FOUND = -1;
+	private static final float MAX_LOAD = .6f;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+	private int mask;
+	private int resizeAt;
+
+	public LongIntIndex() {
+		this(1024);
+	}
+
+	public LongIntIndex(int expectedSize) {
+		int capacity = 16;
+		while (capacity * MAX_LOAD < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, NOT_FOUND);
+		mask = capacity - 1;
+		resizeAt = (int) (capacity * MAX_LOAD);
+	}
+
+	private int slotFor(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * Gets the value for a key.
+	 * 
+	 * @param key
+	 *            The key
+	 * @return The value or -1 if the key is not in the index.
+	 */
+	public int get(long key) {
+		int slot = slotFor(key);
+		while (values[slot] != NOT_FOUND) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	/**
+	 * Sets the value for a key, replacing any old value.
+	 * 
+	 * @param key
+	 *            The key
+	 * @param value
+	 *            The value, needs to be positive.
+	 */
+	public void put(long key, int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Values need to be positive.");
+		}
+		int slot = slotFor(key);
+		while (values[slot] != NOT_FOUND) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		if (size > resizeAt) {
+			rehash();
+		}
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != NOT_FOUND) {
+				int slot = slotFor(oldKeys[i]);
+				while (values[slot] != NOT_FOUND) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the keys ordered by their value. This only works if the values
+	 * are the numbers from 0 to count - 1.
+	 * 
+	 * @param count
+	 *            The number of values.
+	 * @return An array that contains the key for every value.
+	 */
+	public long[] getKeysByValue(int count) {
+		long[] result = new long[count];
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != NOT_FOUND && values[i] < count) {
+				result[values[i]] = keys[i];
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,213 @@
+package data.osm;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A node store that reads the nodes of a snapshot directly from the mapped
+ * file.
+ * <p>
+ * The snapshot nodes have the indexes 0 to mappedCount - 1. Nodes that are
+ * added later are stored in the arrays of the super class and get the
+ * following indexes.
+ * <p>
+ * The id index and the way adjacency are only built when they are first
+ * needed.
+ * 
+ * @author michael
+ */
+class MappedNodeStore extends OsmNodeStore {
+	private final int mappedCount;
+	private final LongBuffer ids;
+	private final IntBuffer lats;
+	private final IntBuffer lons;
+	private final IntBuffer tagStart;
+	private final IntBuffer tags;
+	/**
+	 * Converts the tag codes of the snapshot to {@link TagDictionary} codes.
+	 */
+	private final int[] codes;
+
+	/**
+	 * The node indexes of the snapshot ways and where each way starts. Used
+	 * to create the way adjacency.
+	 */
+	private final IntBuffer wayNodeStart;
+	private final IntBuffer wayNodes;
+
+	private volatile LongIntIndex mappedIndex = null;
+	private final List<OsmWay> ways;
+
+	public MappedNodeStore(List<OsmWay> ways, LongBuffer ids, IntBuffer lats,
+	        IntBuffer lons, IntBuffer tagStart, IntBuffer tags, int[] codes,
+	        IntBuffer wayNodeStart, IntBuffer wayNodes) {
+		super(ways);
+		this.ways = ways;
+		this.mappedCount = ids.limit();
+		this.ids = ids;
+		this.lats = lats;
+		this.lons = lons;
+		this.tagStart = tagStart;
+		this.tags = tags;
+		this.codes = codes;
+		this.wayNodeStart = wayNodeStart;
+		this.wayNodes = wayNodes;
+	}
+
+	@Override
+	public int add(long id, double lat, double lon, int[] keyvalues) {
+		return super.add(id, lat, lon, keyvalues) + mappedCount;
+	}
+
+	@Override
+	public int indexOf(long id) {
+		int index = getMappedIndex().get(id);
+		if (index >= 0) {
+			return index;
+		}
+		index = super.indexOf(id);
+		return index < 0 ? index : index + mappedCount;
+	}
+
+	private LongIntIndex getMappedIndex() {
+		LongIntIndex index = mappedIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = mappedIndex;
+				if (index == null) {
+					index = new LongIntIndex(mappedCount);
+					for (int i = 0; i < mappedCount; i++) {
+						index.put(ids.get(i), i);
+					}
+					mappedIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	@Override
+	public int size() {
+		return mappedCount + super.size();
+	}
+
+	@Override
+	public long getId(int node) {
+		if (node < mappedCount) {
+			return ids.get(node);
+		} else {
+			return super.getId(node - mappedCount);
+		}
+	}
+
+	@Override
+	public int getFixedLat(int node) {
+		if (node < mappedCount) {
+			return lats.get(node);
+		} else {
+			return super.getFixedLat(node - mappedCount);
+		}
+	}
+
+	@Override
+	public int getFixedLon(int node) {
+		if (node < mappedCount) {
+			return lons.get(node);
+		} else {
+			return super.getFixedLon(node - mappedCount);
+		}
+	}
+
+	@Override
+	public String getProperty(int node, String key) {
+		int keyCode = TagDictionary.findCode(key);
+		if (keyCode == TagDictionary.NONE) {
+			return null;
+		}
+		return TagDictionary.getString(getPropertyCode(node, keyCode));
+	}
+
+	@Override
+	public int getPropertyCode(int node, int keyCode) {
+		if (node < mappedCount) {
+			int end = tagStart.get(node + 1);
+			for (int i = tagStart.get(node); i < end; i += 2) {
+				if (codes[tags.get(i)] == keyCode) {
+					return codes[tags.get(i + 1)];
+				}
+			}
+			return TagDictionary.NONE;
+		} else {
+			return super.getPropertyCode(node - mappedCount, keyCode);
+		}
+	}
+
+	@Override
+	public Set<String> getPropertyKeys(int node) {
+		if (node < mappedCount) {
+			HashSet<String> keys = new HashSet<String>();
+			int end = tagStart.get(node + 1);
+			for (int i = tagStart.get(node); i < end; i += 2) {
+				keys.add(TagDictionary.getString(codes[tags.get(i)]));
+			}
+			return keys;
+		} else {
+			return super.getPropertyKeys(node - mappedCount);
+		}
+	}
+
+	@Override
+	public int getTagCodeCount(int node) {
+		if (node < mappedCount) {
+			return tagStart.get(node + 1) - tagStart.get(node);
+		} else {
+			return super.getTagCodeCount(node - mappedCount);
+		}
+	}
+
+	@Override
+	public int getTagCode(int node, int i) {
+		if (node < mappedCount) {
+			return codes[tags.get(tagStart.get(node) + i)];
+		} else {
+			return super.getTagCode(node - mappedCount, i);
+		}
+	}
+
+	/**
+	 * Gets the ways for the adjacency. The ways of the snapshot are read from
+	 * the mapped file, so they are not created for this.
+	 */
+	@Override
+	protected NodeAdjacency.Elements getWayElements() {
+		final int mappedWays = wayNodeStart.limit() - 1;
+		return new NodeAdjacency.Elements() {
+			@Override
+			public int getElementCount() {
+				return ways.size();
+			}
+
+			@Override
+			public int getNodeCount(int element) {
+				if (element < mappedWays) {
+					return wayNodeStart.get(element + 1)
+					        - wayNodeStart.get(element);
+				} else {
+					return ways.get(element).getNodeCount();
+				}
+			}
+
+			@Override
+			public int getNode(int element, int i) {
+				if (element < mappedWays) {
+					return wayNodes.get(wayNodeStart.get(element) + i);
+				} else {
+					return ways.get(element).getNodeIndex(i);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,114 @@
+package data.osm;
+
+/**
+ * Maps every node to the elements (ways or relations) it is part of.
+ * <p>
+ * The lists are stored in compressed sparse row form: the elements of node
+ * i are at the positions {@link #getStart(int)} to {@link #getEnd(int)} - 1
+ * of one array. This needs one int per reference plus one int per node,
+ * and the elements of a node lie next to each other in memory.
+ * <p>
+ * The adjacency is built in one pass over all elements and cannot be
+ * changed afterwards. It is immutable and can be shared between threads.
+ * 
+ * @author michael
+ */
+class NodeAdjacency {
+	/**
+	 * The elements the adjacency is built from.
+	 */
+	interface Elements {
+		int getElementCount();
+
+		int getNodeCount(int element);
+
+		/**
+		 * Gets the index of a node of the element.
+		 */
+		int getNode(int element, int i);
+	}
+
+	/**
+	 * The start position for every node, plus the end of the last one.
+	 */
+	private final int[] offsets;
+	private final int[] elements;
+
+	private NodeAdjacency(int[] offsets, int[] elements) {
+		this.offsets = offsets;
+		this.elements = elements;
+	}
+
+	/**
+	 * Builds the adjacency. Every element is only listed once per node, even
+	 * if it contains the node more than once.
+	 * 
+	 * @param nodeCount
+	 *            The number of nodes.
+	 * @param source
+	 *            The elements.
+	 * @return The adjacency.
+	 */
+	public static NodeAdjacency build(int nodeCount, Elements source) {
+		int elementCount = source.getElementCount();
+		// the last element that was counted for a node, to skip duplicates.
+		int[] lastElement = new int[nodeCount];
+		int[] offsets = new int[nodeCount + 1];
+		for (int element = 0; element < elementCount; element++) {
+			int count = source.getNodeCount(element);
+			for (int i = 0; i < count; i++) {
+				int node = source.getNode(element, i);
+				if (lastElement[node] != element + 1) {
+					lastElement[node] = element + 1;
+					offsets[node + 1]++;
+				}
+			}
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			offsets[node + 1] += offsets[node];
+		}
+
+		int[] elements = new int[offsets[nodeCount]];
+		// reused as the next free position of every node.
+		int[] next = lastElement;
+		System.arraycopy(offsets, 0, next, 0, nodeCount);
+		for (int element = 0; element < elementCount; element++) {
+			int count = source.getNodeCount(element);
+			for (int i = 0; i < count; i++) {
+				int node = source.getNode(element, i);
+				int position = next[node];
+				if (position == offsets[node]
+				        || elements[position - 1] != element) {
+					elements[position] = element;
+					next[node]++;
+				}
+			}
+		}
+		return new NodeAdjacency(offsets, elements);
+	}
+
+	/**
+	 * Gets the first position of the node.
+	 * 
+	 * @param node
+	 *            The node index. Nodes that were added after the adjacency
+	 *            was built have no elements.
+	 */
+	public int getStart(int node) {
+		return node < offsets.length - 1 ? offsets[node] : 0;
+	}
+
+	/**
+	 * Gets the position after the last position of the node.
+	 */
+	public int getEnd(int node) {
+		return node < offsets.length - 1 ? offsets[node + 1] : 0;
+	}
+
+	/**
+	 * Gets the element at a position.
+	 */
+	public int getElement(int position) {
+		return elements[position];
+	}
+}
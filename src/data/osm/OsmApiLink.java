@@ -2,18 +2,23 @@ package data.osm;
 
 import gui.LatLonRectangle;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
-
-import sun.net.www.protocol.http.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * This is a link to the osm api
@@ -21,12 +26,56 @@ import sun.net.www.protocol.http.HttpURLConnection;
  * @author michael
  */
 public class OsmApiLink {
-	private static final int MAX_RECTS_PER_REQUEST = 50;
+	private static final int DEFAULT_LOADERS = 2;
+
+	private static final int INITIAL_RECTS_PER_REQUEST = 16;
+	private static final int MAX_RECTS_PER_REQUEST = 200;
+	/**
+	 * The maximum area of a box the tiles are merged to, in square degrees.
+	 * This is about 75 grid parts.
+	 */
+	private static final double DEFAULT_MAX_REQUEST_AREA = 0.005;
+	/**
+	 * The response time the request size is adapted to.
+	 */
+	private static final long TARGET_RESPONSE_MILLIS = 30000;
+
+	private static final long BACKOFF_BASE_MILLIS = 1000;
+	private static final long BACKOFF_MAX_MILLIS = 5 * 60 * 1000;
+
+	private static final int CONNECT_TIMEOUT = 30000;
+	private static final int READ_TIMEOUT = 15 * 60 * 1000;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String SCRIPT_START =
+	        "<osm-script timeout=\"1000\">\n" //
+	                // do a coord query to get all sorounding rects.
+	                // <coord-query lat="51.25" lon="7.15" into="areas"/>
+	                + "    <union into=\"basenodes\">\n";
+
+	private static final String SCRIPT_END =
+	        "    </union>\n" //
+	                + "    <union>\n" //
+	                + "        <item />\n" //
+	                + "        <recurse type=\"node-way\" from=\"basenodes\" into=\"ways\"/>\n" //
+	                //+ "        <union into=\"relations\">\n" //
+	                //+ "        <recurse type=\"way-relation\" from=\"ways\" into=\"all\"/>\n" //
+	                //+ "        <recurse type=\"node-relation\" from=\"basenodes\"/>\n" //
+	                //+ "        </union>\n" //
+	                //+ "        <recurse type=\"relation-way\" from=\"relations\"/>\n" //
+	                + "    </union>\n" //
+	                + "    <union>\n" //
+	                + "        <item/>\n" //
+	                + "        <recurse type=\"way-node\"/>\n" //
+	                + "    </union>\n" //
+	                + "    <print order=\"quadtile\"/>\n" //
+	                + "</osm-script>";
 
 	private URL address = null;
 
-	ConcurrentLinkedQueue<LatLonRectangle> unprogressedTiles =
-	        new ConcurrentLinkedQueue<LatLonRectangle>();
+	ConcurrentLinkedQueue<AreaRequest> unprogressedTiles =
+	        new ConcurrentLinkedQueue<AreaRequest>();
 
 	HashSet<LatLonRectangle> requested = new HashSet<LatLonRectangle>();
 
@@ -36,9 +85,34 @@ public class OsmApiLink {
 
 	private boolean waitWithUnprogressed = false;
 
+	private OverpassCache cache = null;
+
+	private boolean offline = false;
+
+	private double maxRequestArea = DEFAULT_MAX_REQUEST_AREA;
+
+	private final AdaptiveBatchSize batchSize = new AdaptiveBatchSize(
+	        INITIAL_RECTS_PER_REQUEST, 1, MAX_RECTS_PER_REQUEST,
+	        TARGET_RESPONSE_MILLIS);
+
+	private final DownloadBackoff backoff = new DownloadBackoff(
+	        BACKOFF_BASE_MILLIS, BACKOFF_MAX_MILLIS);
+
 	public OsmApiLink() {
-		new Thread(new Loader()).start();
-		new Thread(new Loader()).start();
+		this(DEFAULT_LOADERS);
+	}
+
+	/**
+	 * Creates a new link.
+	 * 
+	 * @param loaders
+	 *            The number of requests to run in parallel. Responses are
+	 *            also parsed in parallel.
+	 */
+	public OsmApiLink(int loaders) {
+		for (int i = 0; i < loaders; i++) {
+			new Thread(new Loader()).start();
+		}
 	}
 
 	public synchronized URL getAddress() {
@@ -59,6 +133,51 @@ public class OsmApiLink {
 		this.notifyAll();
 	}
 
+	/**
+	 * Sets the cache to use for the server responses.
+	 * 
+	 * @param cache
+	 *            The cache, or <code>null</code> to disable caching.
+	 */
+	public synchronized void setCache(OverpassCache cache) {
+		this.cache = cache;
+	}
+
+	public synchronized OverpassCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Sets the offline mode. In offline mode, only cached responses are used
+	 * and the server is never contacted. Areas that are not cached stay
+	 * empty.
+	 * 
+	 * @param offline
+	 *            <code>true</code> to work offline.
+	 */
+	public synchronized void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	public synchronized boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Sets the maximum size of the boxes that neighbouring areas are merged
+	 * to when they are requested together.
+	 * 
+	 * @param maxRequestArea
+	 *            The area in square degrees. 0 disables merging.
+	 */
+	public synchronized void setMaxRequestArea(double maxRequestArea) {
+		this.maxRequestArea = maxRequestArea;
+	}
+
+	public synchronized double getMaxRequestArea() {
+		return maxRequestArea;
+	}
+
 	private synchronized URL getAddressBlocking() {
 		URL address;
 		while ((address = getAddress()) == null) {
@@ -85,13 +204,34 @@ public class OsmApiLink {
 	private void preloadAreaNoNotify(LatLonRectangle rectangle) {
 		if (!requested.contains(rectangle)) {
 			requested.add(rectangle);
-			unprogressedTiles.offer(rectangle);
+			unprogressedTiles.offer(new AreaRequest(rectangle));
 		}
 	}
 
-	public synchronized OsmDatapack loadArea(LatLonRectangle rectangle) {
-		if (!requested.contains(rectangle)) {
-			preloadArea(rectangle);
+	/**
+	 * Merges the areas that are not requested yet to bigger boxes and
+	 * queues them.
+	 */
+	private void preloadAreasNoNotify(List<LatLonRectangle> rectangles) {
+		List<LatLonRectangle> missing = new ArrayList<LatLonRectangle>();
+		for (LatLonRectangle rectangle : rectangles) {
+			if (requested.add(rectangle)) {
+				missing.add(rectangle);
+			}
+		}
+		List<AreaRequest> boxes =
+		        RectangleCoalescer.coalesce(missing, maxRequestArea);
+		System.out.println("Merged " + missing.size() + " areas to "
+		        + boxes.size() + " requests");
+		unprogressedTiles.addAll(boxes);
+	}
+
+	public OsmDatapack loadArea(LatLonRectangle rectangle) {
+		// do not hold the lock while waiting, the loaders need it.
+		synchronized (this) {
+			if (!requested.contains(rectangle)) {
+				preloadArea(rectangle);
+			}
 		}
 		synchronized (received) {
 			while (!received.contains(rectangle)) {
@@ -109,9 +249,7 @@ public class OsmApiLink {
 		System.out.println("Loading " + rects.size() + " areas");
 		synchronized (this) {
 			waitWithUnprogressed = true;
-			for (LatLonRectangle rect : rects) {
-				preloadAreaNoNotify(rect);
-			}
+			preloadAreasNoNotify(rects);
 			waitWithUnprogressed = false;
 			this.notifyAll();
 		}
@@ -129,113 +267,240 @@ public class OsmApiLink {
 			while (true) {
 				try {
 					System.out.println("Waiting for rectangles");
-					List<LatLonRectangle> rectangles = getRectanglesToRequest();
+					List<AreaRequest> rectangles =
+					        getRectanglesToRequest(batchSize.get());
 
 					System.out.println("Found recangles");
 					try {
 						tryLoadTiles(rectangles);
 						System.out.println("Loaded rectangles");
 						synchronized (received) {
-							for (LatLonRectangle rectangle : rectangles) {
-								received.add(rectangle);
-								received.notifyAll();
+							for (AreaRequest rectangle : rectangles) {
+								received.addAll(rectangle.getTiles());
 							}
+							received.notifyAll();
 						}
 						System.out.println("Stored rectangles");
+					} catch (InterruptedException e) {
+						// the areas are still waited for.
+						reoffer(rectangles);
 					} catch (Exception e) {
-						e.printStackTrace();
+						// e.g. a broken response, the loader must not die.
 						reoffer(rectangles);
-						Thread.sleep(2000);
+						if (!(e instanceof IOException)) {
+							e.printStackTrace();
+						}
+						long retryAfter = 0;
+						if (e instanceof OverpassServerException) {
+							OverpassServerException serverError =
+							        (OverpassServerException) e;
+							retryAfter = serverError.getRetryAfterMillis();
+							if (serverError.isOverloaded()) {
+								batchSize.failed();
+							}
+						} else {
+							batchSize.failed();
+						}
+						long delay = backoff.failed(retryAfter);
+						System.err.println(e.getMessage() + ", retrying in "
+						        + delay + "ms with at most " + batchSize.get()
+						        + " areas per request.");
 					}
 				} catch (InterruptedException e) {
 				}
 			}
 		}
 
-		private void tryLoadTiles(List<LatLonRectangle> rectangles)
-		        throws IOException {
+		/**
+		 * Loads the rectangles. Rectangles that are in the cache are loaded
+		 * from there, the others are requested together.
+		 */
+		private void tryLoadTiles(List<AreaRequest> rectangles)
+		        throws IOException, InterruptedException {
 			System.out.println("Requesting " + rectangles.size() + " areas");
-			URL mapRequestUrl = getAddressBlocking();
-			String script = "<osm-script timeout=\"1000\">\n";
-			// do a coord query to get all sorounding rects.
-			// <coord-query lat="51.25" lon="7.15" into="areas"/>
-			script += "    <union into=\"basenodes\">\n";
-			for (LatLonRectangle rectangle : rectangles) {
-				script += "        <bbox-query" //
-				        + " w=\"" + rectangle.getMinlon() + "\"" //
-				        + " s=\"" + rectangle.getMinlat() + "\"" //
-				        + " e=\"" + rectangle.getMaxlon() + "\"" //
-				        + " n=\"" + rectangle.getMaxlat() + "\"/>\n";
-			}
-			script +=
-			        "    </union>\n" //
-			                + "    <union>\n" //
-			                + "        <item />\n" //
-			                + "        <recurse type=\"node-way\" from=\"basenodes\" into=\"ways\"/>\n" //
-			                //+ "        <union into=\"relations\">\n" //
-			                //+ "        <recurse type=\"way-relation\" from=\"ways\" into=\"all\"/>\n" //
-			                //+ "        <recurse type=\"node-relation\" from=\"basenodes\"/>\n" //
-			                //+ "        </union>\n" //
-			                //+ "        <recurse type=\"relation-way\" from=\"relations\"/>\n" //
-			                + "    </union>\n" //
-			                + "    <union>\n" //
-			                + "        <item/>\n" //
-			                + "        <recurse type=\"way-node\"/>\n" //
-			                + "    </union>\n" //
-			                + "    <print order=\"quadtile\"/>\n" //
-			                + "</osm-script>";
+			OverpassCache cache = getCache();
+			List<String> missingQueries = new ArrayList<String>();
+			List<String> missingParts = new ArrayList<String>();
+			Set<String> cachedEntries = new HashSet<String>();
+			for (AreaRequest rectangle : rectangles) {
+				String query = createQuery(rectangle.getBounds());
+				String part = createCachePart(query);
+				String entry = cache == null ? null : cache.find(part);
+				if (entry != null) {
+					cachedEntries.add(entry);
+				} else {
+					missingQueries.add(query);
+					missingParts.add(part);
+				}
+			}
+
+			for (String entry : cachedEntries) {
+				byte[] response = cache.getEntry(entry);
+				if (response == null) {
+					throw new IOException("Cache entry was evicted.");
+				}
+				System.out.println("Using cached response");
+				addResponse(response);
+			}
+
+			if (missingQueries.isEmpty()) {
+				return;
+			}
+			String script = createScript(missingQueries);
+			byte[] response = cache == null ? null : cache.get(script);
+			if (response != null) {
+				System.out.println("Using cached response");
+			} else if (isOffline()) {
+				System.err.println("Offline and " + missingQueries.size()
+				        + " areas are not cached, leaving them empty.");
+				return;
+			} else {
+				backoff.await();
+				long start = System.currentTimeMillis();
+				response = download(script);
+				batchSize.succeeded(missingQueries.size(),
+				        System.currentTimeMillis() - start);
+				backoff.succeeded();
+				if (cache != null) {
+					cache.put(script, missingParts, response);
+				}
+			}
+			addResponse(response);
+			System.out.println("Received " + rectangles.size() + " areas");
+		}
+
+		private void addResponse(byte[] response) throws IOException {
+			InputStream in =
+			        new GZIPInputStream(new ByteArrayInputStream(response));
+
+			// parse in parallel, only the merge needs the shared pack.
+			OsmDatapack partial =
+			        OsmDatapack.readFromXMLStream(in, OsmXmlEngine.SCANNER);
+			synchronized (dataPack) {
+				dataPack.addAll(partial);
+			}
+		}
+
+		/**
+		 * Creates the query for one rectangle.
+		 */
+		private String createQuery(LatLonRectangle rectangle) {
+			StringBuilder query = new StringBuilder(SCRIPT_END.length() + 100);
+			query.append("        <bbox-query") //
+			        .append(" w=\"").append(rectangle.getMinlon()).append('"') //
+			        .append(" s=\"").append(rectangle.getMinlat()).append('"') //
+			        .append(" e=\"").append(rectangle.getMaxlon()).append('"') //
+			        .append(" n=\"").append(rectangle.getMaxlat()).append('"') //
+			        .append("/>\n");
+			return query.toString();
+		}
+
+		/**
+		 * Creates the key of a rectangle in the cache. It contains the rest
+		 * of the script, so that the cached responses are not used if the
+		 * script changes.
+		 */
+		private String createCachePart(String query) {
+			return SCRIPT_START + query + SCRIPT_END;
+		}
+
+		private String createScript(List<String> queries) {
+			StringBuilder script = new StringBuilder();
+			script.append(SCRIPT_START);
+			for (String query : queries) {
+				script.append(query);
+			}
+			script.append(SCRIPT_END);
+			return script.toString();
+		}
 
+		/**
+		 * Sends the script to the server.
+		 * 
+		 * @return The gzip compressed response.
+		 */
+		private byte[] download(String script) throws IOException {
+			URL mapRequestUrl = getAddressBlocking();
 			HttpURLConnection request =
 			        (HttpURLConnection) mapRequestUrl.openConnection();
+			byte[] body = script.getBytes(UTF8);
 			request.setRequestMethod("POST");
 			request.setAllowUserInteraction(false);
 			request.setDoOutput(true);
+			request.setConnectTimeout(CONNECT_TIMEOUT);
+			request.setReadTimeout(READ_TIMEOUT);
+			request.setFixedLengthStreamingMode(body.length);
 			request.setRequestProperty("Content-type", "text/xml");
-			request.setRequestProperty("Content-length", script.length() + "");
+			request.setRequestProperty("Accept-Encoding", "gzip");
 			request.setInstanceFollowRedirects(true);
-			request.connect();
 
 			OutputStream out = request.getOutputStream();
-			PrintWriter writer = new PrintWriter(out);
-			writer.print(script);
-			writer.flush();
-			writer.close();
-
-			System.out.println("sending request: " + script);
-			if (request.getResponseCode() != HttpURLConnection.HTTP_OK) {
-				throw new IOException("Response indicates error: "
-				        + request.getResponseCode() + " ("
-				        + request.getResponseMessage() + ")");
-			}
-
-			InputStream in = request.getInputStream();
-			
-			// Scanner s = new Scanner(in);
-			// String read = s.useDelimiter("\\A").next();
-			// System.out.println(read);
-			// in = new ByteArrayInputStream(read.getBytes());
-
-			OsmDatapack.addFromXMLStream(in, dataPack);
-			System.out.println("Received " + rectangles.size() + " areas");
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+			}
+
+			int code = request.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK) {
+				long retryAfter =
+				        parseRetryAfter(request.getHeaderField("Retry-After"));
+				InputStream error = request.getErrorStream();
+				if (error != null) {
+					error.close();
+				}
+				throw new OverpassServerException(code,
+				        request.getResponseMessage(), retryAfter);
+			}
+
+			byte[] response =
+			        OverpassCache.readFully(request.getInputStream());
+			if ("gzip".equalsIgnoreCase(request
+			        .getHeaderField("Content-Encoding"))) {
+				return response;
+			} else {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+				gzip.write(response);
+				gzip.close();
+				return compressed.toByteArray();
+			}
+		}
+
+		/**
+		 * Parses a Retry-After header that contains a number of seconds.
+		 * 
+		 * @return The delay in ms, 0 if it could not be parsed.
+		 */
+		private long parseRetryAfter(String header) {
+			if (header == null) {
+				return 0;
+			}
+			try {
+				return Math.max(0, Long.parseLong(header.trim()) * 1000);
+			} catch (NumberFormatException e) {
+				// http dates are not supported.
+				return 0;
+			}
 		}
 	}
 
-	private synchronized void reoffer(List<LatLonRectangle> rectangles) {
-		for (LatLonRectangle rectangle : rectangles) {
+	private synchronized void reoffer(List<AreaRequest> rectangles) {
+		for (AreaRequest rectangle : rectangles) {
 			unprogressedTiles.offer(rectangle);
 		}
 		this.notifyAll();
 	}
 
-	private List<LatLonRectangle> getRectanglesToRequest()
+	private List<AreaRequest> getRectanglesToRequest(int count)
 	        throws InterruptedException {
-		List<LatLonRectangle> rectangles = new LinkedList<LatLonRectangle>();
+		List<AreaRequest> rectangles = new LinkedList<AreaRequest>();
 		synchronized (this) {
 			while (waitWithUnprogressed || unprogressedTiles.isEmpty()) {
 				this.wait();
 			}
-			while (rectangles.size() < MAX_RECTS_PER_REQUEST) {
-				LatLonRectangle rectangle = unprogressedTiles.poll();
+			while (rectangles.size() < count) {
+				AreaRequest rectangle = unprogressedTiles.poll();
 				if (rectangle == null) {
 					break;
 				}
@@ -0,0 +1,558 @@
+package data.osm;
+
+import gui.LatLonRectangle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import data.osm.OsmRelation.OsmRoledNode;
+import data.osm.OsmRelation.OsmRoledWay;
+
+/**
+ * The content of an osm change file (.osc).
+ * <p>
+ * A change is applied by copying a pack, so that it works the same for packs
+ * that were read and for snapshots. Before that, the areas that are affected
+ * by the change can be computed, so that only those need to be converted
+ * again.
+ * 
+ * @author michael
+ */
+public class OsmChange {
+	/**
+	 * The size a changed area has at least, in degrees.
+	 */
+	private static final double MIN_AREA_SIZE = 1e-7;
+
+	private final LinkedHashMap<Long, NodeChange> nodes =
+	        new LinkedHashMap<Long, NodeChange>();
+	private final LinkedHashMap<Long, WayChange> ways =
+	        new LinkedHashMap<Long, WayChange>();
+	private final LinkedHashMap<Long, RelationChange> relations =
+	        new LinkedHashMap<Long, RelationChange>();
+
+	private OsmChange() {
+	}
+
+	public static OsmChange readFromFile(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return readFromStream(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads an osmChange document.
+	 * 
+	 * @param in
+	 *            The stream to read.
+	 * @return The change.
+	 * @throws IOException
+	 *             If the stream could not be read or parsed.
+	 */
+	public static OsmChange readFromStream(InputStream in) throws IOException {
+		OsmChange change = new OsmChange();
+		try {
+			XMLReader xr =
+			        SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+			xr.setContentHandler(new OsmChangeHandler(change));
+			xr.parse(new InputSource(in));
+		} catch (SAXException e) {
+			throw new IOException("Sax error occurred", e);
+		} catch (ParserConfigurationException e) {
+			throw new IOException("No xml parser available", e);
+		} catch (NumberFormatException e) {
+			throw new IOException("A number was malformed", e);
+		}
+		return change;
+	}
+
+	/**
+	 * Gets the number of changed nodes, ways and relations.
+	 */
+	public int getChangeCount() {
+		return nodes.size() + ways.size() + relations.size();
+	}
+
+	/**
+	 * Computes the areas that are affected by this change. This contains the
+	 * old and the new geometry of all changed elements, of the ways that
+	 * contain changed nodes and of the relations that contain changed ways.
+	 * 
+	 * @param base
+	 *            The pack the change will be applied to.
+	 * @return The areas, they may overlap.
+	 */
+	public List<LatLonRectangle> getChangedAreas(OsmDatapack base) {
+		List<LatLonRectangle> areas = new ArrayList<LatLonRectangle>();
+		Set<OsmWay> affectedWays =
+		        Collections.newSetFromMap(new IdentityHashMap<OsmWay, Boolean>());
+
+		for (NodeChange change : nodes.values()) {
+			OsmNode old = base.getNode(change.id);
+			if (old != null) {
+				areas.add(new AreaBuilder().add(old.getLat(), old.getLon())
+				        .toRectangle());
+				for (OsmWay way : old) {
+					affectedWays.add(way);
+				}
+			}
+			if (!change.deleted) {
+				areas.add(new AreaBuilder().add(change.lat, change.lon)
+				        .toRectangle());
+			}
+		}
+
+		for (WayChange change : ways.values()) {
+			OsmWay old = base.getWay(change.id);
+			if (old != null) {
+				affectedWays.add(old);
+			}
+			if (!change.deleted) {
+				addArea(areas, addNewWay(new AreaBuilder(), base, change));
+			}
+		}
+
+		for (OsmWay way : affectedWays) {
+			addArea(areas, addOldWay(new AreaBuilder(), way));
+			addArea(areas, addMovedWay(new AreaBuilder(), base, way));
+		}
+
+		for (RelationChange change : relations.values()) {
+			OsmRelation old = base.getRelation(change.id);
+			if (old != null) {
+				addArea(areas, addOldRelation(new AreaBuilder(), old));
+			}
+			if (!change.deleted) {
+				AreaBuilder area = new AreaBuilder();
+				for (Member member : change.members) {
+					if (member.way) {
+						WayChange way = ways.get(member.ref);
+						if (way != null) {
+							addNewWay(area, base, way);
+						} else if (base.getWay(member.ref) != null) {
+							addMovedWay(area, base, base.getWay(member.ref));
+						}
+					} else {
+						addNode(area, base, member.ref);
+					}
+				}
+				addArea(areas, area);
+			}
+		}
+
+		// multipolygons that contain a changed way.
+		for (OsmRelation relation : base.getRelations()) {
+			boolean affected = false;
+			for (OsmRoledWay member : relation.getWays()) {
+				affected |= affectedWays.contains(member.getWay());
+			}
+			if (affected) {
+				addArea(areas, addOldRelation(new AreaBuilder(), relation));
+				AreaBuilder moved = new AreaBuilder();
+				for (OsmRoledWay member : relation.getWays()) {
+					addMovedWay(moved, base, member.getWay());
+				}
+				addArea(areas, moved);
+			}
+		}
+		return areas;
+	}
+
+	private static void addArea(List<LatLonRectangle> areas, AreaBuilder area) {
+		if (!area.isEmpty()) {
+			areas.add(area.toRectangle());
+		}
+	}
+
+	private static AreaBuilder addOldWay(AreaBuilder area, OsmWay way) {
+		for (int i = 0; i < way.getNodeCount(); i++) {
+			area.add(way.getLat(i), way.getLon(i));
+		}
+		return area;
+	}
+
+	private static AreaBuilder addOldRelation(AreaBuilder area,
+	        OsmRelation relation) {
+		for (OsmRoledWay member : relation.getWays()) {
+			addOldWay(area, member.getWay());
+		}
+		for (OsmRoledNode member : relation.getNodes()) {
+			area.add(member.getNode().getLat(), member.getNode().getLon());
+		}
+		return area;
+	}
+
+	/**
+	 * Adds a way of the base pack with the new positions of its nodes.
+	 */
+	private AreaBuilder addMovedWay(AreaBuilder area, OsmDatapack base,
+	        OsmWay way) {
+		for (int i = 0; i < way.getNodeCount(); i++) {
+			addNode(area, base, way.getNode(i).getId());
+		}
+		return area;
+	}
+
+	private AreaBuilder addNewWay(AreaBuilder area, OsmDatapack base,
+	        WayChange way) {
+		for (long node : way.nodes) {
+			addNode(area, base, node);
+		}
+		return area;
+	}
+
+	/**
+	 * Adds the new position of a node, if it still exists.
+	 */
+	private void addNode(AreaBuilder area, OsmDatapack base, long id) {
+		NodeChange change = nodes.get(id);
+		if (change != null) {
+			if (!change.deleted) {
+				area.add(change.lat, change.lon);
+			}
+		} else {
+			OsmNode node = base.getNode(id);
+			if (node != null) {
+				area.add(node.getLat(), node.getLon());
+			}
+		}
+	}
+
+	/**
+	 * Creates a new pack that contains the base pack with this change
+	 * applied. The base pack is not changed, so all its elements are copied.
+	 * This takes time in the size of the base pack, not of the change.
+	 * 
+	 * @param base
+	 *            The pack to apply the change to.
+	 * @param generatedFilter
+	 *            Generated nodes (with negative ids) of the base pack are
+	 *            only kept if they are accepted by this filter. May be
+	 *            <code>null</code> to keep all of them.
+	 * @return The new pack.
+	 */
+	public OsmDatapack applyTo(OsmDatapack base, OsmImportFilter generatedFilter) {
+		OsmDatapack result = OsmDatapack.createEmptyPack();
+		OsmNodeStore baseNodes = base.getNodeStore();
+
+		int[] nodeMap = new int[baseNodes.size()];
+		for (int i = 0; i < nodeMap.length; i++) {
+			nodeMap[i] = -1;
+			long id = baseNodes.getId(i);
+			double lat = baseNodes.getLat(i);
+			double lon = baseNodes.getLon(i);
+			if (nodes.containsKey(id)
+			        || (id < 0 && generatedFilter != null && !generatedFilter
+			                .acceptNode(lat, lon))) {
+				continue;
+			}
+			int[] tags = new int[baseNodes.getTagCodeCount(i)];
+			for (int j = 0; j < tags.length; j++) {
+				tags[j] = baseNodes.getTagCode(i, j);
+			}
+			nodeMap[i] = result.addNode(id, lat, lon, tags).getIndex();
+		}
+		for (NodeChange change : nodes.values()) {
+			if (!change.deleted) {
+				int index =
+				        result.addNode(change.id, change.lat, change.lon,
+				                change.tags).getIndex();
+				int baseIndex = baseNodes.indexOf(change.id);
+				if (baseIndex >= 0) {
+					nodeMap[baseIndex] = index;
+				}
+			}
+		}
+
+		long[] wayIds = base.getWayIds();
+		List<OsmWay> baseWays = base.getWayList();
+		IdentityHashMap<OsmWay, Long> baseWayIds =
+		        new IdentityHashMap<OsmWay, Long>();
+		IntList wayNodes = new IntList();
+		for (int i = 0; i < wayIds.length; i++) {
+			OsmWay way = baseWays.get(i);
+			baseWayIds.put(way, wayIds[i]);
+			if (ways.containsKey(wayIds[i])) {
+				continue;
+			}
+			wayNodes.clear();
+			for (int j = 0; j < way.getNodeCount(); j++) {
+				int node = nodeMap[way.getNodeIndex(j)];
+				if (node >= 0) {
+					wayNodes.add(node);
+				}
+			}
+			if (wayNodes.size() >= 2) {
+				result.addWay(wayIds[i], wayNodes.toArray(), way.getTags());
+			}
+		}
+		for (WayChange change : ways.values()) {
+			if (change.deleted) {
+				continue;
+			}
+			wayNodes.clear();
+			for (long id : change.nodes) {
+				int node = result.getNodeIndex(id);
+				if (node >= 0) {
+					wayNodes.add(node);
+				}
+			}
+			if (wayNodes.size() >= 2) {
+				result.addWay(change.id, wayNodes.toArray(), change.tags);
+			}
+		}
+
+		long[] relationIds = base.getRelationIds();
+		List<OsmRelation> baseRelations = base.getRelationList();
+		for (int i = 0; i < relationIds.length; i++) {
+			if (relations.containsKey(relationIds[i])) {
+				continue;
+			}
+			OsmRelation relation = baseRelations.get(i);
+			LinkedList<OsmRoledNode> roledNodes =
+			        new LinkedList<OsmRoledNode>();
+			for (OsmRoledNode member : relation.getNodes()) {
+				int node = nodeMap[member.getNode().getIndex()];
+				if (node >= 0) {
+					roledNodes.add(new OsmRoledNode(member.getRole(),
+					        new OsmNode(result.getNodeStore(), node)));
+				}
+			}
+			LinkedList<OsmRoledWay> roledWays = new LinkedList<OsmRoledWay>();
+			for (OsmRoledWay member : relation.getWays()) {
+				OsmWay way = result.getWay(baseWayIds.get(member.getWay()));
+				if (way != null) {
+					roledWays.add(new OsmRoledWay(member.getRole(), way));
+				}
+			}
+			result.addRelation(relationIds[i], new OsmRelation(roledNodes,
+			        roledWays, relation.getTags()));
+		}
+		for (RelationChange change : relations.values()) {
+			if (change.deleted) {
+				continue;
+			}
+			LinkedList<OsmRoledNode> roledNodes =
+			        new LinkedList<OsmRoledNode>();
+			LinkedList<OsmRoledWay> roledWays = new LinkedList<OsmRoledWay>();
+			for (Member member : change.members) {
+				if (member.way) {
+					OsmWay way = result.getWay(member.ref);
+					if (way != null) {
+						roledWays.add(new OsmRoledWay(member.role, way));
+					}
+				} else {
+					OsmNode node = result.getNode(member.ref);
+					if (node != null) {
+						roledNodes.add(new OsmRoledNode(member.role, node));
+					}
+				}
+			}
+			result.addRelation(change.id, new OsmRelation(roledNodes,
+			        roledWays, change.tags));
+		}
+
+		result.setCenter(base.getCenter());
+		result.currentId = base.currentId;
+		return result;
+	}
+
+	/**
+	 * Collects the bounds of some positions.
+	 */
+	private static class AreaBuilder {
+		private double minlat = Double.POSITIVE_INFINITY;
+		private double maxlat = Double.NEGATIVE_INFINITY;
+		private double minlon = Double.POSITIVE_INFINITY;
+		private double maxlon = Double.NEGATIVE_INFINITY;
+
+		public AreaBuilder add(double lat, double lon) {
+			minlat = Math.min(minlat, lat);
+			maxlat = Math.max(maxlat, lat);
+			minlon = Math.min(minlon, lon);
+			maxlon = Math.max(maxlon, lon);
+			return this;
+		}
+
+		public boolean isEmpty() {
+			return minlat > maxlat;
+		}
+
+		public LatLonRectangle toRectangle() {
+			return new LatLonRectangle(minlat - MIN_AREA_SIZE, maxlat
+			        + MIN_AREA_SIZE, minlon - MIN_AREA_SIZE, maxlon
+			        + MIN_AREA_SIZE);
+		}
+	}
+
+	private static class NodeChange {
+		private final long id;
+		private final boolean deleted;
+		private final double lat;
+		private final double lon;
+		private final int[] tags;
+
+		public NodeChange(long id, boolean deleted, double lat, double lon,
+		        int[] tags) {
+			this.id = id;
+			this.deleted = deleted;
+			this.lat = lat;
+			this.lon = lon;
+			this.tags = tags;
+		}
+	}
+
+	private static class WayChange {
+		private final long id;
+		private final boolean deleted;
+		private final long[] nodes;
+		private final int[] tags;
+
+		public WayChange(long id, boolean deleted, long[] nodes, int[] tags) {
+			this.id = id;
+			this.deleted = deleted;
+			this.nodes = nodes;
+			this.tags = tags;
+		}
+	}
+
+	private static class RelationChange {
+		private final long id;
+		private final boolean deleted;
+		private final List<Member> members;
+		private final int[] tags;
+
+		public RelationChange(long id, boolean deleted, List<Member> members,
+		        int[] tags) {
+			this.id = id;
+			this.deleted = deleted;
+			this.members = members;
+			this.tags = tags;
+		}
+	}
+
+	private static class Member {
+		/**
+		 * <code>true</code> for way members, <code>false</code> for node
+		 * members.
+		 */
+		private final boolean way;
+		private final long ref;
+		private final String role;
+
+		public Member(boolean way, long ref, String role) {
+			this.way = way;
+			this.ref = ref;
+			this.role = role;
+		}
+	}
+
+	private static class OsmChangeHandler extends DefaultHandler {
+		private final OsmChange change;
+
+		private boolean deleting = false;
+
+		private long currentId;
+		private String currentLat;
+		private String currentLon;
+		// reused
+		private final Properties tags = new Properties();
+		private final ArrayList<Long> currentNodes = new ArrayList<Long>();
+		private final ArrayList<Member> currentMembers =
+		        new ArrayList<Member>();
+
+		OsmChangeHandler(OsmChange change) {
+			this.change = change;
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName,
+		        Attributes atts) throws SAXException {
+			String name = qName;
+
+			if (name.equals("create") || name.equals("modify")) {
+				deleting = false;
+			} else if (name.equals("delete")) {
+				deleting = true;
+			} else if (name.equals("node") || name.equals("way")
+			        || name.equals("relation")) {
+				currentId = Long.parseLong(atts.getValue("id"));
+				currentLat = atts.getValue("lat");
+				currentLon = atts.getValue("lon");
+				tags.clear();
+				currentNodes.clear();
+				currentMembers.clear();
+			} else if (name.equals("tag")) {
+				tags.put(atts.getValue("k"), atts.getValue("v"));
+			} else if (name.equals("nd")) {
+				currentNodes.add(Long.parseLong(atts.getValue("ref")));
+			} else if (name.equals("member")) {
+				String role = atts.getValue("role");
+				String type = atts.getValue("type");
+				if ("node".equals(type) || "way".equals(type)) {
+					currentMembers.add(new Member("way".equals(type), Long
+					        .parseLong(atts.getValue("ref")), role == null ? ""
+					        : role));
+				}
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String localName, String qName)
+		        throws SAXException {
+			String name = qName;
+
+			if (name.equals("node")) {
+				nodeEnded();
+			} else if (name.equals("way")) {
+				long[] nodes = new long[currentNodes.size()];
+				for (int i = 0; i < nodes.length; i++) {
+					nodes[i] = currentNodes.get(i);
+				}
+				change.ways.put(currentId, new WayChange(currentId, deleting,
+				        nodes, PackedTags.fromProperties(tags)));
+			} else if (name.equals("relation")) {
+				change.relations.put(currentId, new RelationChange(currentId,
+				        deleting, new ArrayList<Member>(currentMembers),
+				        PackedTags.fromProperties(tags)));
+			}
+		}
+
+		private void nodeEnded() {
+			if (deleting) {
+				change.nodes.put(currentId, new NodeChange(currentId, true, 0,
+				        0, PackedTags.EMPTY));
+			} else if (currentLat != null && currentLon != null) {
+				change.nodes.put(currentId, new NodeChange(currentId, false,
+				        Double.parseDouble(currentLat), Double
+				                .parseDouble(currentLon), PackedTags
+				                .fromProperties(tags)));
+			} else {
+				System.out.println("Changed node " + currentId
+				        + " has no position.");
+			}
+		}
+	}
+}
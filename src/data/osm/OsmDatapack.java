@@ -1,12 +1,20 @@
 package data.osm;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 
 import org.xml.sax.Attributes;
@@ -18,61 +26,456 @@ import org.xml.sax.helpers.XMLReaderFactory;
 
 import com.sun.org.apache.xerces.internal.impl.io.MalformedByteSequenceException;
 
+import conversion.datachange.geometry.GridPart;
+import conversion.datachange.geometry.GridPartImportFilter;
 import data.osm.OsmRelation.OsmRoledNode;
 import data.osm.OsmRelation.OsmRoledWay;
+import data.position.local.GlobalToLocalConverter;
 import data.position.local.LatLon;
-import data.position.local.LatLonObject;
 
 /**
  * This is a osm data pack that holds node and way data.
+ * <p>
+ * Nodes are kept in primitive arrays (see {@link OsmNodeStore}), all elements
+ * are indexed by their (long) osm id. A pack can be saved as a binary
+ * snapshot that is mapped into memory when it is opened again, see
+ * {@link #openSnapshot(File)}.
+ * <p>
+ * A pack is not synchronized. It may only be modified by one thread at a
+ * time.
  * 
  * @author michael
  */
 public class OsmDatapack {
-	private Hashtable<Integer, OsmNode> nodes =
-	        new Hashtable<Integer, OsmNode>();
-	private Hashtable<Integer, OsmWay> ways = new Hashtable<Integer, OsmWay>();
-	private Hashtable<Integer, OsmRelation> relations =
-	        new Hashtable<Integer, OsmRelation>();
+	private final OsmNodeStore nodes;
 
-	int currentId = -1;
+	private final LongIntIndex wayIndex;
+	private final List<OsmWay> ways;
+
+	private final LongIntIndex relationIndex;
+	private final List<OsmRelation> relations;
+
+	long currentId = -1;
 
 	private LatLon center = null;
 
-	private OsmDatapack() {
+	/**
+	 * The filter for read nodes, may be <code>null</code>.
+	 */
+	private final OsmImportFilter filter;
+
+	/**
+	 * The border nodes and ways of a read in two passes, see
+	 * {@link #readFromPbfFile(File, OsmImportFilter)}. <code>null</code> for
+	 * packs that are read in one pass.
+	 */
+	private BorderNodes border = null;
+
+	/**
+	 * The nodes outside of the filter area that are needed by ways that are
+	 * kept, and those ways, while they wait for the coordinates.
+	 * <p>
+	 * In the first pass, only the ids of the nodes are known. The ids are
+	 * collected per way and only kept if the way has an accepted node, so
+	 * the memory used grows with the border of the area, not with the file.
+	 * The second pass fills in the coordinates.
+	 */
+	private static class BorderNodes {
+		/**
+		 * The ids of the unknown nodes of the way that is currently read.
+		 */
+		private long[] wayRefs = new long[16];
+		private int wayRefCount = 0;
+
+		private final LongIntIndex slots = new LongIntIndex();
+		private long[] ids = new long[256];
+		private double[] lats = new double[256];
+		private double[] lons = new double[256];
+		private int count = 0;
+
+		private final List<PendingWay> ways = new ArrayList<PendingWay>();
+
+		/**
+		 * <code>true</code> while the second pass reads the coordinates.
+		 */
+		private boolean resolving = false;
+
+		public int addWayRef(long id) {
+			if (wayRefCount == wayRefs.length) {
+				wayRefs = Arrays.copyOf(wayRefs, wayRefCount * 2);
+			}
+			wayRefs[wayRefCount] = id;
+			return wayRefCount++;
+		}
+
+		public int getSlot(long id) {
+			int slot = slots.get(id);
+			if (slot < 0) {
+				if (count == ids.length) {
+					ids = Arrays.copyOf(ids, count * 2);
+					lats = Arrays.copyOf(lats, count * 2);
+					lons = Arrays.copyOf(lons, count * 2);
+				}
+				slot = count++;
+				ids[slot] = id;
+				lats[slot] = Double.NaN;
+				lons[slot] = Double.NaN;
+				slots.put(id, slot);
+			}
+			return slot;
+		}
+	}
+
+	/**
+	 * A way that has nodes outside of the filter area. The nodes are the
+	 * node indexes, or -2 - slot for border nodes.
+	 */
+	private static class PendingWay {
+		private final long id;
+		private final int[] nodes;
+		private final int[] tags;
+
+		public PendingWay(long id, int[] nodes, int[] tags) {
+			this.id = id;
+			this.nodes = nodes;
+			this.tags = tags;
+		}
+	}
+
+	private OsmDatapack(OsmImportFilter filter) {
+		this.filter = filter;
+		ways = new ArrayList<OsmWay>();
+		nodes = new OsmNodeStore(ways);
+		wayIndex = new LongIntIndex();
+		relations = new ArrayList<OsmRelation>();
+		relationIndex = new LongIntIndex();
+	}
+
+	/**
+	 * Creates a pack around existing storage, e.g. a snapshot.
+	 */
+	OsmDatapack(OsmNodeStore nodes, List<OsmWay> ways, LongIntIndex wayIndex,
+	        List<OsmRelation> relations, LongIntIndex relationIndex,
+	        LatLon center) {
+		this.filter = null;
+		this.nodes = nodes;
+		this.ways = ways;
+		this.wayIndex = wayIndex;
+		this.relations = relations;
+		this.relationIndex = relationIndex;
+		this.center = center;
+	}
+
+	/**
+	 * Adds a node that was read, if there is none with that id and if the
+	 * import filter accepts it.
+	 * 
+	 * @return The node with that id, or <code>null</code> if it was filtered.
+	 */
+	OsmNode addNode(long id, double lat, double lon, int[] keyvalues) {
+		if (border != null && border.resolving) {
+			int slot = border.slots.get(id);
+			if (slot >= 0) {
+				border.lats[slot] = lat;
+				border.lons[slot] = lon;
+			}
+			return null;
+		}
+		if (filter != null && !filter.acceptNode(lat, lon)
+		        && nodes.indexOf(id) < 0) {
+			return null;
+		}
+		return storeNode(id, lat, lon, keyvalues);
+	}
+
+	private OsmNode storeNode(long id, double lat, double lon,
+	        int[] keyvalues) {
+		int index = nodes.indexOf(id);
+		if (index < 0) {
+			index = nodes.add(id, lat, lon, keyvalues);
+		}
+		return new OsmNode(nodes, index);
+	}
+
+	/**
+	 * Adds a new generated node to the pack.
+	 * 
+	 * @param lat
+	 *            The lat of the node.
+	 * @param lon
+	 *            The lon of the node
+	 * @param properties
+	 *            The tags of the new node.
+	 * @return The new node
+	 */
+	public OsmNode addNode(double lat, double lon, SimpleProperties properties) {
+		// snapshots and changed packs may already contain generated nodes.
+		while (nodes.indexOf(currentId) >= 0) {
+			currentId--;
+		}
+		return storeNode(currentId--, lat, lon, properties.getTags());
+	}
+
+	OsmNode getNode(long id) {
+		int index = nodes.indexOf(id);
+		if (index < 0) {
+			return null;
+		} else {
+			return new OsmNode(nodes, index);
+		}
+	}
+
+	/**
+	 * Gets the index of a node in the node store.
+	 * 
+	 * @return The index or -1 if there is no such node.
+	 */
+	int getNodeIndex(long id) {
+		return nodes.indexOf(id);
+	}
+
+	/**
+	 * Gets the index of a node that is referenced by a way that is read.
+	 * 
+	 * @return The index, -1 if there is no such node or a placeholder below
+	 *         -1 if the node may be outside of the filter area. Placeholders
+	 *         are resolved by {@link #addWay(long, int[], int[])}.
+	 */
+	int getWayNodeIndex(long id) {
+		if (border == null) {
+			return nodes.indexOf(id);
+		} else if (border.resolving) {
+			// the way is not used, but it has to reach addWay(), which ends
+			// the node part of the second pass.
+			return -2;
+		}
+		int index = nodes.indexOf(id);
+		if (index < 0) {
+			return -2 - border.addWayRef(id);
+		}
+		return index;
 	}
 
-	private synchronized OsmNode addNode(Integer id, OsmNode node) {
-		if (getNode(id) != null) {
-			return getNode(id);
+	/**
+	 * Adds a way that was read, if there is none with that id.
+	 * <p>
+	 * If the pack is read in two passes and the way has an accepted node,
+	 * the nodes of it that the import filter rejected are added after the
+	 * second pass, so ways that cross the border of the area stay whole.
+	 * Ways without accepted nodes are dropped.
+	 * 
+	 * @param nodeIndexes
+	 *            The indexes of the nodes, see {@link #getWayNodeIndex(long)}
+	 *            .
+	 * @param tags
+	 *            The packed tags.
+	 */
+	void addWay(long id, int[] nodeIndexes, int[] tags) {
+		if (border != null) {
+			addBorderWay(id, nodeIndexes, tags);
 		} else {
-			nodes.put(id, node);
-			return node;
+			storeWay(id, nodeIndexes, tags);
 		}
 	}
 
-	public synchronized void addNode(OsmNode node) {
-		nodes.put(currentId, node);
-		currentId--;
+	private void storeWay(long id, int[] nodeIndexes, int[] tags) {
+		if (wayIndex.get(id) >= 0 || nodeIndexes.length < 2) {
+			return;
+		}
+		OsmWay way = new OsmWay(nodes, nodeIndexes, tags);
+		int index = ways.size();
+		wayIndex.put(id, index);
+		ways.add(way);
+		nodes.invalidateWays();
 	}
 
-	private OsmNode getNode(Integer id) {
-		return nodes.get(id);
+	private void addBorderWay(long id, int[] nodeIndexes, int[] tags) {
+		if (border.resolving) {
+			finishBorderWays();
+			return;
+		}
+		boolean accepted = false;
+		boolean outside = false;
+		for (int node : nodeIndexes) {
+			accepted |= node >= 0;
+			outside |= node < -1;
+		}
+		if (accepted && outside) {
+			int[] pending = new int[nodeIndexes.length];
+			for (int i = 0; i < nodeIndexes.length; i++) {
+				int node = nodeIndexes[i];
+				pending[i] =
+				        node >= 0 ? node : -2
+				                - border.getSlot(border.wayRefs[-2 - node]);
+			}
+			border.ways.add(new PendingWay(id, pending, tags));
+		} else if (accepted) {
+			storeWay(id, nodeIndexes, tags);
+		}
+		border.wayRefCount = 0;
 	}
 
-	private synchronized void addWay(Integer id, OsmWay way) {
-		ways.put(id, way);
-		for (OsmNode node : way) {
-			node.addWay(way);
+	/**
+	 * Adds the ways that waited for the coordinates of border nodes. Border
+	 * nodes that were not found in the second pass are left out.
+	 */
+	private void finishBorderWays() {
+		if (border.ways.isEmpty()) {
+			return;
 		}
+		IntList resolved = new IntList();
+		for (PendingWay way : border.ways) {
+			resolved.clear();
+			for (int node : way.nodes) {
+				if (node >= 0) {
+					resolved.add(node);
+				} else {
+					int slot = -2 - node;
+					if (!Double.isNaN(border.lats[slot])) {
+						resolved.add(storeNode(border.ids[slot],
+						        border.lats[slot], border.lons[slot],
+						        PackedTags.EMPTY).getIndex());
+					}
+				}
+			}
+			storeWay(way.id, resolved.toArray(), way.tags);
+		}
+		border.ways.clear();
+	}
+
+	/**
+	 * Starts the second pass of a read in two passes. In this pass, only the
+	 * coordinates of the border nodes and the relations are read.
+	 */
+	private void startBorderPass() {
+		border.resolving = true;
+	}
+
+	/**
+	 * Ends a read in two passes. After this, the pack behaves like a pack
+	 * that was read in one pass.
+	 */
+	private void finishBorderPass() {
+		finishBorderWays();
+		border = null;
 	}
 
-	public OsmWay getWay(Integer id) {
-		return ways.get(id);
+	public OsmWay getWay(long id) {
+		int index = wayIndex.get(id);
+		return index < 0 ? null : ways.get(index);
+	}
+
+	/**
+	 * Adds all elements of an other pack to this pack. Elements that are
+	 * already in this pack (same id) are not added again.
+	 * <p>
+	 * This allows to read data into a private pack without holding a lock,
+	 * and only lock this pack for the merge, which just copies primitive
+	 * data.
+	 * 
+	 * @param other
+	 *            The pack to copy the data from. It is not changed.
+	 */
+	public void addAll(OsmDatapack other) {
+		OsmNodeStore otherNodes = other.nodes;
+		int[] nodeMap = new int[otherNodes.size()];
+		for (int i = 0; i < nodeMap.length; i++) {
+			long id = otherNodes.getId(i);
+			int index = nodes.indexOf(id);
+			if (index < 0) {
+				int[] tags = new int[otherNodes.getTagCodeCount(i)];
+				for (int j = 0; j < tags.length; j++) {
+					tags[j] = otherNodes.getTagCode(i, j);
+				}
+				OsmNode node =
+				        addNode(id, otherNodes.getLat(i), otherNodes.getLon(i),
+				                tags);
+				index = node == null ? -1 : node.getIndex();
+			}
+			nodeMap[i] = index;
+		}
+
+		long[] wayIds = other.getWayIds();
+		IdentityHashMap<OsmWay, Long> otherWayIds =
+		        new IdentityHashMap<OsmWay, Long>();
+		IntList wayNodes = new IntList();
+		for (int i = 0; i < wayIds.length; i++) {
+			OsmWay way = other.ways.get(i);
+			otherWayIds.put(way, wayIds[i]);
+			wayNodes.clear();
+			boolean accepted = false;
+			for (int j = 0; j < way.getNodeCount(); j++) {
+				accepted |= nodeMap[way.getNodeIndex(j)] >= 0;
+			}
+			if (!accepted) {
+				continue;
+			}
+			// the coordinates of rejected nodes are known, so the way is
+			// kept whole.
+			for (int j = 0; j < way.getNodeCount(); j++) {
+				int otherNode = way.getNodeIndex(j);
+				if (nodeMap[otherNode] < 0) {
+					nodeMap[otherNode] =
+					        storeNode(otherNodes.getId(otherNode),
+					                otherNodes.getLat(otherNode),
+					                otherNodes.getLon(otherNode),
+					                PackedTags.EMPTY).getIndex();
+				}
+				wayNodes.add(nodeMap[otherNode]);
+			}
+			storeWay(wayIds[i], wayNodes.toArray(), way.getTags());
+		}
+
+		long[] relationIds = other.getRelationIds();
+		for (int i = 0; i < relationIds.length; i++) {
+			if (relationIndex.get(relationIds[i]) >= 0) {
+				continue;
+			}
+			OsmRelation relation = other.relations.get(i);
+			LinkedList<OsmRoledNode> roledNodes =
+			        new LinkedList<OsmRoledNode>();
+			for (OsmRoledNode member : relation.getNodes()) {
+				int node = nodeMap[member.getNode().getIndex()];
+				if (node >= 0) {
+					roledNodes.add(new OsmRoledNode(member.getRole(),
+					        new OsmNode(nodes, node)));
+				}
+			}
+			LinkedList<OsmRoledWay> roledWays = new LinkedList<OsmRoledWay>();
+			for (OsmRoledWay member : relation.getWays()) {
+				Long id = otherWayIds.get(member.getWay());
+				OsmWay way = id == null ? null : getWay(id);
+				if (way != null) {
+					roledWays.add(new OsmRoledWay(member.getRole(), way));
+				}
+			}
+			addRelation(relationIds[i], new OsmRelation(roledNodes,
+			        roledWays, relation.getTags()));
+		}
+
+		if (other.center != null) {
+			center = other.center;
+		}
 	}
 
-	public void addRelation(Integer id, OsmRelation osmRelation) {
-		relations.put(id, osmRelation);
+	public void addRelation(long id, OsmRelation osmRelation) {
+		if (border != null) {
+			if (!border.resolving) {
+				// the members are not complete yet, see the second pass.
+				return;
+			}
+			finishBorderWays();
+		}
+		if (relationIndex.get(id) >= 0) {
+			return;
+		}
+		if (filter != null && osmRelation.getNodes().isEmpty()
+		        && osmRelation.getWays().isEmpty()) {
+			// all members were outside of the imported area.
+			return;
+		}
+		relationIndex.put(id, relations.size());
+		relations.add(osmRelation);
 		for (OsmRoledNode node : osmRelation.getNodes()) {
 			node.getNode().addRelation(osmRelation);
 		}
@@ -81,16 +484,65 @@ public class OsmDatapack {
 		}
 	}
 
+	public OsmRelation getRelation(long id) {
+		int index = relationIndex.get(id);
+		return index < 0 ? null : relations.get(index);
+	}
+
 	public Iterable<OsmWay> getWays() {
-		return ways.values();
+		return Collections.unmodifiableList(ways);
 	}
 
+	/**
+	 * Gets a view on all nodes of this pack.
+	 * 
+	 * @return The nodes.
+	 */
 	public Iterable<OsmNode> getNodes() {
-		return nodes.values();
+		return new Iterable<OsmNode>() {
+			@Override
+			public Iterator<OsmNode> iterator() {
+				return new NodeIterator();
+			}
+		};
 	}
 
 	public Iterable<OsmRelation> getRelations() {
-		return relations.values();
+		return Collections.unmodifiableList(relations);
+	}
+
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	public int getWayCount() {
+		return ways.size();
+	}
+
+	public int getRelationCount() {
+		return relations.size();
+	}
+
+	private class NodeIterator implements Iterator<OsmNode> {
+		private int next = 0;
+
+		@Override
+		public boolean hasNext() {
+			return next < nodes.size();
+		}
+
+		@Override
+		public OsmNode next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return new OsmNode(nodes, next++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 	}
 
 	public static OsmDatapack readFromXMLFile(File file)
@@ -98,15 +550,206 @@ public class OsmDatapack {
 		return readFromXMLStream(new FileInputStream(file));
 	}
 
+	public static OsmDatapack readFromXMLFile(File file, OsmXmlEngine engine)
+	        throws FileNotFoundException, IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return readFromXMLStream(in, engine);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads an osm xml file, but only keeps the nodes the filter accepts and
+	 * the ways and relations that use them. The file is read twice, like in
+	 * {@link #readFromPbfFile(File, OsmImportFilter)}.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @param filter
+	 *            The filter to use.
+	 * @return The pack.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public static OsmDatapack readFromXMLFile(File file, OsmImportFilter filter)
+	        throws IOException {
+		OsmDatapack pack = createTwoPassPack(filter);
+		addFromXMLFile(file, pack);
+		pack.startBorderPass();
+		addFromXMLFile(file, pack);
+		pack.finishBorderPass();
+		return pack;
+	}
+
+	/**
+	 * Reads the part of an osm xml file that is on or near some grid parts.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @param converter
+	 *            The converter to local coordinates.
+	 * @param parts
+	 *            The grid parts to read.
+	 * @param margin
+	 *            The distance around the parts that is read as well, in
+	 *            meters.
+	 * @return The pack.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 * @see #readFromXMLFile(File, OsmImportFilter)
+	 */
+	public static OsmDatapack readFromXMLFile(File file,
+	        GlobalToLocalConverter converter, Collection<GridPart> parts,
+	        double margin) throws IOException {
+		return readFromXMLFile(file, new GridPartImportFilter(converter,
+		        parts, margin));
+	}
+
+	private static void addFromXMLFile(File file, OsmDatapack pack)
+	        throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			addFromXMLStream(new BufferedInputStream(in), pack,
+			        OsmXmlEngine.SCANNER);
+		} finally {
+			in.close();
+		}
+	}
+
 	public static OsmDatapack readFromXMLStream(InputStream in)
+	        throws IOException {
+		return readFromXMLStream(in, OsmXmlEngine.SAX);
+	}
+
+	public static OsmDatapack readFromXMLStream(InputStream in,
+	        OsmXmlEngine engine) throws IOException {
+		OsmDatapack pack = createEmptyPack();
+		addFromXMLStream(in, pack, engine);
+		return pack;
+	}
+
+	public static OsmDatapack readFromPbfFile(File file)
+	        throws FileNotFoundException, IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return readFromPbfStream(new BufferedInputStream(in));
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a .osm.pbf file, but only keeps the nodes the filter accepts and
+	 * the ways and relations that use them.
+	 * <p>
+	 * The file is read twice. The first pass reads the accepted nodes and
+	 * the ways that use them. Ways that leave the area are kept whole, the
+	 * second pass reads the coordinates of their outside nodes and the
+	 * relations. Only the outside nodes that are used are ever stored, so
+	 * the memory needed depends on the area and not on the file. This needs
+	 * the file to be sorted, nodes first, as osm files are.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @param filter
+	 *            The filter to use.
+	 * @return The pack.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public static OsmDatapack readFromPbfFile(File file, OsmImportFilter filter)
+	        throws IOException {
+		OsmDatapack pack = createTwoPassPack(filter);
+		addFromPbfFile(file, pack);
+		pack.startBorderPass();
+		addFromPbfFile(file, pack);
+		pack.finishBorderPass();
+		return pack;
+	}
+
+	/**
+	 * Reads the part of a .osm.pbf file that is on or near some grid parts.
+	 * 
+	 * @param file
+	 *            The file to read.
+	 * @param converter
+	 *            The converter to local coordinates.
+	 * @param parts
+	 *            The grid parts to read.
+	 * @param margin
+	 *            The distance around the parts that is read as well, in
+	 *            meters.
+	 * @return The pack.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 * @see #readFromPbfFile(File, OsmImportFilter)
+	 */
+	public static OsmDatapack readFromPbfFile(File file,
+	        GlobalToLocalConverter converter, Collection<GridPart> parts,
+	        double margin) throws IOException {
+		return readFromPbfFile(file, new GridPartImportFilter(converter,
+		        parts, margin));
+	}
+
+	private static void addFromPbfFile(File file, OsmDatapack pack)
+	        throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			addFromPbfStream(new BufferedInputStream(in), pack);
+		} finally {
+			in.close();
+		}
+	}
+
+	public static OsmDatapack readFromPbfStream(InputStream in)
 	        throws IOException {
 		OsmDatapack pack = createEmptyPack();
-		addFromXMLStream(in, pack);
+		addFromPbfStream(in, pack);
 		return pack;
 	}
 
+	/**
+	 * Adds the content of a .osm.pbf stream to the pack. The blocks of the
+	 * file are decoded in parallel.
+	 * 
+	 * @param in
+	 *            The stream to read.
+	 * @param pack
+	 *            The pack to add the data to.
+	 * @throws IOException
+	 *             If the stream is not a valid pbf stream.
+	 */
+	public static void addFromPbfStream(InputStream in, OsmDatapack pack)
+	        throws IOException {
+		new OsmPbfReader(in, pack).read();
+	}
+
 	public static void addFromXMLStream(InputStream in, OsmDatapack pack)
 	        throws IOException {
+		addFromXMLStream(in, pack, OsmXmlEngine.SAX);
+	}
+
+	/**
+	 * Adds the content of an osm xml stream to the pack.
+	 * 
+	 * @param in
+	 *            The stream to read.
+	 * @param pack
+	 *            The pack to add the data to.
+	 * @param engine
+	 *            The parser to use.
+	 * @throws IOException
+	 *             If the stream could not be read or parsed.
+	 */
+	public static void addFromXMLStream(InputStream in, OsmDatapack pack,
+	        OsmXmlEngine engine) throws IOException {
+		if (engine == OsmXmlEngine.SCANNER) {
+			new OsmXmlScanner(in, pack).read();
+			return;
+		}
+
 		XMLReader xr;
 		try {
 			xr = XMLReaderFactory.createXMLReader();
@@ -126,8 +769,7 @@ public class OsmDatapack {
 		private final OsmDatapack pack;
 
 		// reused
-		private final LinkedList<OsmNode> currentWayNodes =
-		        new LinkedList<OsmNode>();
+		private final IntList currentWayNodes = new IntList();
 		// reused
 		private Properties tags = new Properties();
 		// reused
@@ -137,7 +779,7 @@ public class OsmDatapack {
 		private final LinkedList<OsmRoledNode> currentRelationNodes =
 		        new LinkedList<OsmRoledNode>();
 
-		private Integer currentWayOrRelationId;
+		private long currentWayOrRelationId;
 
 		private String currentNodeLat;
 
@@ -210,8 +852,8 @@ public class OsmDatapack {
 
 		private void loadIdByAttributes(Attributes attributes) {
 			String wayVal = attributes.getValue("id");
-			if (currentWayOrRelationId != null) {
-				currentWayOrRelationId = Integer.parseInt(wayVal);
+			if (wayVal != null) {
+				currentWayOrRelationId = Long.parseLong(wayVal);
 			} else {
 				currentWayOrRelationId = 0;
 			}
@@ -219,8 +861,8 @@ public class OsmDatapack {
 
 		private void wayEnded() {
 			if (currentWayNodes.size() >= 2) {
-				OsmWay way = new OsmWay(currentWayNodes, tags);
-				pack.addWay(currentWayOrRelationId, way);
+				pack.addWay(currentWayOrRelationId, currentWayNodes.toArray(),
+				        PackedTags.fromProperties(tags));
 			}
 		}
 
@@ -233,7 +875,8 @@ public class OsmDatapack {
 
 		private void relationEnded() {
 			pack.addRelation(currentWayOrRelationId, new OsmRelation(
-			        currentRelationNodes, currentRelationWays, tags));
+			        currentRelationNodes, currentRelationWays,
+			        PackedTags.fromProperties(tags)));
 
 		}
 
@@ -245,25 +888,28 @@ public class OsmDatapack {
 
 		private void nodeReferenceRead(Attributes attributes) {
 			String nodeid = attributes.getValue("ref");
-			OsmNode node =
-			        pack.getNode(Integer.valueOf(Integer.parseInt(nodeid)));
-			if (node != null) {
+			int node = pack.getWayNodeIndex(Long.parseLong(nodeid));
+			if (node != -1) {
 				currentWayNodes.add(node);
 			}
 		}
 
 		private void memberRead(Attributes attributes) {
-			int id = Integer.parseInt(attributes.getValue("ref"));
+			long id = Long.parseLong(attributes.getValue("ref"));
 			String role = attributes.getValue("role");
 			if (role == null) {
 				role = "";
 			}
 			if ("node".equals(attributes.getValue("type"))) {
-				OsmNode node = pack.getNode(Integer.valueOf(id));
-				currentRelationNodes.add(new OsmRoledNode(role, node));
+				OsmNode node = pack.getNode(id);
+				if (node != null) {
+					currentRelationNodes.add(new OsmRoledNode(role, node));
+				}
 			} else if ("way".equals(attributes.getValue("type"))) {
-				OsmWay way = pack.getWay(Integer.valueOf(id));
-				currentRelationWays.add(new OsmRoledWay(role, way));
+				OsmWay way = pack.getWay(id);
+				if (way != null) {
+					currentRelationWays.add(new OsmRoledWay(role, way));
+				}
 			}
 		}
 
@@ -278,8 +924,8 @@ public class OsmDatapack {
 			if (currentNodeLat != null && currentNodeLon != null) {
 				double lat = Double.parseDouble(currentNodeLat);
 				double lon = Double.parseDouble(currentNodeLon);
-				int id = Integer.parseInt(currentNodeId);
-				pack.addNode(id, new OsmNode(lat, lon, this.tags));
+				long id = Long.parseLong(currentNodeId);
+				pack.addNode(id, lat, lon, PackedTags.fromProperties(tags));
 			} else {
 				System.out.println("Node end for unstarted node.");
 			}
@@ -287,6 +933,10 @@ public class OsmDatapack {
 
 	}
 
+	void setCenter(LatLon center) {
+		this.center = center;
+	}
+
 	public LatLon getCenter() {
 		if (center == null) {
 			center = computeCenter();
@@ -298,16 +948,128 @@ public class OsmDatapack {
 		double latsum = 0;
 		double lonsum = 0;
 		int count = 0;
-		for (LatLonObject p : getNodes()) {
-			latsum += p.getLat();
-			lonsum += p.getLon();
+		for (int i = 0; i < nodes.size(); i++) {
+			latsum += nodes.getLat(i);
+			lonsum += nodes.getLon(i);
 			count++;
 		}
 		return new LatLon(latsum / count, lonsum / count);
 	}
 
+	OsmNodeStore getNodeStore() {
+		return nodes;
+	}
+
+	List<OsmWay> getWayList() {
+		return ways;
+	}
+
+	List<OsmRelation> getRelationList() {
+		return relations;
+	}
+
+	long[] getWayIds() {
+		return wayIndex.getKeysByValue(ways.size());
+	}
+
+	long[] getRelationIds() {
+		return relationIndex.getKeysByValue(relations.size());
+	}
+
+	/**
+	 * Writes a binary snapshot of this pack that can be opened with
+	 * {@link #openSnapshot(File)}.
+	 * 
+	 * @param file
+	 *            The file to write to.
+	 * @throws IOException
+	 */
+	public void writeSnapshot(File file) throws IOException {
+		OsmSnapshot.write(this, file, 0, 0);
+	}
+
+	/**
+	 * Opens a snapshot written by {@link #writeSnapshot(File)}.
+	 * <p>
+	 * The file is mapped into memory, so opening it does not need to read
+	 * all data. Nodes are read from the mapped file, ways and relations are
+	 * created when they are first accessed. Data can still be added to the
+	 * pack, but the file is never changed.
+	 * 
+	 * @param file
+	 *            The snapshot file.
+	 * @return The pack.
+	 * @throws IOException
+	 *             If the file is no valid snapshot.
+	 */
+	public static OsmDatapack openSnapshot(File file) throws IOException {
+		return OsmSnapshot.open(file);
+	}
+
+	/**
+	 * Reads an osm xml file, using a snapshot if the file was read before.
+	 * <p>
+	 * If the snapshot was written for a file with the same length and
+	 * modification time, it is opened instead of parsing the file. Otherwise,
+	 * or if the snapshot cannot be opened, the file is parsed and a new
+	 * snapshot is written.
+	 * 
+	 * @param file
+	 *            The osm file.
+	 * @param snapshot
+	 *            The snapshot file to use.
+	 * @return The pack.
+	 * @throws IOException
+	 */
+	public static OsmDatapack readFromXMLFileCached(File file, File snapshot)
+	        throws IOException {
+		long length = file.length();
+		long modified = file.lastModified();
+		if (OsmSnapshot.isSnapshotOf(snapshot, length, modified)) {
+			try {
+				return OsmSnapshot.open(snapshot);
+			} catch (IOException e) {
+				System.err.println("Could not open the snapshot, reading "
+				        + file + " again: " + e.getMessage());
+			} catch (RuntimeException e) {
+				// e.g. buffer exceptions for broken snapshots.
+				System.err.println("Could not open the snapshot, reading "
+				        + file + " again: " + e);
+			}
+		}
+		OsmDatapack pack = readFromXMLFile(file, OsmXmlEngine.SCANNER);
+		OsmSnapshot.write(pack, snapshot, length, modified);
+		return pack;
+	}
+
 	public static OsmDatapack createEmptyPack() {
-		return new OsmDatapack();
+		return new OsmDatapack(null);
+	}
+
+	/**
+	 * Creates a pack that only keeps the nodes accepted by the filter, and
+	 * the ways and relations that reference them, while data is read into
+	 * it.
+	 * <p>
+	 * The data is read in one pass, so ways that leave the area lose their
+	 * outside nodes, unless they are added with {@link #addAll(OsmDatapack)}.
+	 * Use {@link #readFromPbfFile(File, OsmImportFilter)} to keep them whole.
+	 * 
+	 * @param filter
+	 *            The filter to use.
+	 * @return The new, empty pack.
+	 */
+	public static OsmDatapack createEmptyPack(OsmImportFilter filter) {
+		if (filter == null) {
+			throw new NullPointerException();
+		}
+		return new OsmDatapack(filter);
+	}
+
+	private static OsmDatapack createTwoPassPack(OsmImportFilter filter) {
+		OsmDatapack pack = createEmptyPack(filter);
+		pack.border = new BorderNodes();
+		return pack;
 	}
 
 }
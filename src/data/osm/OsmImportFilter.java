@@ -0,0 +1,26 @@
+package data.osm;
+
+/**
+ * Decides which nodes are kept when osm data is read into a pack.
+ * <p>
+ * Ways and relations are only kept if they reference kept nodes. When a
+ * file is read in two passes, ways that are kept get all their nodes, also
+ * the rejected ones.
+ * 
+ * @see OsmDatapack#readFromPbfFile(java.io.File, OsmImportFilter)
+ * @see OsmDatapack#createEmptyPack(OsmImportFilter)
+ * @author michael
+ */
+public interface OsmImportFilter {
+	/**
+	 * Checks if a node should be kept. This may be called from multiple
+	 * threads.
+	 * 
+	 * @param lat
+	 *            The lat of the node.
+	 * @param lon
+	 *            The lon of the node.
+	 * @return <code>true</code> to keep the node.
+	 */
+	public boolean acceptNode(double lat, double lon);
+}
@@ -1,61 +1,122 @@
 package data.osm;
 
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Properties;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import data.position.local.LatLonObject;
 
+/**
+ * A node of a {@link OsmDatapack}.
+ * <p>
+ * This is only a view on the node store of the pack, so there may be more
+ * than one object for the same node. Use {@link #equals(Object)} to compare
+ * nodes.
+ */
 public class OsmNode implements Iterable<OsmWay>, LatLonObject, Propertyable {
 
-	private final double lat;
-	private final double lon;
-	private final SimpleProperties properties;
+	private final OsmNodeStore store;
+	private final int index;
 
-	private final List<OsmWay> ways = new LinkedList<OsmWay>();
-
-	public OsmNode(double lat, double lon, Properties properties) {
-		this(lat, lon, SimpleProperties.fromHashtable(properties));
-	}
-
-	public OsmNode(double lat, double lon, SimpleProperties properties) {
-		this.lat = lat;
-		this.lon = lon;
-		this.properties = properties;
+	OsmNode(OsmNodeStore store, int index) {
+		this.store = store;
+		this.index = index;
 	}
 
 	public double getLat() {
-		return lat;
+		return store.getLat(index);
 	}
 
 	public double getLon() {
-		return lon;
+		return store.getLon(index);
+	}
+
+	public long getId() {
+		return store.getId(index);
 	}
 
 	public String getProperty(String name) {
-		return properties.getProperty(name);
+		return store.getProperty(index, name);
 	}
 
-	protected void addWay(OsmWay way) {
-		synchronized (ways) {
-			ways.add(way);
-		}
+	@Override
+	public int getPropertyCode(int keyCode) {
+		return store.getPropertyCode(index, keyCode);
 	}
 
+	/**
+	 * Gets the ways this node is part of.
+	 */
 	@Override
 	public Iterator<OsmWay> iterator() {
-		return ways.iterator();
+		return new Iterator<OsmWay>() {
+			private final NodeAdjacency adjacency = store.getWayAdjacency();
+			private int link = adjacency.getStart(index);
+			private final int end = adjacency.getEnd(index);
+
+			@Override
+			public boolean hasNext() {
+				return link < end;
+			}
+
+			@Override
+			public OsmWay next() {
+				if (link >= end) {
+					throw new NoSuchElementException();
+				}
+				return store.getWay(adjacency.getElement(link++));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Gets the number of ways this node is part of. Nodes with more than one
+	 * way are junctions.
+	 */
+	public int getWayCount() {
+		return store.getWayCount(index);
 	}
 
 	@Override
-    public Set<String> getPropertyKeys() {
-	    return properties.getPropertyKeys();
-    }
+	public Set<String> getPropertyKeys() {
+		return store.getPropertyKeys(index);
+	}
 
 	public void addRelation(OsmRelation osmRelation) {
-	    // TODO Auto-generated method stub
-	    
-    }
+		// TODO Auto-generated method stub
+
+	}
+
+	int getIndex() {
+		return index;
+	}
+
+	OsmNodeStore getStore() {
+		return store;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof OsmNode) {
+			OsmNode other = (OsmNode) obj;
+			return other.store == store && other.index == index;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return index;
+	}
+
+	@Override
+	public String toString() {
+		return "OsmNode[id=" + getId() + "]";
+	}
 }
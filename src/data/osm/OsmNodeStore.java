@@ -0,0 +1,243 @@
+package data.osm;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores the nodes of a {@link OsmDatapack} in parallel primitive arrays.
+ * <p>
+ * Each node is identified by its index in this store. Coordinates are stored
+ * as fixed point integers (1e-7 degrees, the precision osm uses), tags are
+ * stored as {@link TagDictionary} code pairs in one big array and only
+ * referenced by offset.
+ * <p>
+ * This class is not synchronized.
+ * 
+ * @author michael
+ */
+class OsmNodeStore {
+	/**
+	 * Converts degrees to the fixed point representation.
+	 */
+	static final double FIXED_POINT_SCALE = 1e7;
+
+	private final LongIntIndex index = new LongIntIndex();
+
+	private long[] ids = new long[1024];
+	private int[] lats = new int[1024];
+	private int[] lons = new int[1024];
+	/**
+	 * The tags of node i are from tagStart[i] to tagStart[i + 1].
+	 */
+	private int[] tagStart = new int[1025];
+	private int[] tags = new int[256];
+	private int size = 0;
+
+	/**
+	 * The ways of the pack, used to resolve the way links.
+	 */
+	private final List<OsmWay> ways;
+	/**
+	 * The ways of every node, <code>null</code> if it needs to be built.
+	 */
+	private volatile NodeAdjacency wayAdjacency = null;
+
+	/**
+	 * Creates a new store.
+	 * 
+	 * @param ways
+	 *            The way list of the pack. The node to way links are built
+	 *            from it.
+	 */
+	public OsmNodeStore(List<OsmWay> ways) {
+		this.ways = ways;
+	}
+
+	/**
+	 * Adds a node to the store.
+	 * 
+	 * @param id
+	 *            The osm id.
+	 * @param lat
+	 *            The lat in degrees.
+	 * @param lon
+	 *            The lon in degrees.
+	 * @param keyvalues
+	 *            The tags, as key and value code pairs.
+	 * @return The index of the new node.
+	 */
+	public int add(long id, double lat, double lon, int[] keyvalues) {
+		if (size >= ids.length) {
+			int capacity = size * 2;
+			ids = Arrays.copyOf(ids, capacity);
+			lats = Arrays.copyOf(lats, capacity);
+			lons = Arrays.copyOf(lons, capacity);
+			tagStart = Arrays.copyOf(tagStart, capacity + 1);
+		}
+		int tagEnd = tagStart[size] + keyvalues.length;
+		if (tagEnd > tags.length) {
+			tags = Arrays.copyOf(tags, Math.max(tagEnd, tags.length * 2));
+		}
+		System.arraycopy(keyvalues, 0, tags, tagStart[size],
+		        keyvalues.length);
+
+		ids[size] = id;
+		lats[size] = toFixedPoint(lat);
+		lons[size] = toFixedPoint(lon);
+		tagStart[size + 1] = tagEnd;
+		index.put(id, size);
+		return size++;
+	}
+
+	static int toFixedPoint(double degrees) {
+		return (int) Math.round(degrees * FIXED_POINT_SCALE);
+	}
+
+	/**
+	 * Finds a node by id.
+	 * 
+	 * @param id
+	 *            The osm id
+	 * @return The index of the node or -1 if it is not stored.
+	 */
+	public int indexOf(long id) {
+		return index.get(id);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getId(int node) {
+		return ids[node];
+	}
+
+	public double getLat(int node) {
+		return getFixedLat(node) / FIXED_POINT_SCALE;
+	}
+
+	public double getLon(int node) {
+		return getFixedLon(node) / FIXED_POINT_SCALE;
+	}
+
+	/**
+	 * Gets the lat in the fixed point representation.
+	 */
+	public int getFixedLat(int node) {
+		return lats[node];
+	}
+
+	/**
+	 * Gets the lon in the fixed point representation.
+	 */
+	public int getFixedLon(int node) {
+		return lons[node];
+	}
+
+	public String getProperty(int node, String key) {
+		return PackedTags.getProperty(tags, tagStart[node], tagStart[node + 1],
+		        key);
+	}
+
+	public int getPropertyCode(int node, int keyCode) {
+		return PackedTags.getPropertyCode(tags, tagStart[node],
+		        tagStart[node + 1], keyCode);
+	}
+
+	public Set<String> getPropertyKeys(int node) {
+		return PackedTags.getPropertyKeys(tags, tagStart[node],
+		        tagStart[node + 1]);
+	}
+
+	/**
+	 * Gets the number of tag codes (two per tag) of a node.
+	 */
+	public int getTagCodeCount(int node) {
+		return tagStart[node + 1] - tagStart[node];
+	}
+
+	/**
+	 * Gets a tag code of a node.
+	 * 
+	 * @param node
+	 *            The node index
+	 * @param i
+	 *            The code index, from 0 to {@link #getTagCodeCount(int)} - 1.
+	 *            Even indexes are keys, odd indexes values.
+	 * @return The {@link TagDictionary} code.
+	 */
+	public int getTagCode(int node, int i) {
+		return tags[tagStart[node] + i];
+	}
+
+	/**
+	 * Notes that ways were added to the pack. The node to way adjacency is
+	 * built again when it is used the next time.
+	 */
+	public void invalidateWays() {
+		wayAdjacency = null;
+	}
+
+	/**
+	 * Gets a way of the pack.
+	 * 
+	 * @param way
+	 *            The way index, as stored in the adjacency.
+	 * @return The way.
+	 * @see #getWayAdjacency()
+	 */
+	OsmWay getWay(int way) {
+		return ways.get(way);
+	}
+
+	/**
+	 * Gets the number of ways the node is part of.
+	 */
+	public int getWayCount(int node) {
+		NodeAdjacency adjacency = getWayAdjacency();
+		return adjacency.getEnd(node) - adjacency.getStart(node);
+	}
+
+	/**
+	 * Gets the adjacency of all nodes. It is built from the ways in one pass
+	 * when it is first used after ways were added. Callers that read more
+	 * than one value should keep the returned adjacency, since it is replaced
+	 * when ways are added.
+	 */
+	NodeAdjacency getWayAdjacency() {
+		NodeAdjacency adjacency = wayAdjacency;
+		if (adjacency == null) {
+			synchronized (this) {
+				adjacency = wayAdjacency;
+				if (adjacency == null) {
+					adjacency = NodeAdjacency.build(size(), getWayElements());
+					wayAdjacency = adjacency;
+				}
+			}
+		}
+		return adjacency;
+	}
+
+	/**
+	 * Gets the ways as source for the adjacency.
+	 */
+	protected NodeAdjacency.Elements getWayElements() {
+		return new NodeAdjacency.Elements() {
+			@Override
+			public int getElementCount() {
+				return ways.size();
+			}
+
+			@Override
+			public int getNodeCount(int element) {
+				return ways.get(element).getNodeCount();
+			}
+
+			@Override
+			public int getNode(int element, int i) {
+				return ways.get(element).getNodeIndex(i);
+			}
+		};
+	}
+}
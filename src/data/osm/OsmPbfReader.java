@@ -0,0 +1,755 @@
+package data.osm;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import data.osm.OsmRelation.OsmRoledNode;
+import data.osm.OsmRelation.OsmRoledWay;
+import data.position.local.LatLon;
+
+/**
+ * Reads the osm pbf format (.osm.pbf) into a {@link OsmDatapack}.
+ * <p>
+ * The blobs of the file are read sequentially, but decompressing and decoding
+ * them is done in parallel. The decoded blocks are then added to the pack in
+ * file order, so that ways and relations can resolve the nodes and ways they
+ * reference.
+ * 
+ * @author michael
+ */
+class OsmPbfReader {
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+	private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+	private static final String[] SUPPORTED_FEATURES = new String[] {
+	        "OsmSchema-V0.6", "DenseNodes"
+	};
+
+	private final DataInputStream in;
+	private final OsmDatapack pack;
+	private final int threads;
+
+	public OsmPbfReader(InputStream in, OsmDatapack pack) {
+		this(in, pack, Runtime.getRuntime().availableProcessors());
+	}
+
+	public OsmPbfReader(InputStream in, OsmDatapack pack, int threads) {
+		this.in = new DataInputStream(in);
+		this.pack = pack;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Reads the whole stream and adds it to the pack.
+	 * 
+	 * @throws IOException
+	 *             If the stream could not be read or is not a valid pbf
+	 *             file.
+	 */
+	public void read() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// bounds the number of decoded blocks waiting in memory.
+		int maxPending = threads * 2;
+		LinkedList<Future<DecodedBlock>> pending =
+		        new LinkedList<Future<DecodedBlock>>();
+		try {
+			RawBlob blob;
+			while ((blob = readBlob()) != null) {
+				if ("OSMHeader".equals(blob.type)) {
+					readHeader(blob.decompress());
+				} else if ("OSMData".equals(blob.type)) {
+					pending.add(executor.submit(new BlockDecoder(blob)));
+					if (pending.size() >= maxPending) {
+						addToPack(pending.removeFirst().get());
+					}
+				}
+				// unknown blob types are to be skipped.
+			}
+			while (!pending.isEmpty()) {
+				addToPack(pending.removeFirst().get());
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else {
+				throw new IOException("Could not decode block", e.getCause());
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Reading pbf data interrupted");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the next blob header and the blob data.
+	 * 
+	 * @return The blob, or <code>null</code> at the end of the stream.
+	 * @throws IOException
+	 */
+	private RawBlob readBlob() throws IOException {
+		int headerLength;
+		try {
+			headerLength = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (headerLength < 0 || headerLength > MAX_HEADER_SIZE) {
+			throw new IOException("Invalid blob header size: " + headerLength);
+		}
+		byte[] header = new byte[headerLength];
+		in.readFully(header);
+
+		String type = null;
+		int dataSize = -1;
+		ProtobufInput headerInput = new ProtobufInput(header);
+		while (headerInput.hasMore()) {
+			int tag = headerInput.readTag();
+			switch (ProtobufInput.getField(tag)) {
+				case 1:
+					type = headerInput.readString();
+					break;
+				case 3:
+					dataSize = headerInput.readVarint32();
+					break;
+				default:
+					headerInput.skipField(tag);
+			}
+		}
+		if (type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+			throw new IOException("Invalid blob header");
+		}
+
+		byte[] data = new byte[dataSize];
+		in.readFully(data);
+		return new RawBlob(type, data);
+	}
+
+	private void readHeader(byte[] data) throws IOException {
+		ProtobufInput input = new ProtobufInput(data);
+		while (input.hasMore()) {
+			int tag = input.readTag();
+			switch (ProtobufInput.getField(tag)) {
+				case 1:
+					readHeaderBounds(input.readMessage());
+					break;
+				case 4:
+					String feature = input.readString();
+					if (!Arrays.asList(SUPPORTED_FEATURES).contains(feature)) {
+						throw new IOException("Unsupported pbf feature: "
+						        + feature);
+					}
+					break;
+				default:
+					input.skipField(tag);
+			}
+		}
+	}
+
+	private void readHeaderBounds(ProtobufInput input) throws IOException {
+		long left = 0, right = 0, top = 0, bottom = 0;
+		while (input.hasMore()) {
+			int tag = input.readTag();
+			switch (ProtobufInput.getField(tag)) {
+				case 1:
+					left = input.readSInt64();
+					break;
+				case 2:
+					right = input.readSInt64();
+					break;
+				case 3:
+					top = input.readSInt64();
+					break;
+				case 4:
+					bottom = input.readSInt64();
+					break;
+				default:
+					input.skipField(tag);
+			}
+		}
+		double lat = (top + bottom) / 2 * 1e-9;
+		double lon = (left + right) / 2 * 1e-9;
+		pack.setCenter(new LatLon(lat, lon));
+	}
+
+	/**
+	 * Adds the block to the pack. This is always called in file order.
+	 * 
+	 * @param block
+	 *            The block
+	 */
+	private void addToPack(DecodedBlock block) {
+		for (int i = 0; i < block.nodeCount; i++) {
+			pack.addNode(block.nodeIds[i], block.nodeLats[i],
+			        block.nodeLons[i], block.nodeTags[i]);
+		}
+
+		IntList wayNodes = new IntList();
+		for (DecodedWay way : block.ways) {
+			wayNodes.clear();
+			for (long ref : way.refs) {
+				int node = pack.getWayNodeIndex(ref);
+				if (node != -1) {
+					wayNodes.add(node);
+				}
+			}
+			if (wayNodes.size() >= 2) {
+				pack.addWay(way.id, wayNodes.toArray(), way.tags);
+			}
+		}
+
+		LinkedList<OsmRoledNode> relationNodes =
+		        new LinkedList<OsmRoledNode>();
+		LinkedList<OsmRoledWay> relationWays = new LinkedList<OsmRoledWay>();
+		for (DecodedRelation relation : block.relations) {
+			relationNodes.clear();
+			relationWays.clear();
+			for (int i = 0; i < relation.memberIds.length; i++) {
+				long id = relation.memberIds[i];
+				String role = relation.roles[i];
+				if (relation.types[i] == MEMBER_NODE) {
+					OsmNode node = pack.getNode(id);
+					if (node != null) {
+						relationNodes.add(new OsmRoledNode(role, node));
+					}
+				} else if (relation.types[i] == MEMBER_WAY) {
+					OsmWay way = pack.getWay(id);
+					if (way != null) {
+						relationWays.add(new OsmRoledWay(role, way));
+					}
+				}
+			}
+			pack.addRelation(relation.id, new OsmRelation(
+			        relationNodes, relationWays, relation.tags));
+		}
+	}
+
+	private static class RawBlob {
+		private final String type;
+		private final byte[] data;
+
+		private RawBlob(String type, byte[] data) {
+			this.type = type;
+			this.data = data;
+		}
+
+		/**
+		 * Gets the uncompressed content of the blob.
+		 * 
+		 * @return The content
+		 * @throws IOException
+		 */
+		private byte[] decompress() throws IOException {
+			byte[] raw = null;
+			byte[] zlib = null;
+			int rawSize = -1;
+			ProtobufInput input = new ProtobufInput(data);
+			while (input.hasMore()) {
+				int tag = input.readTag();
+				switch (ProtobufInput.getField(tag)) {
+					case 1:
+						raw = input.readBytes();
+						break;
+					case 2:
+						rawSize = input.readVarint32();
+						break;
+					case 3:
+						zlib = input.readBytes();
+						break;
+					default:
+						// lzma and others.
+						input.skipField(tag);
+				}
+			}
+
+			if (raw != null) {
+				return raw;
+			} else if (zlib != null && rawSize >= 0) {
+				return inflate(zlib, rawSize);
+			} else {
+				throw new IOException("Unsupported blob compression");
+			}
+		}
+
+		private static byte[] inflate(byte[] zlib, int rawSize)
+		        throws IOException {
+			byte[] result = new byte[rawSize];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(zlib);
+				int inflated = 0;
+				while (inflated < rawSize && !inflater.finished()) {
+					int read =
+					        inflater.inflate(result, inflated, rawSize
+					                - inflated);
+					if (read == 0 && inflater.needsInput()) {
+						break;
+					}
+					inflated += read;
+				}
+				if (inflated != rawSize) {
+					throw new IOException("Blob has a wrong size");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Blob data is corrupted", e);
+			} finally {
+				inflater.end();
+			}
+			return result;
+		}
+	}
+
+	private static final int MEMBER_NODE = 0;
+	private static final int MEMBER_WAY = 1;
+
+	private static class DecodedWay {
+		private final long id;
+		private final long[] refs;
+		private final int[] tags;
+
+		private DecodedWay(long id, long[] refs, int[] tags) {
+			this.id = id;
+			this.refs = refs;
+			this.tags = tags;
+		}
+	}
+
+	private static class DecodedRelation {
+		private final long id;
+		private final long[] memberIds;
+		private final int[] types;
+		private final String[] roles;
+		private final int[] tags;
+
+		private DecodedRelation(long id, long[] memberIds, int[] types,
+		        String[] roles, int[] tags) {
+			this.id = id;
+			this.memberIds = memberIds;
+			this.types = types;
+			this.roles = roles;
+			this.tags = tags;
+		}
+	}
+
+	/**
+	 * The content of a primitive block, ready to be added to the pack.
+	 */
+	private static class DecodedBlock {
+		private long[] nodeIds = new long[256];
+		private double[] nodeLats = new double[256];
+		private double[] nodeLons = new double[256];
+		private int[][] nodeTags = new int[256][];
+		private int nodeCount = 0;
+		private final List<DecodedWay> ways = new ArrayList<DecodedWay>();
+		private final List<DecodedRelation> relations =
+		        new ArrayList<DecodedRelation>();
+
+		private void addNode(long id, double lat, double lon, int[] tags) {
+			if (nodeCount >= nodeIds.length) {
+				nodeIds = Arrays.copyOf(nodeIds, nodeCount * 2);
+				nodeLats = Arrays.copyOf(nodeLats, nodeCount * 2);
+				nodeLons = Arrays.copyOf(nodeLons, nodeCount * 2);
+				nodeTags = Arrays.copyOf(nodeTags, nodeCount * 2);
+			}
+			nodeIds[nodeCount] = id;
+			nodeLats[nodeCount] = lat;
+			nodeLons[nodeCount] = lon;
+			nodeTags[nodeCount] = tags;
+			nodeCount++;
+		}
+	}
+
+	/**
+	 * Decompresses and decodes one primitive block. This runs in parallel
+	 * for multiple blocks, so it must not access the pack.
+	 */
+	private static class BlockDecoder implements Callable<DecodedBlock> {
+		private final RawBlob blob;
+
+		private String[] strings;
+		/**
+		 * The dictionary codes of the strings, looked up when first used.
+		 */
+		private int[] stringCodes;
+		private long granularity = 100;
+		private long latOffset = 0;
+		private long lonOffset = 0;
+
+		private final DecodedBlock block = new DecodedBlock();
+
+		private BlockDecoder(RawBlob blob) {
+			this.blob = blob;
+		}
+
+		@Override
+		public DecodedBlock call() throws IOException {
+			byte[] data = blob.decompress();
+
+			// the string table and the offsets are needed before the groups.
+			List<ProtobufInput> groups = new ArrayList<ProtobufInput>();
+			ProtobufInput input = new ProtobufInput(data);
+			while (input.hasMore()) {
+				int tag = input.readTag();
+				switch (ProtobufInput.getField(tag)) {
+					case 1:
+						strings = readStringTable(input.readMessage());
+						break;
+					case 2:
+						groups.add(input.readMessage());
+						break;
+					case 17:
+						granularity = input.readVarint32();
+						break;
+					case 19:
+						latOffset = input.readVarint64();
+						break;
+					case 20:
+						lonOffset = input.readVarint64();
+						break;
+					default:
+						input.skipField(tag);
+				}
+			}
+			if (strings == null) {
+				strings = new String[0];
+			}
+			stringCodes = new int[strings.length];
+			Arrays.fill(stringCodes, TagDictionary.NONE);
+
+			for (ProtobufInput group : groups) {
+				readGroup(group);
+			}
+			return block;
+		}
+
+		private static String[] readStringTable(ProtobufInput input)
+		        throws IOException {
+			List<String> strings = new ArrayList<String>();
+			while (input.hasMore()) {
+				int tag = input.readTag();
+				if (ProtobufInput.getField(tag) == 1) {
+					strings.add(input.readString());
+				} else {
+					input.skipField(tag);
+				}
+			}
+			return strings.toArray(new String[strings.size()]);
+		}
+
+		private void readGroup(ProtobufInput input) throws IOException {
+			while (input.hasMore()) {
+				int tag = input.readTag();
+				switch (ProtobufInput.getField(tag)) {
+					case 1:
+						readNode(input.readMessage());
+						break;
+					case 2:
+						readDenseNodes(input.readMessage());
+						break;
+					case 3:
+						readWay(input.readMessage());
+						break;
+					case 4:
+						readRelation(input.readMessage());
+						break;
+					default:
+						input.skipField(tag);
+				}
+			}
+		}
+
+		private double toLat(long lat) {
+			return (latOffset + granularity * lat) * 1e-9;
+		}
+
+		private double toLon(long lon) {
+			return (lonOffset + granularity * lon) * 1e-9;
+		}
+
+		private String getString(int index) throws IOException {
+			if (index < 0 || index >= strings.length) {
+				throw new IOException("String table index out of range");
+			}
+			return strings[index];
+		}
+
+		private int getCode(int index) throws IOException {
+			if (index < 0 || index >= strings.length) {
+				throw new IOException("String table index out of range");
+			}
+			int code = stringCodes[index];
+			if (code == TagDictionary.NONE) {
+				code = TagDictionary.getCode(strings[index]);
+				stringCodes[index] = code;
+			}
+			return code;
+		}
+
+		private void readNode(ProtobufInput input) throws IOException {
+			long id = 0;
+			long lat = 0;
+			long lon = 0;
+			LongList keys = new LongList();
+			LongList values = new LongList();
+			while (input.hasMore()) {
+				int tag = input.readTag();
+				switch (ProtobufInput.getField(tag)) {
+					case 1:
+						id = input.readSInt64();
+						break;
+					case 2:
+						keys.readUnsigned(input, tag);
+						break;
+					case 3:
+						values.readUnsigned(input, tag);
+						break;
+					case 8:
+						lat = input.readSInt64();
+						break;
+					case 9:
+						lon = input.readSInt64();
+						break;
+					default:
+						input.skipField(tag);
+				}
+			}
+			block.addNode(id, toLat(lat), toLon(lon), getTags(keys, values));
+		}
+
+		private void readDenseNodes(ProtobufInput input) throws IOException {
+			LongList ids = new LongList();
+			LongList lats = new LongList();
+			LongList lons = new LongList();
+			LongList keyvals = new LongList();
+			while (input.hasMore()) {
+				int tag = input.readTag();
+				switch (ProtobufInput.getField(tag)) {
+					case 1:
+						ids.readSigned(input, tag);
+						break;
+					case 8:
+						lats.readSigned(input, tag);
+						break;
+					case 9:
+						lons.readSigned(input, tag);
+						break;
+					case 10:
+						keyvals.readUnsigned(input, tag);
+						break;
+					default:
+						input.skipField(tag);
+				}
+			}
+			if (lats.size() != ids.size() || lons.size() != ids.size()) {
+				throw new IOException("Dense nodes have inconsistent sizes");
+			}
+
+			long id = 0;
+			long lat = 0;
+			long lon = 0;
+			int keyvalIndex = 0;
+			for (int i = 0; i < ids.size(); i++) {
+				id += ids.get(i);
+				lat += lats.get(i);
+				lon += lons.get(i);
+
+				int tagStart = keyvalIndex;
+				while (keyvalIndex < keyvals.size()) {
+					int key = (int) keyvals.get(keyvalIndex++);
+					if (key == 0) {
+						break;
+					}
+					if (keyvalIndex >= keyvals.size()) {
+						throw new IOException("Dense node tag without value");
+					}
+					keyvalIndex++;
+				}
+				block.addNode(id, toLat(lat), toLon(lon),
+				        getDenseTags(keyvals, tagStart, keyvalIndex));
+			}
+		}
+
+		private void readWay(ProtobufInput input) throws IOException {
+			long id = 0;
+			LongList keys = new LongList();
+			LongList values = new LongList();
+			LongList refs = new LongList();
+			while (input.hasMore()) {
+				int tag = input.readTag();
+				switch (ProtobufInput.getField(tag)) {
+					case 1:
+						id = input.readVarint64();
+						break;
+					case 2:
+						keys.readUnsigned(input, tag);
+						break;
+					case 3:
+						values.readUnsigned(input, tag);
+						break;
+					case 8:
+						refs.readSigned(input, tag);
+						break;
+					default:
+						input.skipField(tag);
+				}
+			}
+			long[] nodeIds = new long[refs.size()];
+			long ref = 0;
+			for (int i = 0; i < nodeIds.length; i++) {
+				ref += refs.get(i);
+				nodeIds[i] = ref;
+			}
+			block.ways.add(new DecodedWay(id, nodeIds, getTags(keys, values)));
+		}
+
+		private void readRelation(ProtobufInput input) throws IOException {
+			long id = 0;
+			LongList keys = new LongList();
+			LongList values = new LongList();
+			LongList roles = new LongList();
+			LongList memberIds = new LongList();
+			LongList types = new LongList();
+			while (input.hasMore()) {
+				int tag = input.readTag();
+				switch (ProtobufInput.getField(tag)) {
+					case 1:
+						id = input.readVarint64();
+						break;
+					case 2:
+						keys.readUnsigned(input, tag);
+						break;
+					case 3:
+						values.readUnsigned(input, tag);
+						break;
+					case 8:
+						roles.readUnsigned(input, tag);
+						break;
+					case 9:
+						memberIds.readSigned(input, tag);
+						break;
+					case 10:
+						types.readUnsigned(input, tag);
+						break;
+					default:
+						input.skipField(tag);
+				}
+			}
+			int count = memberIds.size();
+			if (roles.size() != count || types.size() != count) {
+				throw new IOException("Relation members are inconsistent");
+			}
+			long[] ids = new long[count];
+			int[] memberTypes = new int[count];
+			String[] memberRoles = new String[count];
+			long memberId = 0;
+			for (int i = 0; i < count; i++) {
+				memberId += memberIds.get(i);
+				ids[i] = memberId;
+				memberTypes[i] = (int) types.get(i);
+				memberRoles[i] = getString((int) roles.get(i));
+			}
+			block.relations.add(new DecodedRelation(id, ids, memberTypes,
+			        memberRoles, getTags(keys, values)));
+		}
+
+		private int[] getTags(LongList keys, LongList values)
+		        throws IOException {
+			if (keys.size() != values.size()) {
+				throw new IOException("Different number of keys and values");
+			}
+			if (keys.size() == 0) {
+				return PackedTags.EMPTY;
+			}
+			int[] tags = new int[keys.size() * 2];
+			for (int i = 0; i < keys.size(); i++) {
+				tags[2 * i] = getCode((int) keys.get(i));
+				tags[2 * i + 1] = getCode((int) values.get(i));
+			}
+			return tags;
+		}
+
+		/**
+		 * Gets the tags of a dense node.
+		 * 
+		 * @param keyvals
+		 *            The keys_vals list
+		 * @param start
+		 *            The first key of the node.
+		 * @param end
+		 *            The index after the last value or the 0 delimiter.
+		 */
+		private int[] getDenseTags(LongList keyvals, int start, int end)
+		        throws IOException {
+			int count = (end - start) & ~1;
+			if (count == 0) {
+				return PackedTags.EMPTY;
+			}
+			int[] tags = new int[count];
+			for (int i = 0; i < count; i++) {
+				tags[i] = getCode((int) keyvals.get(start + i));
+			}
+			return tags;
+		}
+	}
+
+	/**
+	 * A growable list of longs that can read (packed) repeated fields.
+	 */
+	private static class LongList {
+		private long[] values = new long[16];
+		private int size = 0;
+
+		private void add(long value) {
+			if (size >= values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		private long get(int index) {
+			return values[index];
+		}
+
+		private int size() {
+			return size;
+		}
+
+		private void readUnsigned(ProtobufInput input, int tag)
+		        throws IOException {
+			if (ProtobufInput.getWireType(tag) == ProtobufInput.WIRETYPE_LENGTH_DELIMITED) {
+				ProtobufInput packed = input.readMessage();
+				while (packed.hasMore()) {
+					add(packed.readVarint64());
+				}
+			} else {
+				add(input.readVarint64());
+			}
+		}
+
+		private void readSigned(ProtobufInput input, int tag)
+		        throws IOException {
+			if (ProtobufInput.getWireType(tag) == ProtobufInput.WIRETYPE_LENGTH_DELIMITED) {
+				ProtobufInput packed = input.readMessage();
+				while (packed.hasMore()) {
+					add(packed.readSInt64());
+				}
+			} else {
+				add(input.readSInt64());
+			}
+		}
+	}
+}
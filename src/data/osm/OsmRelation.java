@@ -8,15 +8,23 @@ import java.util.Set;
 public class OsmRelation implements Propertyable {
 	LinkedList<OsmRoledNode> nodes = new LinkedList<OsmRoledNode>();
 	LinkedList<OsmRoledWay> ways = new LinkedList<OsmRoledWay>();
-	Properties properties = new Properties();
+	/**
+	 * The tags as {@link TagDictionary} code pairs.
+	 */
+	private final int[] tags;
 
 	// currently unsupported: parent relations
 
 	public OsmRelation(LinkedList<OsmRoledNode> nodes,
 	        LinkedList<OsmRoledWay> ways, Properties tags) {
+		this(nodes, ways, PackedTags.fromProperties(tags));
+	}
+
+	OsmRelation(LinkedList<OsmRoledNode> nodes, LinkedList<OsmRoledWay> ways,
+	        int[] tags) {
 		this.nodes.addAll(nodes);
 		this.ways.addAll(ways);
-		properties.putAll(tags);
+		this.tags = tags;
 	}
 
 	public Collection<OsmRoledNode> getNodes() {
@@ -29,12 +37,24 @@ public class OsmRelation implements Propertyable {
 
 	@Override
 	public String getProperty(String name) {
-		return properties.getProperty(name);
+		return PackedTags.getProperty(tags, 0, tags.length, name);
+	}
+
+	@Override
+	public int getPropertyCode(int keyCode) {
+		return PackedTags.getPropertyCode(tags, 0, tags.length, keyCode);
+	}
+
+	/**
+	 * Gets the packed tags. The array must not be modified.
+	 */
+	int[] getTags() {
+		return tags;
 	}
 
 	@Override
 	public Set<String> getPropertyKeys() {
-		return properties.stringPropertyNames();
+		return PackedTags.getPropertyKeys(tags, 0, tags.length);
 	}
 
 	/**
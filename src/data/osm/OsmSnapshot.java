@@ -0,0 +1,559 @@
+package data.osm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import data.osm.OsmRelation.OsmRoledNode;
+import data.osm.OsmRelation.OsmRoledWay;
+import data.position.local.LatLon;
+
+/**
+ * Reads and writes binary snapshots of a {@link OsmDatapack}.
+ * <p>
+ * A snapshot is a file with a header followed by the sections:
+ * <ul>
+ * <li>the tag dictionary, as length prefixed UTF-8 strings.</li>
+ * <li>the nodes: ids, fixed point lats and lons and the tags.</li>
+ * <li>the ways: ids, node index arrays and the tags.</li>
+ * <li>the relations: ids, members (type, index, role) and the tags.</li>
+ * </ul>
+ * All tags are stored as code pairs, the codes refer to the dictionary of
+ * the snapshot. Every section starts at a multiple of 8 bytes.
+ * <p>
+ * Snapshots are opened by mapping the file into memory. The nodes are read
+ * directly from the mapped file, ways and relations are only created when
+ * they are accessed. The whole snapshot needs to be smaller than 2GB.
+ * 
+ * @author michael
+ */
+class OsmSnapshot {
+	private static final long MAGIC = 0x4f534d534e415031L; // "OSMSNAP1"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 88;
+
+	private static final int MEMBER_NODE = 0;
+	private static final int MEMBER_WAY = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private OsmSnapshot() {
+	}
+
+	/**
+	 * Writes a snapshot of the pack.
+	 * 
+	 * @param pack
+	 *            The pack
+	 * @param file
+	 *            The file to write to. It is replaced once the snapshot is
+	 *            complete, so readers never see a partial file.
+	 * @param sourceLength
+	 *            The length of the file the data was read from, 0 if unknown.
+	 * @param sourceModified
+	 *            The modification time of that file, 0 if unknown.
+	 * @throws IOException
+	 */
+	public static void write(OsmDatapack pack, File file, long sourceLength,
+	        long sourceModified) throws IOException {
+		OsmNodeStore nodes = pack.getNodeStore();
+		List<OsmWay> ways = pack.getWayList();
+		List<OsmRelation> relations = pack.getRelationList();
+
+		IdentityHashMap<OsmWay, Integer> wayIndexes =
+		        new IdentityHashMap<OsmWay, Integer>();
+		int wayNodeCount = 0;
+		int wayTagCount = 0;
+		for (int i = 0; i < ways.size(); i++) {
+			OsmWay way = ways.get(i);
+			wayIndexes.put(way, i);
+			wayNodeCount += way.getNodeCount();
+			wayTagCount += way.getTags().length;
+		}
+		int nodeTagCount = 0;
+		for (int i = 0; i < nodes.size(); i++) {
+			nodeTagCount += nodes.getTagCodeCount(i);
+		}
+		int memberCount = 0;
+		int relationTagCount = 0;
+		for (OsmRelation relation : relations) {
+			memberCount += relation.getNodes().size();
+			memberCount += relation.getWays().size();
+			relationTagCount += relation.getTags().length;
+			// roles need to be in the dictionary before it is written.
+			for (OsmRoledNode node : relation.getNodes()) {
+				TagDictionary.getCode(node.getRole());
+			}
+			for (OsmRoledWay way : relation.getWays()) {
+				TagDictionary.getCode(way.getRole());
+			}
+		}
+		int dictionarySize = TagDictionary.size();
+		LatLon center = pack.getCenter();
+
+		File temp =
+		        File.createTempFile(file.getName(), ".tmp", file
+		                .getAbsoluteFile().getParentFile());
+		boolean written = false;
+		DataOutputStream out =
+		        new DataOutputStream(new BufferedOutputStream(
+		                new FileOutputStream(temp), 64 * 1024));
+		try {
+			out.writeLong(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(0);
+			out.writeLong(sourceLength);
+			out.writeLong(sourceModified);
+			out.writeDouble(center.getLat());
+			out.writeDouble(center.getLon());
+			out.writeInt(dictionarySize);
+			out.writeInt(nodes.size());
+			out.writeInt(nodeTagCount);
+			out.writeInt(ways.size());
+			out.writeInt(wayNodeCount);
+			out.writeInt(wayTagCount);
+			out.writeInt(relations.size());
+			out.writeInt(memberCount);
+			out.writeInt(relationTagCount);
+			pad(out);
+
+			for (int i = 0; i < dictionarySize; i++) {
+				byte[] bytes = TagDictionary.getString(i).getBytes(UTF8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			pad(out);
+
+			writeNodes(out, nodes);
+			writeWays(out, ways, pack.getWayIds());
+			writeRelations(out, relations, pack.getRelationIds(), wayIndexes);
+			out.close();
+			written = true;
+		} finally {
+			if (!written) {
+				try {
+					out.close();
+				} finally {
+					temp.delete();
+				}
+			}
+		}
+
+		// a rename keeps mappings of the old file valid.
+		if (!temp.renameTo(file)) {
+			// some systems do not replace existing files.
+			file.delete();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Could not move the snapshot to " + file);
+			}
+		}
+	}
+
+	private static void writeNodes(DataOutputStream out, OsmNodeStore nodes)
+	        throws IOException {
+		int count = nodes.size();
+		for (int i = 0; i < count; i++) {
+			out.writeLong(nodes.getId(i));
+		}
+		for (int i = 0; i < count; i++) {
+			out.writeInt(nodes.getFixedLat(i));
+		}
+		for (int i = 0; i < count; i++) {
+			out.writeInt(nodes.getFixedLon(i));
+		}
+		int tagStart = 0;
+		out.writeInt(tagStart);
+		for (int i = 0; i < count; i++) {
+			tagStart += nodes.getTagCodeCount(i);
+			out.writeInt(tagStart);
+		}
+		for (int i = 0; i < count; i++) {
+			int tagCount = nodes.getTagCodeCount(i);
+			for (int j = 0; j < tagCount; j++) {
+				out.writeInt(nodes.getTagCode(i, j));
+			}
+		}
+		pad(out);
+	}
+
+	private static void writeWays(DataOutputStream out, List<OsmWay> ways,
+	        long[] ids) throws IOException {
+		for (long id : ids) {
+			out.writeLong(id);
+		}
+		int nodeStart = 0;
+		out.writeInt(nodeStart);
+		for (OsmWay way : ways) {
+			nodeStart += way.getNodeCount();
+			out.writeInt(nodeStart);
+		}
+		for (OsmWay way : ways) {
+			for (int i = 0; i < way.getNodeCount(); i++) {
+				out.writeInt(way.getNodeIndex(i));
+			}
+		}
+		int tagStart = 0;
+		out.writeInt(tagStart);
+		for (OsmWay way : ways) {
+			tagStart += way.getTags().length;
+			out.writeInt(tagStart);
+		}
+		for (OsmWay way : ways) {
+			for (int tag : way.getTags()) {
+				out.writeInt(tag);
+			}
+		}
+		pad(out);
+	}
+
+	private static void writeRelations(DataOutputStream out,
+	        List<OsmRelation> relations, long[] ids,
+	        IdentityHashMap<OsmWay, Integer> wayIndexes) throws IOException {
+		for (long id : ids) {
+			out.writeLong(id);
+		}
+		int memberStart = 0;
+		out.writeInt(memberStart);
+		for (OsmRelation relation : relations) {
+			memberStart +=
+			        relation.getNodes().size() + relation.getWays().size();
+			out.writeInt(memberStart);
+		}
+		for (OsmRelation relation : relations) {
+			for (int i = 0; i < relation.getNodes().size(); i++) {
+				out.writeInt(MEMBER_NODE);
+			}
+			for (int i = 0; i < relation.getWays().size(); i++) {
+				out.writeInt(MEMBER_WAY);
+			}
+		}
+		for (OsmRelation relation : relations) {
+			for (OsmRoledNode node : relation.getNodes()) {
+				out.writeInt(node.getNode().getIndex());
+			}
+			for (OsmRoledWay way : relation.getWays()) {
+				out.writeInt(wayIndexes.get(way.getWay()));
+			}
+		}
+		for (OsmRelation relation : relations) {
+			for (OsmRoledNode node : relation.getNodes()) {
+				out.writeInt(TagDictionary.findCode(node.getRole()));
+			}
+			for (OsmRoledWay way : relation.getWays()) {
+				out.writeInt(TagDictionary.findCode(way.getRole()));
+			}
+		}
+		int tagStart = 0;
+		out.writeInt(tagStart);
+		for (OsmRelation relation : relations) {
+			tagStart += relation.getTags().length;
+			out.writeInt(tagStart);
+		}
+		for (OsmRelation relation : relations) {
+			for (int tag : relation.getTags()) {
+				out.writeInt(tag);
+			}
+		}
+		pad(out);
+	}
+
+	private static void pad(DataOutputStream out) throws IOException {
+		while (out.size() % 8 != 0) {
+			out.writeByte(0);
+		}
+	}
+
+	/**
+	 * Checks if a snapshot file was written for the given source.
+	 * 
+	 * @return <code>true</code> if the snapshot exists and the source length
+	 *         and modification time match.
+	 */
+	public static boolean isSnapshotOf(File snapshot, long sourceLength,
+	        long sourceModified) {
+		if (!snapshot.isFile() || snapshot.length() < HEADER_SIZE) {
+			return false;
+		}
+		try {
+			RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+			try {
+				return file.readLong() == MAGIC && file.readInt() == VERSION
+				        && file.readInt() == 0
+				        && file.readLong() == sourceLength
+				        && file.readLong() == sourceModified;
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Opens a snapshot.
+	 * 
+	 * @param snapshot
+	 *            The snapshot file.
+	 * @return A pack that reads its data from the file.
+	 * @throws IOException
+	 *             If the file could not be mapped or is no valid snapshot.
+	 */
+	public static OsmDatapack open(File snapshot) throws IOException {
+		MappedByteBuffer buffer;
+		RandomAccessFile file = new RandomAccessFile(snapshot, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Snapshot is too big to be mapped.");
+			}
+			// the mapping stays valid after the channel is closed.
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+			        channel.size());
+		} finally {
+			file.close();
+		}
+		return open(buffer);
+	}
+
+	private static OsmDatapack open(ByteBuffer buffer) throws IOException {
+		if (buffer.limit() < HEADER_SIZE || buffer.getLong(0) != MAGIC) {
+			throw new IOException("Not an osm snapshot.");
+		}
+		if (buffer.getInt(8) != VERSION) {
+			throw new IOException("Unsupported snapshot version "
+			        + buffer.getInt(8));
+		}
+		LatLon center = new LatLon(buffer.getDouble(32), buffer.getDouble(40));
+		int dictionarySize = buffer.getInt(48);
+		int nodeCount = buffer.getInt(52);
+		int nodeTagCount = buffer.getInt(56);
+		int wayCount = buffer.getInt(60);
+		int wayNodeCount = buffer.getInt(64);
+		int wayTagCount = buffer.getInt(68);
+		int relationCount = buffer.getInt(72);
+		int memberCount = buffer.getInt(76);
+		int relationTagCount = buffer.getInt(80);
+
+		SectionReader reader = new SectionReader(buffer, HEADER_SIZE);
+		int[] codes = reader.readDictionary(dictionarySize);
+
+		LongBuffer nodeIds = reader.longs(nodeCount);
+		IntBuffer lats = reader.ints(nodeCount);
+		IntBuffer lons = reader.ints(nodeCount);
+		IntBuffer nodeTagStart = reader.ints(nodeCount + 1);
+		IntBuffer nodeTags = reader.ints(nodeTagCount);
+		reader.align();
+
+		LongBuffer wayIds = reader.longs(wayCount);
+		IntBuffer wayNodeStart = reader.ints(wayCount + 1);
+		IntBuffer wayNodes = reader.ints(wayNodeCount);
+		IntBuffer wayTagStart = reader.ints(wayCount + 1);
+		IntBuffer wayTags = reader.ints(wayTagCount);
+		reader.align();
+
+		LongBuffer relationIds = reader.longs(relationCount);
+		IntBuffer memberStart = reader.ints(relationCount + 1);
+		IntBuffer memberTypes = reader.ints(memberCount);
+		IntBuffer memberIndexes = reader.ints(memberCount);
+		IntBuffer memberRoles = reader.ints(memberCount);
+		IntBuffer relationTagStart = reader.ints(relationCount + 1);
+		IntBuffer relationTags = reader.ints(relationTagCount);
+
+		SnapshotWayList ways =
+		        new SnapshotWayList(wayNodeStart, wayNodes, wayTagStart,
+		                wayTags, codes);
+		MappedNodeStore nodes =
+		        new MappedNodeStore(ways, nodeIds, lats, lons, nodeTagStart,
+		                nodeTags, codes, wayNodeStart, wayNodes);
+		ways.setStore(nodes);
+		SnapshotRelationList relations =
+		        new SnapshotRelationList(memberStart, memberTypes,
+		                memberIndexes, memberRoles, relationTagStart,
+		                relationTags, codes, nodes, ways);
+
+		return new OsmDatapack(nodes, ways, createIndex(wayIds), relations,
+		        createIndex(relationIds), center);
+	}
+
+	private static LongIntIndex createIndex(LongBuffer ids) {
+		LongIntIndex index = new LongIntIndex(ids.limit());
+		for (int i = 0; i < ids.limit(); i++) {
+			index.put(ids.get(i), i);
+		}
+		return index;
+	}
+
+	/**
+	 * Reads the tags of an element and converts them to
+	 * {@link TagDictionary} codes.
+	 */
+	private static int[] getTags(IntBuffer tagStart, IntBuffer tags,
+	        int[] codes, int index) {
+		int start = tagStart.get(index);
+		int length = tagStart.get(index + 1) - start;
+		if (length == 0) {
+			return PackedTags.EMPTY;
+		}
+		int[] result = new int[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = codes[tags.get(start + i)];
+		}
+		return result;
+	}
+
+	/**
+	 * Creates views on the sections of the mapped file.
+	 */
+	private static class SectionReader {
+		private final ByteBuffer buffer;
+		private int position;
+
+		private SectionReader(ByteBuffer buffer, int position) {
+			this.buffer = buffer;
+			this.position = position;
+		}
+
+		/**
+		 * Reads the dictionary.
+		 * 
+		 * @return The {@link TagDictionary} codes for the snapshot codes.
+		 */
+		private int[] readDictionary(int size) throws IOException {
+			int[] codes = new int[size];
+			for (int i = 0; i < size; i++) {
+				int length = buffer.getInt(checkRange(4));
+				position += 4;
+				byte[] bytes = new byte[length];
+				ByteBuffer view = view(length);
+				view.get(bytes);
+				codes[i] = TagDictionary.getCode(new String(bytes, UTF8));
+			}
+			align();
+			return codes;
+		}
+
+		private LongBuffer longs(int count) throws IOException {
+			return view(count * 8).asLongBuffer();
+		}
+
+		private IntBuffer ints(int count) throws IOException {
+			return view(count * 4).asIntBuffer();
+		}
+
+		private ByteBuffer view(int length) throws IOException {
+			ByteBuffer view = buffer.duplicate();
+			view.position(checkRange(length));
+			view.limit(position + length);
+			position += length;
+			return view.slice();
+		}
+
+		private int checkRange(int length) throws IOException {
+			if (length < 0 || position + length > buffer.limit()) {
+				throw new IOException("Snapshot is truncated.");
+			}
+			return position;
+		}
+
+		private void align() {
+			position = (position + 7) & ~7;
+		}
+	}
+
+	private static class SnapshotWayList extends SnapshotList<OsmWay> {
+		private final IntBuffer nodeStart;
+		private final IntBuffer nodes;
+		private final IntBuffer tagStart;
+		private final IntBuffer tags;
+		private final int[] codes;
+		private OsmNodeStore store;
+
+		private SnapshotWayList(IntBuffer nodeStart, IntBuffer nodes,
+		        IntBuffer tagStart, IntBuffer tags, int[] codes) {
+			super(nodeStart.limit() - 1);
+			this.nodeStart = nodeStart;
+			this.nodes = nodes;
+			this.tagStart = tagStart;
+			this.tags = tags;
+			this.codes = codes;
+		}
+
+		private void setStore(OsmNodeStore store) {
+			this.store = store;
+		}
+
+		@Override
+		protected OsmWay load(int index) {
+			int start = nodeStart.get(index);
+			int[] nodeIndexes = new int[nodeStart.get(index + 1) - start];
+			for (int i = 0; i < nodeIndexes.length; i++) {
+				nodeIndexes[i] = nodes.get(start + i);
+			}
+			return new OsmWay(store, nodeIndexes, getTags(tagStart, tags,
+			        codes, index));
+		}
+	}
+
+	private static class SnapshotRelationList extends
+	        SnapshotList<OsmRelation> {
+		private final IntBuffer memberStart;
+		private final IntBuffer memberTypes;
+		private final IntBuffer memberIndexes;
+		private final IntBuffer memberRoles;
+		private final IntBuffer tagStart;
+		private final IntBuffer tags;
+		private final int[] codes;
+		private final OsmNodeStore store;
+		private final List<OsmWay> ways;
+
+		private SnapshotRelationList(IntBuffer memberStart,
+		        IntBuffer memberTypes, IntBuffer memberIndexes,
+		        IntBuffer memberRoles, IntBuffer tagStart, IntBuffer tags,
+		        int[] codes, OsmNodeStore store, List<OsmWay> ways) {
+			super(memberStart.limit() - 1);
+			this.memberStart = memberStart;
+			this.memberTypes = memberTypes;
+			this.memberIndexes = memberIndexes;
+			this.memberRoles = memberRoles;
+			this.tagStart = tagStart;
+			this.tags = tags;
+			this.codes = codes;
+			this.store = store;
+			this.ways = ways;
+		}
+
+		@Override
+		protected OsmRelation load(int index) {
+			LinkedList<OsmRoledNode> roledNodes =
+			        new LinkedList<OsmRoledNode>();
+			LinkedList<OsmRoledWay> roledWays = new LinkedList<OsmRoledWay>();
+			int end = memberStart.get(index + 1);
+			for (int i = memberStart.get(index); i < end; i++) {
+				String role =
+				        TagDictionary.getString(codes[memberRoles.get(i)]);
+				int member = memberIndexes.get(i);
+				if (memberTypes.get(i) == MEMBER_NODE) {
+					roledNodes.add(new OsmRoledNode(role, new OsmNode(store,
+					        member)));
+				} else {
+					roledWays.add(new OsmRoledWay(role, ways.get(member)));
+				}
+			}
+			return new OsmRelation(roledNodes, roledWays, getTags(tagStart,
+			        tags, codes, index));
+		}
+	}
+}
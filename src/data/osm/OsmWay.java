@@ -1,46 +1,121 @@
 package data.osm;
 
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
 
 import data.position.local.GlobalToLocalConverter;
 import data.position.local.LatLon;
-import data.position.local.LocalPoint;
 
+/**
+ * A way of a {@link OsmDatapack}.
+ * <p>
+ * The nodes are stored as indexes into the node store of the pack. Use
+ * {@link #getSegmentCursor()} or the index based accessors to traverse the
+ * way without creating node objects.
+ */
 public class OsmWay implements Iterable<OsmNode>, Propertyable {
-	private final LinkedList<OsmNode> nodes = new LinkedList<OsmNode>();
-	private final Properties properties = new Properties();
+	private static final int BRIDGE = TagDictionary.getCode("bridge");
+	private static final int EMBANKMENT = TagDictionary.getCode("embankment");
+	private static final int TUNNEL = TagDictionary.getCode("tunnel");
+	private static final int CUTTING = TagDictionary.getCode("cutting");
+
+	private final OsmNodeStore store;
+	/**
+	 * The node indexes in the store.
+	 */
+	private final int[] nodes;
+	/**
+	 * The tags as {@link TagDictionary} code pairs.
+	 */
+	private final int[] tags;
 	private float area = Float.NaN;
+	private LatLon center = null;
 
 	public OsmWay(List<OsmNode> nodes, Properties properties) {
-		if (nodes.size() < 2) {
+		this(getStore(nodes), getIndexes(nodes), PackedTags
+		        .fromProperties(properties));
+	}
+
+	OsmWay(OsmNodeStore store, int[] nodes, int[] tags) {
+		if (nodes.length < 2) {
+			throw new IllegalArgumentException("A way must have at least two nodes");
+		}
+		this.store = store;
+		this.nodes = nodes;
+		this.tags = tags;
+	}
+
+	private static OsmNodeStore getStore(List<OsmNode> nodes) {
+		if (nodes.isEmpty()) {
 			throw new IllegalArgumentException("A way must have at least two nodes");
 		}
+		OsmNodeStore store = nodes.get(0).getStore();
+		for (OsmNode node : nodes) {
+			if (node.getStore() != store) {
+				throw new IllegalArgumentException(
+				        "All nodes of a way need to be in the same pack.");
+			}
+		}
+		return store;
+	}
+
+	private static int[] getIndexes(List<OsmNode> nodes) {
+		int[] indexes = new int[nodes.size()];
+		int i = 0;
 		for (OsmNode node : nodes) {
-			this.nodes.add(node);
+			indexes[i++] = node.getIndex();
 		}
-		this.properties.putAll(properties);
+		return indexes;
 	}
 
 	public String getProperty(String name) {
-		return properties.getProperty(name);
+		return PackedTags.getProperty(tags, 0, tags.length, name);
+	}
+
+	@Override
+	public int getPropertyCode(int keyCode) {
+		return PackedTags.getPropertyCode(tags, 0, tags.length, keyCode);
 	}
 
 	@Override
 	public Iterator<OsmNode> iterator() {
-		return nodes.iterator();
+		return new Iterator<OsmNode>() {
+			private int position = 0;
+
+			@Override
+			public boolean hasNext() {
+				return position < nodes.length;
+			}
+
+			@Override
+			public OsmNode next() {
+				if (position >= nodes.length) {
+					throw new NoSuchElementException();
+				}
+				return getNode(position++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 	}
 
 	public boolean isArea() {
-		return nodes.getFirst().equals(nodes.getLast());
+		return nodes[0] == nodes[nodes.length - 1];
 	}
-	
+
+	/**
+	 * Gets the area of a closed way. This is cached.
+	 * 
+	 * @return The area, NaN if this is no area.
+	 */
 	public float getArea() {
-		if (isArea() && area == Float.NaN) {
+		if (isArea() && Float.isNaN(area)) {
 			area = computeArea();
 		}
 		return area;
@@ -53,66 +128,67 @@ public class OsmWay implements Iterable<OsmNode>, Propertyable {
 	private float computeArea() {
 		float areaSum = 0;
 		GlobalToLocalConverter converter = new GlobalToLocalConverter(getCenter());
-		
-		Iterator<OsmNode> it = iterator();
-		LocalPoint previous = null;
-		while (it.hasNext()) {
-			OsmNode current = it.next();
-			LocalPoint local = converter.toLocal(current.getLat(), current.getLon());
-			
-			if (previous != null) {
-				areaSum += previous.getX() * local.getY() - previous.getY() * local.getX();
-			}
-			previous = local;
+
+		double previousX = converter.toLocalX(getLat(0));
+		double previousY = converter.toLocalY(getLon(0));
+		for (int i = 1; i < nodes.length; i++) {
+			double x = converter.toLocalX(getLat(i));
+			double y = converter.toLocalY(getLon(i));
+			areaSum += previousX * y - previousY * x;
+			previousX = x;
+			previousY = y;
 		}
 		return Math.abs(areaSum);
 	}
 
 	/**
-	 * gets the approx center of the way
+	 * gets the approx center of the way. This is cached.
 	 * @return The center.
 	 */
 	public LatLon getCenter() {
-		Iterator<OsmNode> it = iterator();
-		if (isArea()) {
-			it.next();
-		}
-		float latSum = 0;
-		float lonSum = 0;
-		while (it.hasNext()) {
-			OsmNode current = it.next();
-			latSum += current.getLat();
-			lonSum += current.getLon();
+		if (center == null) {
+			int first = isArea() ? 1 : 0;
+			double latSum = 0;
+			double lonSum = 0;
+			for (int i = first; i < nodes.length; i++) {
+				latSum += getLat(i);
+				lonSum += getLon(i);
+			}
+			int count = nodes.length - first;
+			center = new LatLon(latSum / count, lonSum / count);
 		}
-		
-		int count = isArea() ? nodes.size() - 1 : nodes.size();
-		return new LatLon(latSum / count, lonSum / count);
+		return center;
 	}
 
 	public Iterator<OsmWaySegment> getSegments() {
 	    return new WaySegmentIterator();
     }
-	
+
+	/**
+	 * Creates a new cursor over the segments of this way. The cursor does not
+	 * allocate anything while moving.
+	 * 
+	 * @return A cursor that is positioned before the first segment.
+	 */
+	public OsmWaySegmentCursor getSegmentCursor() {
+		return new OsmWaySegmentCursor(this);
+	}
+
 	private class WaySegmentIterator implements Iterator<OsmWaySegment> {
-		OsmNode currentNode;
-		Iterator<OsmNode> myIterator;
-		
-		private WaySegmentIterator() {
-			myIterator = iterator();
-			currentNode = myIterator.next();
-		}
-		
+		private int position = 0;
+
 		@Override
         public boolean hasNext() {
-	        return myIterator.hasNext();
+	        return position < nodes.length - 1;
         }
 
 		@Override
         public OsmWaySegment next() {
-	        OsmNode end = myIterator.next();
-	        OsmWaySegment segment = new OsmWaySegment(currentNode, end);
-	        currentNode = end;
-	        return segment;
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			position++;
+	        return new OsmWaySegment(getNode(position - 1), getNode(position));
         }
 
 		@Override
@@ -124,48 +200,73 @@ public class OsmWay implements Iterable<OsmNode>, Propertyable {
 	
 	@Override
 	public String toString() {
-	    String string = "OsmWay(" + nodes.size() + "nodes)[";
-	    boolean first = true;
-	    for (Entry<Object, Object> entry : properties.entrySet()) {
-	    	if (first) {
-	    		first = false;
-	    	} else {
-	    		string += ",";
-	    	}
-	    	string += entry.getKey() + "=" + entry.getValue();
-	    }
-	    return string + "]";
+	    return "OsmWay(" + nodes.length + "nodes)[" + PackedTags.toString(tags)
+	            + "]";
 	}
 	
 	public boolean isBridge() {
-		return isPropertyTrue("bridge");
+		return isPropertyTrue(BRIDGE);
 	}
 
 	public boolean isEmbarkment() {
-		return isPropertyTrue("embankment");
+		return isPropertyTrue(EMBANKMENT);
 	}
 
 	public boolean isTunnel() {
-		return isPropertyTrue("tunnel");
+		return isPropertyTrue(TUNNEL);
 	}
 
 	public boolean isCutting() {
-		return isPropertyTrue("cutting");
+		return isPropertyTrue(CUTTING);
 	}
 
 
-	private boolean isPropertyTrue(String name) {
-	    String property = getProperty(name);
-	    return property != null && !"no".equalsIgnoreCase(property);
-    }
+	private boolean isPropertyTrue(int keyCode) {
+		int value = getPropertyCode(keyCode);
+		return value != TagDictionary.NONE
+		        && !"no".equalsIgnoreCase(TagDictionary.getString(value));
+	}
 
 	public int getNodeCount() {
-	    return nodes.size();
+	    return nodes.length;
     }
 
+	/**
+	 * Gets the node at a given position of this way.
+	 * 
+	 * @param position
+	 *            The position, from 0 to {@link #getNodeCount()} - 1.
+	 * @return The node.
+	 */
+	public OsmNode getNode(int position) {
+		return new OsmNode(store, nodes[position]);
+	}
+
+	public double getLat(int position) {
+		return store.getLat(nodes[position]);
+	}
+
+	public double getLon(int position) {
+		return store.getLon(nodes[position]);
+	}
+
+	/**
+	 * Gets the index of the node at the position in the node store.
+	 */
+	int getNodeIndex(int position) {
+		return nodes[position];
+	}
+
+	/**
+	 * Gets the packed tags. The array must not be modified.
+	 */
+	int[] getTags() {
+		return tags;
+	}
+
 	@Override
     public Set<String> getPropertyKeys() {
-	    return properties.stringPropertyNames();
+	    return PackedTags.getPropertyKeys(tags, 0, tags.length);
     }
 
 	public void addRelation(OsmRelation osmRelation) {
@@ -174,10 +275,10 @@ public class OsmWay implements Iterable<OsmNode>, Propertyable {
     }
 
 	public OsmNode getFirstNode() {
-	    return nodes.getFirst();
+	    return getNode(0);
     }
 	
 	public OsmNode getLastNode() {
-	    return nodes.getLast();
+	    return getNode(nodes.length - 1);
     }
 }
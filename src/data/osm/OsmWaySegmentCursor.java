@@ -0,0 +1,83 @@
+package data.osm;
+
+/**
+ * A cursor over the segments of a way.
+ * <p>
+ * In contrast to {@link OsmWay#getSegments()}, this does not create a new
+ * object for each segment. The segment with index i goes from the node at
+ * position i to the node at position i + 1.
+ * 
+ * <pre>
+ * OsmWaySegmentCursor cursor = way.getSegmentCursor();
+ * while (cursor.next()) {
+ * 	cursor.getStartLat() ...
+ * }
+ * </pre>
+ * 
+ * @author michael
+ */
+public class OsmWaySegmentCursor {
+	private final OsmWay way;
+	private int start = -1;
+
+	OsmWaySegmentCursor(OsmWay way) {
+		this.way = way;
+	}
+
+	/**
+	 * Moves to the next segment.
+	 * 
+	 * @return <code>true</code> if there is a current segment.
+	 */
+	public boolean next() {
+		if (start < way.getNodeCount() - 1) {
+			start++;
+		}
+		return start < way.getNodeCount() - 1;
+	}
+
+	/**
+	 * Moves the cursor back before the first segment.
+	 */
+	public void reset() {
+		start = -1;
+	}
+
+	/**
+	 * Gets the position of the start node in the way.
+	 */
+	public int getStartIndex() {
+		return start;
+	}
+
+	/**
+	 * Gets the position of the end node in the way.
+	 */
+	public int getEndIndex() {
+		return start + 1;
+	}
+
+	public double getStartLat() {
+		return way.getLat(start);
+	}
+
+	public double getStartLon() {
+		return way.getLon(start);
+	}
+
+	public double getEndLat() {
+		return way.getLat(start + 1);
+	}
+
+	public double getEndLon() {
+		return way.getLon(start + 1);
+	}
+
+	public OsmNode getStart() {
+		return way.getNode(start);
+	}
+
+	public OsmNode getEnd() {
+		return way.getNode(start + 1);
+	}
+}
@@ -0,0 +1,20 @@
+package data.osm;
+
+/**
+ * The parsers that can be used to read osm xml data.
+ * 
+ * @see OsmDatapack#addFromXMLStream(java.io.InputStream, OsmDatapack,
+ *      OsmXmlEngine)
+ * @author michael
+ */
+public enum OsmXmlEngine {
+	/**
+	 * Uses the sax parser of the jre.
+	 */
+	SAX,
+	/**
+	 * Uses a byte level scanner that only understands the osm schema, but is
+	 * a lot faster and creates less garbage.
+	 */
+	SCANNER
+}
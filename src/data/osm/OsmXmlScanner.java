@@ -0,0 +1,669 @@
+package data.osm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import data.osm.OsmRelation.OsmRoledNode;
+import data.osm.OsmRelation.OsmRoledWay;
+import data.position.local.LatLon;
+
+/**
+ * A byte level scanner for osm xml files.
+ * <p>
+ * This is no general xml parser. It only knows the elements of the osm schema
+ * (node, way, nd, tag, relation, member, bounds) and ignores everything else.
+ * Numbers are parsed directly from the byte buffer, strings (tag keys and
+ * values, roles) are looked up in an interning table, so that every distinct
+ * string is only created and put into the {@link TagDictionary} once.
+ * <p>
+ * The input is expected to be UTF-8 encoded.
+ * 
+ * @author michael
+ */
+class OsmXmlScanner {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] NODE = bytes("node");
+	private static final byte[] WAY = bytes("way");
+	private static final byte[] ND = bytes("nd");
+	private static final byte[] TAG = bytes("tag");
+	private static final byte[] RELATION = bytes("relation");
+	private static final byte[] MEMBER = bytes("member");
+	private static final byte[] BOUNDS = bytes("bounds");
+
+	private static final byte[] ID = bytes("id");
+	private static final byte[] LAT = bytes("lat");
+	private static final byte[] LON = bytes("lon");
+	private static final byte[] REF = bytes("ref");
+	private static final byte[] K = bytes("k");
+	private static final byte[] V = bytes("v");
+	private static final byte[] TYPE = bytes("type");
+	private static final byte[] ROLE = bytes("role");
+	private static final byte[] MINLAT = bytes("minlat");
+	private static final byte[] MINLON = bytes("minlon");
+	private static final byte[] MAXLAT = bytes("maxlat");
+	private static final byte[] MAXLON = bytes("maxlon");
+
+	private static final int ELEMENT_OTHER = 0;
+	private static final int ELEMENT_NODE = 1;
+	private static final int ELEMENT_WAY = 2;
+	private static final int ELEMENT_RELATION = 3;
+
+	private static final double[] POWERS_OF_TEN = new double[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final InputStream in;
+	private final OsmDatapack pack;
+	private final StringTable strings = new StringTable();
+
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private boolean eof = false;
+
+	// attributes of the current tag, as start/end offsets into the buffer.
+	private int attributeCount = 0;
+	private int[] nameStart = new int[16];
+	private int[] nameEnd = new int[16];
+	private int[] valueStart = new int[16];
+	private int[] valueEnd = new int[16];
+
+	// state of the current element.
+	private int currentElement = ELEMENT_OTHER;
+	private long currentId;
+	private double currentLat;
+	private double currentLon;
+	private boolean hasPosition;
+	private int[] currentTags = new int[16];
+	private int currentTagCount = 0;
+	private final IntList currentWayNodes = new IntList();
+	private final LinkedList<OsmRoledNode> currentRelationNodes =
+	        new LinkedList<OsmRoledNode>();
+	private final LinkedList<OsmRoledWay> currentRelationWays =
+	        new LinkedList<OsmRoledWay>();
+
+	public OsmXmlScanner(InputStream in, OsmDatapack pack) {
+		this.in = in;
+		this.pack = pack;
+	}
+
+	private static byte[] bytes(String string) {
+		return string.getBytes(UTF8);
+	}
+
+	/**
+	 * Reads the whole input and adds all elements to the pack.
+	 * 
+	 * @throws IOException
+	 *             If the input could not be read or is malformed.
+	 */
+	public void read() throws IOException {
+		while (true) {
+			int tagStart = findByte((byte) '<');
+			if (tagStart < 0) {
+				break;
+			}
+			position = tagStart;
+			int tagEnd = findTagEnd();
+			if (tagEnd < 0) {
+				throw new IOException("Unexpected end of file inside a tag");
+			}
+			// buffer positions may have moved while searching the end.
+			tagStart = position;
+			handleTag(tagStart, tagEnd);
+			position = tagEnd + 1;
+		}
+		if (currentElement != ELEMENT_OTHER) {
+			throw new IOException("Unexpected end of file inside an element");
+		}
+	}
+
+	/**
+	 * Searches the next occurrence of a byte, reading more data if needed.
+	 * Skipped data is discarded.
+	 * 
+	 * @return The position in the buffer or -1 at the end of the input.
+	 * @throws IOException
+	 */
+	private int findByte(byte b) throws IOException {
+		while (true) {
+			for (int i = position; i < limit; i++) {
+				if (buffer[i] == b) {
+					return i;
+				}
+			}
+			position = limit;
+			if (!fill()) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Finds the end of the tag starting at {@link #position}. Comments,
+	 * processing instructions and CDATA are handled as one tag. The buffer
+	 * is refilled (and may be compacted) as needed.
+	 * 
+	 * @return The position of the closing <code>&gt;</code>, or -1.
+	 * @throws IOException
+	 */
+	private int findTagEnd() throws IOException {
+		int i = position + 1;
+		byte quote = 0;
+		while (true) {
+			if (i >= limit) {
+				int offset = position;
+				if (!fill()) {
+					return -1;
+				}
+				i -= offset - position;
+				continue;
+			}
+			byte b = buffer[i];
+			if (quote != 0) {
+				if (b == quote) {
+					quote = 0;
+				}
+			} else if (b == '"' || b == '\'') {
+				if (!isComment()) {
+					quote = b;
+				}
+			} else if (b == '>') {
+				if (!isComment() || endsWith(i, "--")) {
+					return i;
+				}
+			}
+			i++;
+		}
+	}
+
+	private boolean isComment() {
+		return limit - position >= 4 && buffer[position + 1] == '!'
+		        && buffer[position + 2] == '-' && buffer[position + 3] == '-';
+	}
+
+	private boolean endsWith(int end, String text) {
+		int start = end - text.length();
+		if (start < position + 4) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (buffer[start + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads more data. Everything before {@link #position} is discarded.
+	 * 
+	 * @return false at the end of the stream.
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		if (limit == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	private void handleTag(int start, int end) throws IOException {
+		byte second = buffer[start + 1];
+		if (second == '?' || second == '!') {
+			return;
+		}
+		boolean closing = second == '/';
+		int tagNameStart = closing ? start + 2 : start + 1;
+		int tagNameEnd = tagNameStart;
+		while (tagNameEnd < end && !isWhitespace(buffer[tagNameEnd])
+		        && buffer[tagNameEnd] != '/') {
+			tagNameEnd++;
+		}
+		boolean selfClosing = !closing && buffer[end - 1] == '/';
+
+		if (closing) {
+			elementEnded(tagNameStart, tagNameEnd);
+		} else {
+			parseAttributes(tagNameEnd, selfClosing ? end - 1 : end);
+			elementStarted(tagNameStart, tagNameEnd);
+			if (selfClosing) {
+				elementEnded(tagNameStart, tagNameEnd);
+			}
+		}
+	}
+
+	private void parseAttributes(int start, int end) throws IOException {
+		attributeCount = 0;
+		int i = start;
+		while (true) {
+			while (i < end && isWhitespace(buffer[i])) {
+				i++;
+			}
+			if (i >= end) {
+				return;
+			}
+			int attributeNameStart = i;
+			while (i < end && buffer[i] != '=' && !isWhitespace(buffer[i])) {
+				i++;
+			}
+			int attributeNameEnd = i;
+			while (i < end && buffer[i] != '"' && buffer[i] != '\'') {
+				i++;
+			}
+			if (i >= end) {
+				throw new IOException("Attribute without value");
+			}
+			byte quote = buffer[i];
+			int attributeValueStart = ++i;
+			while (i < end && buffer[i] != quote) {
+				i++;
+			}
+			addAttribute(attributeNameStart, attributeNameEnd,
+			        attributeValueStart, i);
+			i++;
+		}
+	}
+
+	private void addAttribute(int ns, int ne, int vs, int ve) {
+		if (attributeCount >= nameStart.length) {
+			int capacity = attributeCount * 2;
+			nameStart = Arrays.copyOf(nameStart, capacity);
+			nameEnd = Arrays.copyOf(nameEnd, capacity);
+			valueStart = Arrays.copyOf(valueStart, capacity);
+			valueEnd = Arrays.copyOf(valueEnd, capacity);
+		}
+		nameStart[attributeCount] = ns;
+		nameEnd[attributeCount] = ne;
+		valueStart[attributeCount] = vs;
+		valueEnd[attributeCount] = ve;
+		attributeCount++;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+
+	private boolean nameIs(int start, int end, byte[] name) {
+		if (end - start != name.length) {
+			return false;
+		}
+		for (int i = 0; i < name.length; i++) {
+			if (buffer[start + i] != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int findAttribute(byte[] name) {
+		for (int i = 0; i < attributeCount; i++) {
+			if (nameIs(nameStart[i], nameEnd[i], name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void elementStarted(int start, int end) throws IOException {
+		if (nameIs(start, end, NODE)) {
+			startElement(ELEMENT_NODE);
+			int lat = findAttribute(LAT);
+			int lon = findAttribute(LON);
+			hasPosition = lat >= 0 && lon >= 0;
+			if (hasPosition) {
+				currentLat = parseDouble(lat);
+				currentLon = parseDouble(lon);
+			}
+		} else if (nameIs(start, end, WAY)) {
+			startElement(ELEMENT_WAY);
+			currentWayNodes.clear();
+		} else if (nameIs(start, end, RELATION)) {
+			startElement(ELEMENT_RELATION);
+			currentRelationNodes.clear();
+			currentRelationWays.clear();
+		} else if (nameIs(start, end, ND)) {
+			int ref = findAttribute(REF);
+			if (currentElement == ELEMENT_WAY && ref >= 0) {
+				int node = pack.getWayNodeIndex(parseLong(ref));
+				if (node != -1) {
+					currentWayNodes.add(node);
+				}
+			}
+		} else if (nameIs(start, end, TAG)) {
+			int k = findAttribute(K);
+			int v = findAttribute(V);
+			if (currentElement != ELEMENT_OTHER && k >= 0 && v >= 0) {
+				addCurrentTag(getCode(k), getCode(v));
+			}
+		} else if (nameIs(start, end, MEMBER)) {
+			if (currentElement == ELEMENT_RELATION) {
+				memberRead();
+			}
+		} else if (nameIs(start, end, BOUNDS)) {
+			boundsRead();
+		}
+	}
+
+	private void startElement(int type) throws IOException {
+		currentElement = type;
+		currentTagCount = 0;
+		int id = findAttribute(ID);
+		currentId = id >= 0 ? parseLong(id) : 0;
+	}
+
+	private void addCurrentTag(int key, int value) {
+		if (currentTagCount + 2 > currentTags.length) {
+			currentTags = Arrays.copyOf(currentTags, currentTags.length * 2);
+		}
+		currentTags[currentTagCount++] = key;
+		currentTags[currentTagCount++] = value;
+	}
+
+	private void memberRead() throws IOException {
+		int ref = findAttribute(REF);
+		int type = findAttribute(TYPE);
+		if (ref < 0 || type < 0) {
+			return;
+		}
+		int roleIndex = findAttribute(ROLE);
+		String role = roleIndex >= 0 ? getString(roleIndex) : "";
+		long id = parseLong(ref);
+		if (nameIs(valueStart[type], valueEnd[type], NODE)) {
+			OsmNode node = pack.getNode(id);
+			if (node != null) {
+				currentRelationNodes.add(new OsmRoledNode(role, node));
+			}
+		} else if (nameIs(valueStart[type], valueEnd[type], WAY)) {
+			OsmWay way = pack.getWay(id);
+			if (way != null) {
+				currentRelationWays.add(new OsmRoledWay(role, way));
+			}
+		}
+	}
+
+	private void boundsRead() throws IOException {
+		int minlat = findAttribute(MINLAT);
+		int minlon = findAttribute(MINLON);
+		int maxlat = findAttribute(MAXLAT);
+		int maxlon = findAttribute(MAXLON);
+		if (minlat >= 0 && minlon >= 0 && maxlat >= 0 && maxlon >= 0) {
+			double lat = (parseDouble(minlat) + parseDouble(maxlat)) / 2;
+			double lon = (parseDouble(minlon) + parseDouble(maxlon)) / 2;
+			pack.setCenter(new LatLon((float) lat, (float) lon));
+		}
+	}
+
+	private void elementEnded(int start, int end) {
+		if (nameIs(start, end, NODE) && currentElement == ELEMENT_NODE) {
+			if (hasPosition) {
+				pack.addNode(currentId, currentLat, currentLon,
+				        getCurrentTags());
+			} else {
+				System.out.println("Node end for unstarted node.");
+			}
+			currentElement = ELEMENT_OTHER;
+		} else if (nameIs(start, end, WAY) && currentElement == ELEMENT_WAY) {
+			if (currentWayNodes.size() >= 2) {
+				pack.addWay(currentId, currentWayNodes.toArray(),
+				        getCurrentTags());
+			}
+			currentElement = ELEMENT_OTHER;
+		} else if (nameIs(start, end, RELATION)
+		        && currentElement == ELEMENT_RELATION) {
+			pack.addRelation(currentId, new OsmRelation(currentRelationNodes,
+			        currentRelationWays, getCurrentTags()));
+			currentElement = ELEMENT_OTHER;
+		}
+	}
+
+	private int[] getCurrentTags() {
+		if (currentTagCount == 0) {
+			return PackedTags.EMPTY;
+		}
+		return Arrays.copyOf(currentTags, currentTagCount);
+	}
+
+	private String getString(int attribute) {
+		return strings.get(buffer, valueStart[attribute], valueEnd[attribute]);
+	}
+
+	private int getCode(int attribute) {
+		return strings.getCode(buffer, valueStart[attribute],
+		        valueEnd[attribute]);
+	}
+
+	private long parseLong(int attribute) throws IOException {
+		int i = valueStart[attribute];
+		int end = valueEnd[attribute];
+		boolean negative = false;
+		if (i < end && buffer[i] == '-') {
+			negative = true;
+			i++;
+		}
+		if (i >= end || end - i > 18) {
+			throw new IOException("Malformed id: " + rawString(attribute));
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IOException("Malformed id: " + rawString(attribute));
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a decimal number like <code>-12.3456789</code>. Other formats
+	 * are passed on to {@link Double#parseDouble(String)}.
+	 */
+	private double parseDouble(int attribute) throws IOException {
+		int i = valueStart[attribute];
+		int end = valueEnd[attribute];
+		boolean negative = false;
+		if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+			negative = buffer[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = -1;
+		for (; i < end; i++) {
+			byte b = buffer[i];
+			if (b >= '0' && b <= '9') {
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (fractionDigits >= 0) {
+					fractionDigits++;
+				}
+			} else if (b == '.' && fractionDigits < 0) {
+				fractionDigits = 0;
+			} else {
+				break;
+			}
+		}
+		if (i < end || digits == 0 || digits > 18) {
+			try {
+				return Double.parseDouble(rawString(attribute));
+			} catch (NumberFormatException e) {
+				throw new IOException("A number was malformed", e);
+			}
+		}
+		double value = mantissa;
+		if (fractionDigits > 0) {
+			value /= POWERS_OF_TEN[fractionDigits];
+		}
+		return negative ? -value : value;
+	}
+
+	private String rawString(int attribute) {
+		return new String(buffer, valueStart[attribute], valueEnd[attribute]
+		        - valueStart[attribute], UTF8);
+	}
+
+	/**
+	 * Interns strings by their byte content, so that no string needs to be
+	 * created for strings that were already seen.
+	 */
+	private static class StringTable {
+		private byte[][] keys = new byte[1024][];
+		private String[] values = new String[1024];
+		private int[] codes = new int[1024];
+		private int size = 0;
+
+		public String get(byte[] buffer, int start, int end) {
+			return values[lookup(buffer, start, end)];
+		}
+
+		/**
+		 * Gets the {@link TagDictionary} code of the string.
+		 */
+		public int getCode(byte[] buffer, int start, int end) {
+			return codes[lookup(buffer, start, end)];
+		}
+
+		private int lookup(byte[] buffer, int start, int end) {
+			int hash = hash(buffer, start, end);
+			int mask = keys.length - 1;
+			int slot = hash & mask;
+			while (keys[slot] != null) {
+				if (equals(keys[slot], buffer, start, end)) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			byte[] key = Arrays.copyOfRange(buffer, start, end);
+			String value = unescape(new String(key, UTF8));
+			keys[slot] = key;
+			values[slot] = value;
+			codes[slot] = TagDictionary.getCode(value);
+			size++;
+			if (size * 2 > keys.length) {
+				rehash();
+				return lookup(buffer, start, end);
+			}
+			return slot;
+		}
+
+		private static int hash(byte[] buffer, int start, int end) {
+			int hash = 1;
+			for (int i = start; i < end; i++) {
+				hash = hash * 31 + buffer[i];
+			}
+			return hash ^ (hash >>> 16);
+		}
+
+		private static boolean equals(byte[] key, byte[] buffer, int start,
+		        int end) {
+			if (key.length != end - start) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (key[i] != buffer[start + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void rehash() {
+			byte[][] oldKeys = keys;
+			String[] oldValues = values;
+			int[] oldCodes = codes;
+			keys = new byte[oldKeys.length * 2][];
+			values = new String[oldKeys.length * 2];
+			codes = new int[oldKeys.length * 2];
+			int mask = keys.length - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] != null) {
+					int slot =
+					        hash(oldKeys[i], 0, oldKeys[i].length) & mask;
+					while (keys[slot] != null) {
+						slot = (slot + 1) & mask;
+					}
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+					codes[slot] = oldCodes[i];
+				}
+			}
+		}
+
+		private static String unescape(String string) {
+			int amp = string.indexOf('&');
+			if (amp < 0) {
+				return string;
+			}
+			StringBuilder result = new StringBuilder(string.length());
+			int i = 0;
+			while (amp >= 0) {
+				result.append(string, i, amp);
+				int semicolon = string.indexOf(';', amp);
+				if (semicolon < 0) {
+					break;
+				}
+				String entity = string.substring(amp + 1, semicolon);
+				if (entity.equals("amp")) {
+					result.append('&');
+				} else if (entity.equals("lt")) {
+					result.append('<');
+				} else if (entity.equals("gt")) {
+					result.append('>');
+				} else if (entity.equals("quot")) {
+					result.append('"');
+				} else if (entity.equals("apos")) {
+					result.append('\'');
+				} else if (entity.startsWith("#x")) {
+					appendCharacter(result, entity, 2, 16);
+				} else if (entity.startsWith("#")) {
+					appendCharacter(result, entity, 1, 10);
+				} else {
+					result.append('&').append(entity).append(';');
+				}
+				i = semicolon + 1;
+				amp = string.indexOf('&', i);
+			}
+			result.append(string, i, string.length());
+			return result.toString();
+		}
+
+		/**
+		 * Appends a numeric character reference. Malformed references are
+		 * kept as they are.
+		 */
+		private static void appendCharacter(StringBuilder result,
+		        String entity, int digitsStart, int radix) {
+			try {
+				result.appendCodePoint(Integer.parseInt(
+				        entity.substring(digitsStart), radix));
+			} catch (IllegalArgumentException e) {
+				// no number or not a valid code point
+				result.append('&').append(entity).append(';');
+			}
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package data.osm;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+/**
+ * A disk cache for the responses of the overpass server.
+ * <p>
+ * Responses are stored gzip compressed, one file per query. The file name is
+ * the SHA-1 hash of the query script, which contains the requested
+ * rectangles. When the cache gets bigger than its maximum size, the least
+ * recently used responses are deleted. The last use is stored as the
+ * modification time of the file, so it survives restarts.
+ * <p>
+ * A query can consist of several parts (e.g. one per rectangle). The parts
+ * are remembered for every response, so that a part can be found again even
+ * if it is requested together with other parts the next time, see
+ * {@link #find(String)}.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author michael
+ */
+public class OverpassCache {
+	private static final String SUFFIX = ".osm.gz";
+	private static final String PARTS_SUFFIX = ".parts";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File directory;
+	private final long maxSize;
+
+	/**
+	 * The sizes of all entries including their part lists, in LRU order.
+	 */
+	private final LinkedHashMap<String, Long> entries =
+	        new LinkedHashMap<String, Long>(16, .75f, true);
+	private long size = 0;
+
+	/**
+	 * Maps the part hashes to the entry that contains them.
+	 */
+	private final HashMap<String, String> partEntries =
+	        new HashMap<String, String>();
+	/**
+	 * The part hashes of every entry.
+	 */
+	private final HashMap<String, List<String>> entryParts =
+	        new HashMap<String, List<String>>();
+
+	/**
+	 * Opens a cache directory. It is created if it does not exist.
+	 * 
+	 * @param directory
+	 *            The directory to store the responses in.
+	 * @param maxSize
+	 *            The maximum number of bytes to store.
+	 * @throws IOException
+	 *             If the directory could not be created.
+	 */
+	public OverpassCache(File directory, long maxSize) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create cache directory "
+			        + directory);
+		}
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		File[] files = directory.listFiles();
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				long m1 = o1.lastModified();
+				long m2 = o2.lastModified();
+				return m1 < m2 ? -1 : m1 == m2 ? 0 : 1;
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isFile() && name.endsWith(SUFFIX)) {
+				String key = name.substring(0, name.length() - SUFFIX.length());
+				long length = file.length() + getPartsFile(key).length();
+				entries.put(key, length);
+				size += length;
+				addParts(key, readParts(key));
+			}
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(TEMP_SUFFIX)) {
+				// left by a crash while writing.
+				file.delete();
+			} else if (name.endsWith(PARTS_SUFFIX)
+			        && !entries.containsKey(name.substring(0, name.length()
+			                - PARTS_SUFFIX.length()))) {
+				file.delete();
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Gets a cached response.
+	 * 
+	 * @param script
+	 *            The query script that was sent.
+	 * @return The gzip compressed response, or <code>null</code> if it is not
+	 *         cached.
+	 */
+	public synchronized byte[] get(String script) {
+		return getEntry(getKey(script));
+	}
+
+	/**
+	 * Finds the response that contains a part.
+	 * 
+	 * @param part
+	 *            The part of a query.
+	 * @return The entry key to use with {@link #getEntry(String)} or
+	 *         <code>null</code> if no cached response contains the part.
+	 */
+	public synchronized String find(String part) {
+		return partEntries.get(getKey(part));
+	}
+
+	/**
+	 * Gets a cached response by its entry key.
+	 * 
+	 * @param key
+	 *            The key returned by {@link #find(String)}.
+	 * @return The gzip compressed response, or <code>null</code> if it is not
+	 *         cached (any more).
+	 */
+	public synchronized byte[] getEntry(String key) {
+		if (entries.get(key) == null) {
+			return null;
+		}
+		File file = getFile(key);
+		try {
+			byte[] data = readFully(new FileInputStream(file));
+			file.setLastModified(System.currentTimeMillis());
+			return data;
+		} catch (IOException e) {
+			// someone deleted the file.
+			remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a response.
+	 * 
+	 * @param script
+	 *            The query script that was sent.
+	 * @param gzipped
+	 *            The gzip compressed response.
+	 * @throws IOException
+	 *             If the response could not be written.
+	 */
+	public void put(String script, byte[] gzipped) throws IOException {
+		put(script, Collections.<String> emptyList(), gzipped);
+	}
+
+	/**
+	 * Stores a response.
+	 * 
+	 * @param script
+	 *            The query script that was sent.
+	 * @param parts
+	 *            The parts the script was made of.
+	 * @param gzipped
+	 *            The gzip compressed response.
+	 * @throws IOException
+	 *             If the response could not be written.
+	 */
+	public synchronized void put(String script, Collection<String> parts,
+	        byte[] gzipped) throws IOException {
+		String key = getKey(script);
+		remove(key);
+		List<String> partKeys = new ArrayList<String>(parts.size());
+		for (String part : parts) {
+			partKeys.add(getKey(part));
+		}
+		long length = gzipped.length;
+		if (!partKeys.isEmpty()) {
+			StringBuilder content = new StringBuilder();
+			for (String partKey : partKeys) {
+				content.append(partKey).append('\n');
+			}
+			byte[] bytes = content.toString().getBytes(UTF8);
+			write(getPartsFile(key), bytes);
+			length += bytes.length;
+		}
+		write(getFile(key), gzipped);
+		entries.put(key, length);
+		size += length;
+		addParts(key, partKeys);
+		evict();
+	}
+
+	private void write(File file, byte[] data) throws IOException {
+		File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Could not store cache file " + file);
+		}
+	}
+
+	private List<String> readParts(String key) {
+		File file = getPartsFile(key);
+		List<String> parts = new ArrayList<String>();
+		if (!file.isFile()) {
+			return parts;
+		}
+		try {
+			BufferedReader reader =
+			        new BufferedReader(new InputStreamReader(
+			                new FileInputStream(file), UTF8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty()) {
+						parts.add(line);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read cache index " + file);
+		}
+		return parts;
+	}
+
+	private void addParts(String key, List<String> partKeys) {
+		if (!partKeys.isEmpty()) {
+			entryParts.put(key, partKeys);
+			for (String partKey : partKeys) {
+				partEntries.put(partKey, key);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of bytes currently stored.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	private void remove(String key) {
+		Long removed = entries.remove(key);
+		if (removed != null) {
+			size -= removed;
+			delete(key);
+		}
+	}
+
+	private void evict() {
+		Iterator<Entry<String, Long>> it = entries.entrySet().iterator();
+		while (size > maxSize && it.hasNext()) {
+			Entry<String, Long> eldest = it.next();
+			size -= eldest.getValue();
+			delete(eldest.getKey());
+			it.remove();
+		}
+	}
+
+	private void delete(String key) {
+		getFile(key).delete();
+		getPartsFile(key).delete();
+		List<String> parts = entryParts.remove(key);
+		if (parts != null) {
+			for (String part : parts) {
+				if (key.equals(partEntries.get(part))) {
+					partEntries.remove(part);
+				}
+			}
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	private File getPartsFile(String key) {
+		return new File(directory, key + PARTS_SUFFIX);
+	}
+
+	private static String getKey(String script) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] hash = digest.digest(script.getBytes(UTF8));
+			StringBuilder key = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				key.append(Character.forDigit((b >> 4) & 0xf, 16));
+				key.append(Character.forDigit(b & 0xf, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 is not supported.", e);
+		}
+	}
+
+	static byte[] readFully(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[16 * 1024];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package data.osm;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * The overpass server answered with an error code.
+ * 
+ * @author michael
+ */
+class OverpassServerException extends IOException {
+	private static final long serialVersionUID = -2783310519004541418L;
+	private static final int TOO_MANY_REQUESTS = 429;
+
+	private final int responseCode;
+	private final long retryAfterMillis;
+
+	public OverpassServerException(int responseCode, String message,
+	        long retryAfterMillis) {
+		super("Response indicates error: " + responseCode + " (" + message
+		        + ")");
+		this.responseCode = responseCode;
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	public int getResponseCode() {
+		return responseCode;
+	}
+
+	/**
+	 * Gets the delay the server asked for with a Retry-After header.
+	 * 
+	 * @return The delay, 0 if the server did not send one.
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+
+	/**
+	 * Checks if the server is overloaded (429 Too Many Requests or 504
+	 * Gateway Timeout). Smaller requests may help then.
+	 */
+	public boolean isOverloaded() {
+		return responseCode == TOO_MANY_REQUESTS
+		        || responseCode == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+	}
+}
@@ -0,0 +1,85 @@
+package data.osm;
+
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Helper methods for tags that are stored as packed int arrays.
+ * <p>
+ * A packed array contains pairs of {@link TagDictionary} codes, each key code
+ * is followed by the code of its value.
+ * 
+ * @author michael
+ */
+final class PackedTags {
+	static final int[] EMPTY = new int[0];
+
+	private PackedTags() {
+	}
+
+	public static int getPropertyCode(int[] tags, int start, int end,
+	        int keyCode) {
+		for (int i = start; i < end; i += 2) {
+			if (tags[i] == keyCode) {
+				return tags[i + 1];
+			}
+		}
+		return TagDictionary.NONE;
+	}
+
+	public static String getProperty(int[] tags, int start, int end,
+	        String key) {
+		int keyCode = TagDictionary.findCode(key);
+		if (keyCode == TagDictionary.NONE) {
+			return null;
+		}
+		return TagDictionary.getString(getPropertyCode(tags, start, end,
+		        keyCode));
+	}
+
+	public static Set<String> getPropertyKeys(int[] tags, int start, int end) {
+		HashSet<String> keys = new HashSet<String>();
+		for (int i = start; i < end; i += 2) {
+			keys.add(TagDictionary.getString(tags[i]));
+		}
+		return keys;
+	}
+
+	public static int[] fromKeyValues(String[] keyvalues) {
+		if (keyvalues.length == 0) {
+			return EMPTY;
+		}
+		int[] tags = new int[keyvalues.length];
+		for (int i = 0; i < keyvalues.length; i++) {
+			tags[i] = TagDictionary.getCode(keyvalues[i]);
+		}
+		return tags;
+	}
+
+	public static int[] fromProperties(Properties properties) {
+		if (properties.isEmpty()) {
+			return EMPTY;
+		}
+		int[] tags = new int[properties.size() * 2];
+		int i = 0;
+		for (Entry<Object, Object> entry : properties.entrySet()) {
+			tags[i++] = TagDictionary.getCode((String) entry.getKey());
+			tags[i++] = TagDictionary.getCode((String) entry.getValue());
+		}
+		return tags;
+	}
+
+	public static String toString(int[] tags) {
+		StringBuilder string = new StringBuilder();
+		for (int i = 0; i < tags.length; i += 2) {
+			if (i > 0) {
+				string.append(',');
+			}
+			string.append(TagDictionary.getString(tags[i])).append('=')
+			        .append(TagDictionary.getString(tags[i + 1]));
+		}
+		return string.toString();
+	}
+}
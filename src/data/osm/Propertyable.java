@@ -6,4 +6,14 @@ public interface Propertyable {
 	public String getProperty(String name);
 	
 	public Set<String> getPropertyKeys();
+
+	/**
+	 * Gets a property by its {@link TagDictionary} code. This is the fast
+	 * path for converters that check many elements.
+	 * 
+	 * @param keyCode
+	 *            The code of the key.
+	 * @return The code of the value, or {@link TagDictionary#NONE}.
+	 */
+	public int getPropertyCode(int keyCode);
 }
@@ -0,0 +1,152 @@
+package data.osm;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * A minimal reader for the protocol buffer wire format, as it is used by the
+ * osm pbf files.
+ * <p>
+ * It works directly on a byte array and never copies it. Sub messages are
+ * read by creating a new input on the same array.
+ * 
+ * @author michael
+ */
+class ProtobufInput {
+	public static final int WIRETYPE_VARINT = 0;
+	public static final int WIRETYPE_FIXED64 = 1;
+	public static final int WIRETYPE_LENGTH_DELIMITED = 2;
+	public static final int WIRETYPE_FIXED32 = 5;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final byte[] buffer;
+	private int position;
+	private final int limit;
+
+	public ProtobufInput(byte[] buffer) {
+		this(buffer, 0, buffer.length);
+	}
+
+	public ProtobufInput(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	public boolean hasMore() {
+		return position < limit;
+	}
+
+	/**
+	 * Reads the next field tag.
+	 * 
+	 * @return The tag, use {@link #getField(int)} and
+	 *         {@link #getWireType(int)} to decode it.
+	 * @throws IOException
+	 */
+	public int readTag() throws IOException {
+		return readVarint32();
+	}
+
+	public static int getField(int tag) {
+		return tag >>> 3;
+	}
+
+	public static int getWireType(int tag) {
+		return tag & 7;
+	}
+
+	public int readVarint32() throws IOException {
+		return (int) readVarint64();
+	}
+
+	public long readVarint64() throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (position >= limit) {
+				throw new IOException("Truncated varint");
+			}
+			byte b = buffer[position++];
+			result |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	public long readSInt64() throws IOException {
+		long raw = readVarint64();
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	public int readSInt32() throws IOException {
+		int raw = readVarint32();
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	/**
+	 * Reads the length of a length delimited field and returns a input for
+	 * its content. This input is advanced behind the field.
+	 * 
+	 * @return The content of the field.
+	 * @throws IOException
+	 */
+	public ProtobufInput readMessage() throws IOException {
+		int length = readLength();
+		ProtobufInput sub = new ProtobufInput(buffer, position, length);
+		position += length;
+		return sub;
+	}
+
+	public byte[] readBytes() throws IOException {
+		int length = readLength();
+		byte[] bytes = new byte[length];
+		System.arraycopy(buffer, position, bytes, 0, length);
+		position += length;
+		return bytes;
+	}
+
+	public String readString() throws IOException {
+		int length = readLength();
+		String string = new String(buffer, position, length, UTF8);
+		position += length;
+		return string;
+	}
+
+	private int readLength() throws IOException {
+		int length = readVarint32();
+		if (length < 0 || position + length > limit) {
+			throw new IOException("Length delimited field exceeds message");
+		}
+		return length;
+	}
+
+	/**
+	 * Skips the content of a field.
+	 * 
+	 * @param tag
+	 *            The tag that was read for the field.
+	 * @throws IOException
+	 */
+	public void skipField(int tag) throws IOException {
+		switch (getWireType(tag)) {
+			case WIRETYPE_VARINT:
+				readVarint64();
+				break;
+			case WIRETYPE_FIXED64:
+				position += 8;
+				break;
+			case WIRETYPE_LENGTH_DELIMITED:
+				position += readLength();
+				break;
+			case WIRETYPE_FIXED32:
+				position += 4;
+				break;
+			default:
+				throw new IOException("Unsupported wire type "
+				        + getWireType(tag));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package data.osm;
+
+import gui.LatLonRectangle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Merges tile rectangles to a few bigger boxes that can be requested from
+ * the server at once.
+ * <p>
+ * First, tiles in the same row that touch or overlap are merged. Then, rows
+ * that have the same width and lie on top of each other are merged. No box
+ * gets bigger than the maximum area, so a rectangular selection becomes a
+ * grid of boxes of about that size. At last, boxes that lie inside of other
+ * boxes are dropped.
+ * 
+ * @author michael
+ */
+final class RectangleCoalescer {
+	/**
+	 * The distance in degrees that is still considered equal. This is the
+	 * precision of the osm coordinates.
+	 */
+	private static final double EPSILON = 1e-7;
+
+	private static final Comparator<AreaRequest> BY_ROW =
+	        new Comparator<AreaRequest>() {
+		        @Override
+		        public int compare(AreaRequest o1, AreaRequest o2) {
+			        LatLonRectangle b1 = o1.getBounds();
+			        LatLonRectangle b2 = o2.getBounds();
+			        int result = Double.compare(b1.getMinlat(), b2.getMinlat());
+			        if (result == 0) {
+				        result = Double.compare(b1.getMaxlat(), b2.getMaxlat());
+			        }
+			        if (result == 0) {
+				        result = Double.compare(b1.getMinlon(), b2.getMinlon());
+			        }
+			        return result;
+		        }
+	        };
+
+	private static final Comparator<AreaRequest> BY_COLUMN =
+	        new Comparator<AreaRequest>() {
+		        @Override
+		        public int compare(AreaRequest o1, AreaRequest o2) {
+			        LatLonRectangle b1 = o1.getBounds();
+			        LatLonRectangle b2 = o2.getBounds();
+			        int result = Double.compare(b1.getMinlon(), b2.getMinlon());
+			        if (result == 0) {
+				        result = Double.compare(b1.getMaxlon(), b2.getMaxlon());
+			        }
+			        if (result == 0) {
+				        result = Double.compare(b1.getMinlat(), b2.getMinlat());
+			        }
+			        return result;
+		        }
+	        };
+
+	private RectangleCoalescer() {
+	}
+
+	/**
+	 * Plans the requests for the tiles.
+	 * 
+	 * @param tiles
+	 *            The tiles to request.
+	 * @param maxArea
+	 *            The maximum area of a box in square degrees. Tiles that are
+	 *            bigger are requested alone.
+	 * @return The requests. Every tile is in exactly one of them.
+	 */
+	public static List<AreaRequest> coalesce(
+	        Collection<LatLonRectangle> tiles, double maxArea) {
+		List<AreaRequest> boxes = new ArrayList<AreaRequest>(tiles.size());
+		for (LatLonRectangle tile : tiles) {
+			boxes.add(new AreaRequest(tile));
+		}
+		boxes = mergeRuns(boxes, BY_ROW, true, maxArea);
+		boxes = mergeRuns(boxes, BY_COLUMN, false, maxArea);
+		return removeContained(boxes);
+	}
+
+	private static List<AreaRequest> mergeRuns(List<AreaRequest> boxes,
+	        Comparator<AreaRequest> order, boolean horizontal, double maxArea) {
+		Collections.sort(boxes, order);
+		List<AreaRequest> merged = new ArrayList<AreaRequest>();
+		AreaRequest current = null;
+		for (AreaRequest box : boxes) {
+			if (current != null
+			        && canMerge(current.getBounds(), box.getBounds(),
+			                horizontal)
+			        && current.getUnionArea(box) <= maxArea) {
+				current = current.merge(box);
+			} else {
+				if (current != null) {
+					merged.add(current);
+				}
+				current = box;
+			}
+		}
+		if (current != null) {
+			merged.add(current);
+		}
+		return merged;
+	}
+
+	/**
+	 * Checks if the next box continues the current one without leaving a
+	 * gap. The next box never starts before the current one.
+	 */
+	private static boolean canMerge(LatLonRectangle current,
+	        LatLonRectangle next, boolean horizontal) {
+		if (horizontal) {
+			return equal(current.getMinlat(), next.getMinlat())
+			        && equal(current.getMaxlat(), next.getMaxlat())
+			        && next.getMinlon() <= current.getMaxlon() + EPSILON;
+		} else {
+			return equal(current.getMinlon(), next.getMinlon())
+			        && equal(current.getMaxlon(), next.getMaxlon())
+			        && next.getMinlat() <= current.getMaxlat() + EPSILON;
+		}
+	}
+
+	private static boolean equal(double a, double b) {
+		return Math.abs(a - b) <= EPSILON;
+	}
+
+	/**
+	 * Moves the tiles of boxes that are inside another box to that box.
+	 */
+	private static List<AreaRequest> removeContained(List<AreaRequest> boxes) {
+		// bigger boxes first, so that they absorb the smaller ones.
+		Collections.sort(boxes, new Comparator<AreaRequest>() {
+			@Override
+			public int compare(AreaRequest o1, AreaRequest o2) {
+				return Double.compare(o2.getArea(), o1.getArea());
+			}
+		});
+		List<AreaRequest> result = new ArrayList<AreaRequest>(boxes.size());
+		for (AreaRequest box : boxes) {
+			int container = findContainer(result, box);
+			if (container >= 0) {
+				result.set(container, result.get(container).merge(box));
+			} else {
+				result.add(box);
+			}
+		}
+		return result;
+	}
+
+	private static int findContainer(List<AreaRequest> boxes, AreaRequest box) {
+		for (int i = 0; i < boxes.size(); i++) {
+			if (boxes.get(i).contains(box, EPSILON)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
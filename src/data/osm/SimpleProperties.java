@@ -1,17 +1,18 @@
 package data.osm;
 
-import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
 
 /**
  * This is a pseudo property pack.
+ * <p>
+ * The keys and values are stored as {@link TagDictionary} codes.
  * 
  * @author michael
  */
 public class SimpleProperties implements Propertyable {
 
-	private final String[] keyvalues;
+	private final int[] tags;
 
 	/**
 	 * Generates a new property table
@@ -26,37 +27,38 @@ public class SimpleProperties implements Propertyable {
 			throw new IllegalArgumentException(
 			        "There are more keys than values");
 		}
-		this.keyvalues = keyvalues;
+		this.tags = PackedTags.fromKeyValues(keyvalues);
+	}
+
+	private SimpleProperties(int[] tags) {
+		this.tags = tags;
 	}
 
 	@Override
 	public String getProperty(String name) {
-		for (int i = 0; i < keyvalues.length; i += 2) {
-			if (name.equals(keyvalues[i])) {
-				return keyvalues[i + 1];
-			}
-		}
-		return null;
+		return PackedTags.getProperty(tags, 0, tags.length, name);
+	}
+
+	@Override
+	public int getPropertyCode(int keyCode) {
+		return PackedTags.getPropertyCode(tags, 0, tags.length, keyCode);
 	}
 
 	@Override
 	public Set<String> getPropertyKeys() {
-		HashSet<String> keys = new HashSet<String>();
-		for (int i = 0; i < keyvalues.length; i += 2) {
-			keys.add(keyvalues[i]);
-		}
-		return keys;
+		return PackedTags.getPropertyKeys(tags, 0, tags.length);
+	}
+
+	/**
+	 * Gets the packed tags. The array must not be modified.
+	 * 
+	 * @return The key and value code pairs.
+	 */
+	int[] getTags() {
+		return tags;
 	}
 
 	public static SimpleProperties fromHashtable(Properties props) {
-		Set<String> keys = props.stringPropertyNames();
-		String[] keyvalues = new String[keys.size() * 2];
-		int i = 0;
-		for (String k : keys) {
-			keyvalues[i] = k;
-			keyvalues[i + 1] = props.getProperty(k);
-			i += 2;
-		}
-		return new SimpleProperties(keyvalues);
+		return new SimpleProperties(PackedTags.fromProperties(props));
 	}
 }
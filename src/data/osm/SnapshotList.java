@@ -0,0 +1,68 @@
+package data.osm;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+
+/**
+ * A list of elements that are loaded from a snapshot when they are first
+ * accessed. Elements that are added later are kept in memory.
+ * <p>
+ * Every element is only loaded once, so the same object is returned for the
+ * same index.
+ * 
+ * @author michael
+ * @param <T>
+ *            The element type.
+ */
+abstract class SnapshotList<T> extends AbstractList<T> {
+	private final Object[] loaded;
+	private final ArrayList<T> added = new ArrayList<T>();
+
+	/**
+	 * Creates a new list.
+	 * 
+	 * @param snapshotSize
+	 *            The number of elements in the snapshot.
+	 */
+	protected SnapshotList(int snapshotSize) {
+		loaded = new Object[snapshotSize];
+	}
+
+	/**
+	 * Creates the element with the given index from the snapshot.
+	 * 
+	 * @param index
+	 *            The index, smaller than the snapshot size.
+	 * @return The element.
+	 */
+	protected abstract T load(int index);
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public T get(int index) {
+		if (index >= loaded.length) {
+			return added.get(index - loaded.length);
+		}
+		Object element = loaded[index];
+		if (element == null) {
+			synchronized (this) {
+				element = loaded[index];
+				if (element == null) {
+					element = load(index);
+					loaded[index] = element;
+				}
+			}
+		}
+		return (T) element;
+	}
+
+	@Override
+	public boolean add(T element) {
+		return added.add(element);
+	}
+
+	@Override
+	public int size() {
+		return loaded.length + added.size();
+	}
+}
@@ -0,0 +1,100 @@
+package data.osm;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The global dictionary of tag keys and values.
+ * <p>
+ * Every distinct string used as key or value gets an int code, so elements
+ * only need to store packed int arrays for their tags. Codes are never
+ * removed.
+ * <p>
+ * Converters can look up the codes of the keys and values they are
+ * interested in once, and then use {@link Propertyable#getPropertyCode(int)}
+ * instead of comparing strings.
+ * <p>
+ * This class is thread safe.
+ * 
+ * @author michael
+ */
+public final class TagDictionary {
+	/**
+	 * The code that is returned if there is no such string or property.
+	 */
+	public static final int NONE = -1;
+
+	private static final ConcurrentHashMap<String, Integer> codes =
+	        new ConcurrentHashMap<String, Integer>();
+
+	private static volatile String[] strings = new String[1024];
+	private static int size = 0;
+
+	private TagDictionary() {
+	}
+
+	/**
+	 * Gets the code for a string, adding it to the dictionary if needed.
+	 * 
+	 * @param string
+	 *            The string
+	 * @return The code, never {@link #NONE}.
+	 */
+	public static int getCode(String string) {
+		Integer code = codes.get(string);
+		if (code != null) {
+			return code;
+		}
+		return addCode(string);
+	}
+
+	private static synchronized int addCode(String string) {
+		Integer code = codes.get(string);
+		if (code != null) {
+			return code;
+		}
+		if (size >= strings.length) {
+			strings = Arrays.copyOf(strings, size * 2);
+		}
+		strings[size] = string;
+		// publish the code only after the string is stored.
+		codes.put(string, size);
+		return size++;
+	}
+
+	/**
+	 * Gets the code of a string without adding it.
+	 * 
+	 * @param string
+	 *            The string
+	 * @return The code, or {@link #NONE} if the string was never used.
+	 */
+	public static int findCode(String string) {
+		Integer code = codes.get(string);
+		return code == null ? NONE : code;
+	}
+
+	/**
+	 * Gets the number of codes that are in use. Codes are assigned from 0
+	 * on.
+	 * 
+	 * @return The number of codes.
+	 */
+	public static synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the string for a code.
+	 * 
+	 * @param code
+	 *            The code returned by {@link #getCode(String)}.
+	 * @return The string, or <code>null</code> for {@link #NONE}.
+	 */
+	public static String getString(int code) {
+		if (code == NONE) {
+			return null;
+		}
+		return strings[code];
+	}
+}
@@ -53,11 +53,29 @@ public class GlobalToLocalConverter {
 	 * @return
 	 */
 	public LocalPoint toLocal(double lat, double lon) {
+		return new LocalPoint(toLocalX(lat), toLocalY(lon));
+	}
+
+	/**
+	 * Gets the local x coordinate for a lat, without creating a point.
+	 * 
+	 * @param lat
+	 * @return The x coordinate
+	 */
+	public double toLocalX(double lat) {
 		double dlat = lat - center.getLat();
-		double x = -dlat / 360 * EARTH_CIRCUMFERENCE;
+		return -dlat / 360 * EARTH_CIRCUMFERENCE;
+	}
+
+	/**
+	 * Gets the local y coordinate for a lon, without creating a point.
+	 * 
+	 * @param lon
+	 * @return The y coordinate
+	 */
+	public double toLocalY(double lon) {
 		double dlon = lon - center.getLon();
-		double y = dlon / 360 * centerCircumference;
-		return new LocalPoint(x, y);
+		return dlon / 360 * centerCircumference;
 	}
 
 	/**
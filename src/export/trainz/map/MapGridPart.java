@@ -29,11 +29,12 @@ public class MapGridPart {
 	private static final int MARGIN_BOTTOM_RIGHT = 1;
 	private static final int DATASIZE = 76;
 	private static final int GRIDSPACING = 10;
+	private static final int COLORS = 128;
 
 	private MapPoint[][] points = new MapPoint[DATASIZE][DATASIZE];
 	private final int segmentx;
 	private final int segmenty;
-	private Color[][] colors = new Color[128][128];
+	private Color[][] colors = new Color[COLORS][COLORS];
 
 	/**
 	 * This is a part of the map grid.
@@ -56,34 +57,34 @@ public class MapGridPart {
 
 	public void loadHeightsForm(LocalHeightDataProvider provider) {
 		// don't load first row/column
+		int count = DATASIZE - 1;
+		float[] heights = new float[count * count];
+		LocalPoint first = getPositionOfGridpoint(1, 1);
+		provider.getHeights(first.getX(), first.getY(), GRIDSPACING, count,
+		        count, heights);
 		for (int x = 1; x < DATASIZE; x++) {
 			for (int y = 1; y < DATASIZE; y++) {
-				loadHeightForm(provider, x, y);
+				points[x][y].setHeight(heights[(x - 1) * count + y - 1]);
 			}
 		}
 	}
 
-	private void loadHeightForm(LocalHeightDataProvider provider, int x, int y) {
-		points[x][y]
-		        .setHeight(provider.getHeight(getPositionOfGridpoint(x, y)));
-	}
-
 	public void loadTexturesFrom(LandscapeTextureProvider provider) {
 		for (int x = 1; x < DATASIZE; x++) {
 			for (int y = 1; y < DATASIZE; y++) {
 				loadTexturesForm(provider, x, y);
 			}
 		}
-		for (int x = 0; x < 128; x++) {
-			for (int y = 0; y < 128; y++) {
+		for (int x = 0; x < COLORS; x++) {
+			for (int y = 0; y < COLORS; y++) {
 				float lx =
-				        segmentx * MapGrid.SEGMENTSIZE + 1 / 128f
+				        segmentx * MapGrid.SEGMENTSIZE + 1f / COLORS
 				                * MapGrid.SEGMENTSIZE * x;
 				float ly =
-				        segmenty * MapGrid.SEGMENTSIZE + 1 / 128f
+				        segmenty * MapGrid.SEGMENTSIZE + 1f / COLORS
 				                * MapGrid.SEGMENTSIZE * y;
 				colors[x][y] = provider.getTextureAt(new LocalPoint(lx,
-				        ly)).getColor();
+				        ly), COLORS).getColor();
 			}
 		}
 	}
@@ -91,7 +92,7 @@ public class MapGridPart {
 	private void loadTexturesForm(LandscapeTextureProvider provider, int x,
 	        int y) {
 		points[x][y].setTexture(provider.getTextureAt(getPositionOfGridpoint(x,
-		        y)));
+		        y), MapGrid.SEGMENTSIZE / GRIDSPACING));
 	}
 
 	public LocalPoint getPositionOfGridpoint(int x, int y) {
@@ -203,8 +204,8 @@ public class MapGridPart {
 		        0x20,
 		        0x08
 		});
-		for (int x = 0; x < 128; x++) {
-			for (int y = 0; y < 128; y++) {
+		for (int x = 0; x < COLORS; x++) {
+			for (int y = 0; y < COLORS; y++) {
 				Color color = colors[x][y];
 				if (color == null) {
 					color = Color.BLACK;
@@ -1,6 +1,7 @@
 package gui;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -9,6 +10,7 @@ import java.util.List;
 
 import conversion.landscape.Landscape;
 import data.osm.OsmApiLink;
+import data.osm.OverpassCache;
 import data.position.local.GlobalToLocalConverter;
 import data.position.local.LatLon;
 
@@ -18,6 +20,8 @@ public class ConversionSettings implements Serializable{
      */
     private static final long serialVersionUID = 4218446435034104891L;
 
+	private static final long OVERPASS_CACHE_SIZE = 512L * 1024 * 1024;
+
 	//
 	private LatLonRectangle bounds = new LatLonRectangle(50, 51, 9, 10);
 
@@ -39,6 +43,14 @@ public class ConversionSettings implements Serializable{
         } catch (MalformedURLException e) {
 	        System.err.println("Default url not accepted");
         }
+		try {
+			osmApi.setCache(new OverpassCache(new File(
+			        System.getProperty("user.home"),
+			        ".osm-to-trainz/overpass-cache"), OVERPASS_CACHE_SIZE));
+		} catch (IOException e) {
+			System.err.println("Could not open the overpass cache: "
+			        + e.getMessage());
+		}
 	}
 	
 	public LatLonRectangle getBounds() {
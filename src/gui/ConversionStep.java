@@ -5,12 +5,14 @@ import gui.converter.Converter;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JComponent;
+import javax.swing.JFileChooser;
 import javax.swing.JPanel;
 import javax.swing.JTextArea;
 
@@ -32,6 +34,13 @@ public class ConversionStep implements ContentStep {
 
 	private JButton abortButton;
 
+	private JButton changeButton;
+
+	/**
+	 * If the conversion is done, so changes can be applied to it.
+	 */
+	private boolean converted = false;
+
 	private JPanel inner;
 
 	private JTextArea status;
@@ -76,6 +85,15 @@ public class ConversionStep implements ContentStep {
 		});
 		south.add(abortButton);
 
+		changeButton = new JButton("Änderungen anwenden");
+		changeButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				applyChange();
+			}
+		});
+		south.add(changeButton);
+
 		inner = new JPanel();
 		status = new JTextArea();
 		inner.add(status);
@@ -86,6 +104,7 @@ public class ConversionStep implements ContentStep {
 
 		startButton.setEnabled(!started);
 		abortButton.setEnabled(started);
+		changeButton.setEnabled(converted);
 		return content;
 	}
 
@@ -119,6 +138,7 @@ public class ConversionStep implements ContentStep {
 	private void doConversion() {
 		try {
 			converter.startConversion();
+			setConverted(true);
 			setConversionStatus(1, "Fertig", "Alles Konvertiert");
 		} catch (Exception e) {
 			StringWriter stringWriter = new StringWriter();
@@ -127,6 +147,51 @@ public class ConversionStep implements ContentStep {
 		}
 	}
 
+	private synchronized void setConverted(boolean converted) {
+		this.converted = converted;
+		changeButton.setEnabled(converted);
+	}
+
+	/**
+	 * Applies an osm change file to the last conversion. This only works in
+	 * the session that did the conversion, since the converted data is not
+	 * stored.
+	 */
+	private synchronized void applyChange() {
+		if (!converted) {
+			return;
+		}
+		JFileChooser chooser = new JFileChooser();
+		if (chooser.showOpenDialog(content) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		final File changeFile = chooser.getSelectedFile();
+		setConverted(false);
+		setConversionStatus(0, "Aktualisiere", changeFile.getName());
+		Thread changeThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				doApplyChange(changeFile);
+			}
+		});
+		changeThread.start();
+	}
+
+	/**
+	 * Runs in change thread.
+	 */
+	private void doApplyChange(File changeFile) {
+		try {
+			converter.applyChange(changeFile);
+			setConversionStatus(1, "Fertig", "Änderungen angewendet");
+		} catch (Exception e) {
+			StringWriter stringWriter = new StringWriter();
+			e.printStackTrace(new PrintWriter(stringWriter));
+			setConversionStatus(1, "Fehler", stringWriter.toString());
+		}
+		setConverted(true);
+	}
+
 	private synchronized void abortConversion() {
 		if (!started) {
 			return;
@@ -5,10 +5,11 @@ import gui.LatLonRectangle;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 import test.Test;
 import conversion.ConversionData;
@@ -16,6 +17,8 @@ import conversion.datachange.LandscapeAdder;
 import conversion.datachange.LandscapeDisplacer;
 import conversion.datachange.TreeAdder;
 import conversion.datachange.geometry.GridPart;
+import conversion.datachange.geometry.GridPartImportFilter;
+import conversion.datachange.geometry.SimpleRectangle;
 import conversion.landscape.LandscapeTextureProvider;
 import conversion.objects.OsmObjectConverter;
 import conversion.tracks.OsmTrackConverter;
@@ -23,9 +26,9 @@ import conversion.tracks.height.HeightRuleAdder;
 import conversion.tracks.height.TrackHeightComputer;
 import data.height.SRTMImporter;
 import data.osm.OsmApiLink;
+import data.osm.OsmChange;
 import data.osm.OsmDatapack;
-import data.osm.OsmNode;
-import data.osm.OsmWay;
+import data.osm.OsmImportFilter;
 import data.position.local.GlobalToLocalConverter;
 import data.position.local.LatLon;
 import data.position.local.LocalPoint;
@@ -34,10 +37,15 @@ import export.tracks.TrackNetwork;
 import export.trainz.general.Kuid;
 import export.trainz.map.GridFile;
 import export.trainz.map.MapGrid;
+import export.trainz.map.MapGridPart;
 import export.trainz.objects.ObjectFile;
 import export.trainz.tracks.TrackFile;
 
 public class Converter {
+	/**
+	 * The distance around changed areas that is converted again, in meters.
+	 */
+	private static final double CHANGE_HALO = GridPart.GRID_SPACING;
 
 	private ConversionStep currentStep;
 
@@ -49,6 +57,13 @@ public class Converter {
 
 	private boolean stop = false;
 
+	/**
+	 * The data of the last conversion, used to apply changes.
+	 */
+	private ConversionData converted = null;
+
+	private MapGrid convertedGrid = null;
+
 	public Converter(ConversionSettings data) {
 		this.settings = data;
 	}
@@ -88,9 +103,8 @@ public class Converter {
 		        new ConversionData(osm, converter, heightProvider, settings
 		                .getLandscape().getConvertedBlocks());
 
-		System.out.println("found "
-		        + ((Collection<OsmNode>) osm.getNodes()).size() + " nodes and "
-		        + ((Collection<OsmWay>) osm.getWays()).size() + " ways");
+		System.out.println("found " + osm.getNodeCount() + " nodes and "
+		        + osm.getWayCount() + " ways");
 
 		System.out.println("Adding landscapes");
 		new LandscapeAdder(data).addLandscapes();
@@ -122,6 +136,132 @@ public class Converter {
 
 		System.out.println("Converting objects");
 		new OsmObjectConverter(data).doConversion(new Random());
+
+		writeFiles(data, grid);
+		synchronized (this) {
+			converted = data;
+			convertedGrid = grid;
+		}
+	}
+
+	/**
+	 * Applies an osm change file to the osm data of the last conversion and
+	 * converts it again.
+	 * <p>
+	 * Only the landscape, objects and map grid of the grid parts that are
+	 * affected by the change and the parts around them are generated again.
+	 * <p>
+	 * The data of the conversion is only kept in memory, so this only works
+	 * after {@link #startConversion()} in the same session. Not all work
+	 * depends on the size of the change: the osm data is copied completely
+	 * to apply the change (see {@link OsmChange#applyTo}), and the track
+	 * network is generated again completely.
+	 * 
+	 * @param changeFile
+	 *            The .osc file.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public void applyChange(File changeFile) throws IOException {
+		ConversionData previous;
+		MapGrid grid;
+		synchronized (this) {
+			if (converted == null) {
+				throw new IllegalStateException("Nothing was converted yet.");
+			}
+			previous = converted;
+			grid = convertedGrid;
+		}
+
+		OsmChange change = OsmChange.readFromFile(changeFile);
+		Set<GridPart> changed =
+		        getChangedParts(change.getChangedAreas(previous.getOsmData()),
+		                previous);
+		System.out.println(change.getChangeCount() + " changes affect "
+		        + changed.size() + " grid parts");
+		if (changed.isEmpty()) {
+			return;
+		}
+
+		// trees on the changed parts are generated again.
+		final GridPartImportFilter changedFilter =
+		        new GridPartImportFilter(previous.getConverter(), changed, 0);
+		OsmDatapack osm =
+		        change.applyTo(previous.getOsmData(), new OsmImportFilter() {
+			        @Override
+			        public boolean acceptNode(double lat, double lon) {
+				        return !changedFilter.acceptNode(lat, lon);
+			        }
+		        });
+		ConversionData data = new ConversionData(previous, osm);
+
+		System.out.println("Updating landscapes");
+		data.getLandscape().rebuildGridParts(osm, data.getConverter(),
+		        changed);
+		new LandscapeAdder(data).addLandscapes(changed);
+		new TreeAdder(data).addTrees(changed);
+		// the network reads heights, so the cached ones of the changed
+		// landscapes need to be dropped first.
+		for (GridPart part : changed) {
+			data.getHeightProvider().invalidate(part.getMinX(),
+			        part.getMinY(), part.getMaxX(), part.getMaxY());
+		}
+
+		System.out.println("Generating network");
+		generateNetwork(data);
+
+		System.out.println("Updating heights and textures");
+		LandscapeTextureProvider textureProvider =
+		        new LandscapeTextureProvider(data.getLandscape());
+		for (GridPart part : changed) {
+			MapGridPart gridPart =
+			        grid.getPartUnder(part.getMinX(), part.getMinY());
+			if (gridPart != null) {
+				gridPart.loadHeightsForm(data.getHeightProvider());
+				gridPart.loadTexturesFrom(textureProvider);
+			}
+		}
+
+		System.out.println("Updating objects");
+		data.getObjects().removeObjectsOn(changed);
+		new OsmObjectConverter(data).doConversion(new Random(), changed);
+
+		writeFiles(data, grid);
+		synchronized (this) {
+			converted = data;
+		}
+	}
+
+	/**
+	 * Gets the converted grid parts that lie in or next to the areas.
+	 */
+	private Set<GridPart> getChangedParts(List<LatLonRectangle> areas,
+	        ConversionData data) {
+		Set<GridPart> converted = data.getLandscape().getConvertedBlocks();
+		HashSet<GridPart> parts = new HashSet<GridPart>();
+		for (LatLonRectangle area : areas) {
+			LocalPoint p1 =
+			        data.getConverter().toLocal(area.getMinlat(),
+			                area.getMinlon());
+			LocalPoint p2 =
+			        data.getConverter().toLocal(area.getMaxlat(),
+			                area.getMaxlon());
+			SimpleRectangle bounds =
+			        new SimpleRectangle(Math.min(p1.getX(), p2.getX())
+			                - CHANGE_HALO, Math.min(p1.getY(), p2.getY())
+			                - CHANGE_HALO, Math.max(p1.getX(), p2.getX())
+			                + CHANGE_HALO, Math.max(p1.getY(), p2.getY())
+			                + CHANGE_HALO);
+			for (GridPart part : GridPart.getInRectangle(bounds)) {
+				if (converted.contains(part)) {
+					parts.add(part);
+				}
+			}
+		}
+		return parts;
+	}
+
+	private void writeFiles(ConversionData data, MapGrid grid) {
 		ObjectFile objects =
 		        ObjectFile.constructByList(data.getObjects().getObjects());
 
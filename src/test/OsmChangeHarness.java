@@ -0,0 +1,169 @@
+package test;
+
+import gui.LatLonRectangle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import data.osm.OsmChange;
+import data.osm.OsmDatapack;
+import data.osm.OsmImportFilter;
+import data.osm.OsmNode;
+import data.osm.OsmRelation;
+import data.osm.OsmRelation.OsmRoledWay;
+import data.osm.OsmWay;
+import data.osm.SimpleProperties;
+
+/**
+ * Checks that osm change files are applied correctly to read and to
+ * snapshotted packs, and that the changed areas contain the old and the new
+ * geometry.
+ * 
+ * @author michael
+ */
+public class OsmChangeHarness {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final String BASE = "<?xml version=\"1.0\"?>\n"
+	        + "<osm version=\"0.6\">\n"
+	        + "  <node id=\"1\" lat=\"50.0\" lon=\"9.0\"/>\n"
+	        + "  <node id=\"2\" lat=\"50.0\" lon=\"9.1\"/>\n"
+	        + "  <node id=\"3\" lat=\"50.1\" lon=\"9.1\"/>\n"
+	        + "  <node id=\"4\" lat=\"50.3\" lon=\"9.3\"/>\n"
+	        + "  <way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/>"
+	        + "<nd ref=\"1\"/><tag k=\"landuse\" v=\"forest\"/></way>\n"
+	        + "  <way id=\"11\"><nd ref=\"3\"/><nd ref=\"4\"/>"
+	        + "<tag k=\"highway\" v=\"track\"/></way>\n"
+	        + "  <relation id=\"20\"><member type=\"way\" ref=\"10\" role=\"outer\"/>"
+	        + "<tag k=\"type\" v=\"multipolygon\"/></relation>\n"
+	        + "</osm>\n";
+
+	private static final String CHANGE = "<?xml version=\"1.0\"?>\n"
+	        + "<osmChange version=\"0.6\">\n"
+	        + "  <modify>\n"
+	        + "    <node id=\"2\" lat=\"49.9\" lon=\"9.2\">"
+	        + "<tag k=\"name\" v=\"moved\"/></node>\n"
+	        + "  </modify>\n"
+	        + "  <delete>\n"
+	        + "    <way id=\"11\"/>\n"
+	        + "    <node id=\"4\"/>\n"
+	        + "  </delete>\n"
+	        + "  <create>\n"
+	        + "    <node id=\"5\" lat=\"50.2\" lon=\"9.0\"/>\n"
+	        + "    <way id=\"12\"><nd ref=\"3\"/><nd ref=\"5\"/>"
+	        + "<tag k=\"highway\" v=\"path\"/></way>\n"
+	        + "  </create>\n"
+	        + "</osmChange>\n";
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		OsmChange change =
+		        OsmChange.readFromStream(new ByteArrayInputStream(CHANGE
+		                .getBytes(UTF8)));
+		check("change is read", change.getChangeCount() == 5);
+
+		OsmDatapack base = readBase();
+		checkChange("read pack", base, change);
+
+		File snapshot = File.createTempFile("change", ".snapshot");
+		readBase().writeSnapshot(snapshot);
+		checkChange("snapshot", OsmDatapack.openSnapshot(snapshot), change);
+		snapshot.delete();
+
+		System.out.println(failures == 0 ? "All checks passed." : failures
+		        + " checks failed.");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static OsmDatapack readBase() throws IOException {
+		OsmDatapack base =
+		        OsmDatapack.readFromXMLStream(new ByteArrayInputStream(BASE
+		                .getBytes(UTF8)));
+		// generated nodes, like trees.
+		base.addNode(50.05, 9.05, new SimpleProperties("natural", "tree"));
+		base.addNode(50.25, 9.25, new SimpleProperties("natural", "tree"));
+		return base;
+	}
+
+	private static void checkChange(String name, OsmDatapack base,
+	        OsmChange change) {
+		List<LatLonRectangle> areas = change.getChangedAreas(base);
+		check(name + ": old position is changed", isCovered(areas, 50.0, 9.1));
+		check(name + ": new position is changed", isCovered(areas, 49.9, 9.2));
+		check(name + ": way with moved node is changed",
+		        isCovered(areas, 50.1, 9.0));
+		check(name + ": deleted way is changed", isCovered(areas, 50.3, 9.3));
+		check(name + ": created way is changed", isCovered(areas, 50.2, 9.0));
+		check(name + ": unchanged area is not changed",
+		        !isCovered(areas, 51, 10));
+
+		int wayCount = base.getWayCount();
+		OsmDatapack changed = change.applyTo(base, new OsmImportFilter() {
+			@Override
+			public boolean acceptNode(double lat, double lon) {
+				return lat < 50.2;
+			}
+		});
+		check(name + ": base is not changed", base.getWayCount() == wayCount);
+
+		OsmWay area = changed.getWay(10);
+		OsmNode moved = area.getNode(1);
+		check(name + ": node is moved", moved.getLat() == 49.9
+		        && moved.getLon() == 9.2);
+		check(name + ": node tags are changed",
+		        "moved".equals(moved.getProperty("name")));
+		check(name + ": way is deleted", changed.getWay(11) == null);
+		OsmWay created = changed.getWay(12);
+		check(name + ": way is created", created != null
+		        && created.getNodeCount() == 2
+		        && created.getLastNode().getLat() == 50.2
+		        && "path".equals(created.getProperty("highway")));
+		check(name + ": nodes are deleted", changed.getNodeCount() == 5);
+
+		OsmRelation relation = changed.getRelation(20);
+		boolean hasArea = false;
+		for (OsmRoledWay member : relation.getWays()) {
+			hasArea |= member.getWay() == area;
+		}
+		check(name + ": relation references the new way", hasArea);
+
+		int trees = 0;
+		for (OsmNode node : changed.getNodes()) {
+			if ("tree".equals(node.getProperty("natural"))) {
+				trees++;
+			}
+		}
+		check(name + ": filtered generated nodes are dropped", trees == 1);
+		OsmNode tree =
+		        changed.addNode(50, 9, new SimpleProperties("natural", "tree"));
+		int sameId = 0;
+		for (OsmNode node : changed.getNodes()) {
+			if (node.getId() == tree.getId()) {
+				sameId++;
+			}
+		}
+		check(name + ": generated ids stay unique", sameId == 1);
+	}
+
+	private static boolean isCovered(List<LatLonRectangle> areas, double lat,
+	        double lon) {
+		for (LatLonRectangle area : areas) {
+			if (area.getMinlat() <= lat && area.getMaxlat() >= lat
+			        && area.getMinlon() <= lon && area.getMaxlon() >= lon) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void check(String name, boolean ok) {
+		System.out.println((ok ? "OK:     " : "FAILED: ") + name);
+		if (!ok) {
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+
+import data.osm.OsmDatapack;
+import data.osm.OsmXmlEngine;
+
+/**
+ * Compares the xml parser engines on the same osm file.
+ * <p>
+ * Usage: <code>OsmParserBenchmark file.osm [runs]</code>
+ * 
+ * @author michael
+ */
+public class OsmParserBenchmark {
+	private static final int WARMUP_RUNS = 2;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: OsmParserBenchmark <file.osm> [runs]");
+			return;
+		}
+		File file = new File(args[0]);
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		for (OsmXmlEngine engine : OsmXmlEngine.values()) {
+			for (int i = 0; i < WARMUP_RUNS; i++) {
+				OsmDatapack.readFromXMLFile(file, engine);
+			}
+
+			long best = Long.MAX_VALUE;
+			long total = 0;
+			OsmDatapack pack = null;
+			for (int i = 0; i < runs; i++) {
+				System.gc();
+				long start = System.nanoTime();
+				pack = OsmDatapack.readFromXMLFile(file, engine);
+				long time = System.nanoTime() - start;
+				best = Math.min(best, time);
+				total += time;
+			}
+			System.out.println(engine + ": " + pack.getNodeCount()
+			        + " nodes, " + pack.getWayCount() + " ways, "
+			        + pack.getRelationCount() + " relations; best "
+			        + best / 1000000 + "ms, average " + total / runs
+			        / 1000000 + "ms");
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package test;
+
+import gui.LatLonRectangle;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import data.osm.OsmApiLink;
+import data.osm.OsmDatapack;
+import data.osm.OverpassCache;
+
+/**
+ * Checks the overpass response cache against a local stand-in server.
+ * <p>
+ * The harness checks that cached areas are not requested again, also by a
+ * new link using the same cache directory, that offline mode never contacts
+ * the server and that the cache evicts old responses.
+ * 
+ * @author michael
+ */
+public class OverpassCacheHarness {
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		OverpassStandIn server = new OverpassStandIn();
+		URL address = server.getAddress();
+
+		File directory = File.createTempFile("overpass-cache", "");
+		directory.delete();
+		LatLonRectangle area = new LatLonRectangle(50, 50.5, 9, 9.5);
+		LatLonRectangle uncached = new LatLonRectangle(51, 51.5, 9, 9.5);
+
+		OsmApiLink link = new OsmApiLink();
+		link.setAddress(address);
+		link.setCache(new OverpassCache(directory, 1024 * 1024));
+		OsmDatapack pack = link.loadArea(area);
+		check("first load downloads", server.getRequests() == 1);
+		check("first load parses", pack.getWayCount() == 1);
+
+		OsmApiLink second = new OsmApiLink();
+		second.setAddress(address);
+		second.setCache(new OverpassCache(directory, 1024 * 1024));
+		pack = second.loadArea(area);
+		check("new link uses the disk cache", server.getRequests() == 1);
+		check("cached response parses", pack.getWayCount() == 1);
+
+		OsmApiLink offline = new OsmApiLink();
+		offline.setAddress(address);
+		offline.setCache(new OverpassCache(directory, 1024 * 1024));
+		offline.setOffline(true);
+		pack = offline.loadArea(uncached);
+		check("offline mode does not download", server.getRequests() == 1);
+		check("offline miss stays empty", pack.getWayCount() == 0);
+		pack = offline.loadArea(area);
+		check("offline mode serves the cache", pack.getWayCount() == 1);
+
+		OverpassCache small = new OverpassCache(directory, 1024 * 1024);
+		small.put("a", new byte[600 * 1024]);
+		small.put("b", new byte[600 * 1024]);
+		check("eviction keeps the size", small.getSize() <= 1024 * 1024);
+		check("eviction drops the oldest", small.get("a") == null
+		        && small.get("b") != null);
+
+		server.stop();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		System.out.println(failures == 0 ? "All checks passed." : failures
+		        + " checks failed.");
+		// the loader threads of the links never stop.
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void check(String name, boolean ok) {
+		System.out.println((ok ? "OK:     " : "FAILED: ") + name);
+		if (!ok) {
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package test;
+
+import gui.LatLonRectangle;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import data.osm.OsmApiLink;
+import data.osm.OsmDatapack;
+import data.osm.OsmNode;
+import data.osm.OsmWay;
+import data.osm.OverpassCache;
+
+/**
+ * Checks the download scheduler of the {@link OsmApiLink} against a local
+ * stand-in server that rejects some requests with 429 and answers too big
+ * requests with 504.
+ * <p>
+ * All areas need to arrive, and areas that were downloaded in one batch need
+ * to be found in the cache when they are requested in other batches. Small
+ * neighbouring tiles need to be merged to fewer boxes that still cover all
+ * of them.
+ * 
+ * @author michael
+ */
+public class OverpassSchedulerHarness {
+	private static final int AREAS = 120;
+	private static final int LOADERS = 4;
+	/**
+	 * About the size of a grid part in central europe.
+	 */
+	private static final double TILE_LAT = .0065;
+	private static final double TILE_LON = .01;
+	private static final int TILE_ROWS = 20;
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		OverpassStandIn server = new OverpassStandIn();
+		server.setRejectEvery(4, 1);
+		server.setMaxBoxes(10);
+
+		File directory = File.createTempFile("overpass-cache", "");
+		directory.delete();
+
+		List<LatLonRectangle> areas = new ArrayList<LatLonRectangle>();
+		for (int i = 0; i < AREAS; i++) {
+			double lat = 50 + i / 12 * .1;
+			double lon = 9 + i % 12 * .1;
+			areas.add(new LatLonRectangle(lat, lat + .1, lon, lon + .1));
+		}
+
+		OsmApiLink link = new OsmApiLink(LOADERS);
+		link.setAddress(server.getAddress());
+		link.setCache(new OverpassCache(directory, 16 * 1024 * 1024));
+		long start = System.currentTimeMillis();
+		OsmDatapack pack = link.loadAreas(areas);
+		System.out.println("Loaded " + AREAS + " areas in "
+		        + (System.currentTimeMillis() - start) + "ms with "
+		        + server.getRequests() + " requests, "
+		        + server.getRejected() + " rejected.");
+		check("all areas arrive", pack.getWayCount() == AREAS);
+		check("server rejected requests", server.getRejected() > 0);
+
+		int requests = server.getRequests();
+		OsmApiLink second = new OsmApiLink(1);
+		second.setAddress(server.getAddress());
+		second.setCache(new OverpassCache(directory, 16 * 1024 * 1024));
+		second.setOffline(true);
+		List<LatLonRectangle> reversed = new ArrayList<LatLonRectangle>();
+		for (int i = AREAS - 1; i >= 0; i -= 2) {
+			reversed.add(areas.get(i));
+		}
+		pack = second.loadAreas(reversed);
+		check("regrouped areas use the cache", server.getRequests() == requests);
+		check("regrouped areas are found",
+		        pack.getWayCount() >= reversed.size());
+
+		checkCoalescing(server);
+
+		server.stop();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+		System.out.println(failures == 0 ? "All checks passed." : failures
+		        + " checks failed.");
+		// the loader threads of the links never stop.
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void checkCoalescing(OverpassStandIn server)
+	        throws IOException {
+		server.setRejectEvery(0, 0);
+		server.setMaxBoxes(Integer.MAX_VALUE);
+		List<LatLonRectangle> tiles = new ArrayList<LatLonRectangle>();
+		for (int y = 0; y < TILE_ROWS; y++) {
+			for (int x = 0; x < TILE_ROWS; x++) {
+				double lat = 48 + y * TILE_LAT;
+				double lon = 11 + x * TILE_LON;
+				tiles.add(new LatLonRectangle(lat, lat + TILE_LAT, lon, lon
+				        + TILE_LON));
+			}
+		}
+		// an overlapping duplicate that is covered by the others.
+		tiles.add(new LatLonRectangle(48 + TILE_LAT / 2, 48 + TILE_LAT * 1.5,
+		        11 + TILE_LON / 2, 11 + TILE_LON * 1.5));
+
+		int boxes = server.getBoxes();
+		OsmApiLink link = new OsmApiLink(LOADERS);
+		link.setAddress(server.getAddress());
+		OsmDatapack pack = link.loadAreas(tiles);
+		boxes = server.getBoxes() - boxes;
+		System.out.println("Requested " + tiles.size() + " tiles as " + boxes
+		        + " boxes.");
+		check("tiles are merged", boxes < tiles.size() / 20);
+
+		boolean covered = true;
+		for (LatLonRectangle tile : tiles) {
+			covered &= isCovered(pack, tile);
+		}
+		check("merged boxes cover all tiles", covered);
+	}
+
+	private static boolean isCovered(OsmDatapack pack, LatLonRectangle tile) {
+		// the stand-in returns a way from the south west to the north east
+		// corner of each box.
+		for (OsmWay way : pack.getWays()) {
+			OsmNode sw = way.getFirstNode();
+			OsmNode ne = way.getLastNode();
+			if (sw.getLat() <= tile.getMinlat() + 1e-7
+			        && ne.getLat() >= tile.getMaxlat() - 1e-7
+			        && sw.getLon() <= tile.getMinlon() + 1e-7
+			        && ne.getLon() >= tile.getMaxlon() - 1e-7) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void check(String name, boolean ok) {
+		System.out.println((ok ? "OK:     " : "FAILED: ") + name);
+		if (!ok) {
+			failures++;
+		}
+	}
+}
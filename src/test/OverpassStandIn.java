@@ -0,0 +1,165 @@
+package test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the overpass server that is used by the harnesses.
+ * <p>
+ * For every bbox query of a script, it answers with two nodes at the corners
+ * of the box and a way between them. It counts the requests and can reject
+ * some of them with 429 like an overloaded server.
+ * 
+ * @author michael
+ */
+public class OverpassStandIn {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Pattern BBOX = Pattern
+	        .compile("<bbox-query w=\"([-\\d.E]+)\" s=\"([-\\d.E]+)\""
+	                + " e=\"([-\\d.E]+)\" n=\"([-\\d.E]+)\"/>");
+
+	private final HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger rejected = new AtomicInteger();
+	private final AtomicInteger boxes = new AtomicInteger();
+	private final AtomicInteger nextId = new AtomicInteger(1);
+
+	private volatile int rejectEvery = 0;
+	private volatile int retryAfterSeconds = 1;
+	private volatile int maxBoxes = Integer.MAX_VALUE;
+
+	public OverpassStandIn() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/api/interpreter/", new StandInHandler());
+		server.start();
+	}
+
+	public URL getAddress() throws MalformedURLException {
+		return new URL("http://localhost:" + server.getAddress().getPort()
+		        + "/api/interpreter/");
+	}
+
+	/**
+	 * Lets the server reject requests with 429.
+	 * 
+	 * @param every
+	 *            Reject every n-th request, 0 to accept all.
+	 * @param retryAfterSeconds
+	 *            The Retry-After value to send.
+	 */
+	public void setRejectEvery(int every, int retryAfterSeconds) {
+		this.rejectEvery = every;
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	/**
+	 * Lets the server answer requests with more boxes with 504, like a
+	 * server that times out on too big requests.
+	 */
+	public void setMaxBoxes(int maxBoxes) {
+		this.maxBoxes = maxBoxes;
+	}
+
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public int getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Gets the number of bbox queries in all answered requests.
+	 */
+	public int getBoxes() {
+		return boxes.get();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	private class StandInHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			int request = requests.incrementAndGet();
+			InputStream in = exchange.getRequestBody();
+			ByteArrayOutputStream script = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				script.write(buffer, 0, read);
+			}
+			in.close();
+
+			StringBuilder response = new StringBuilder();
+			response.append("<?xml version=\"1.0\"?>\n<osm version=\"0.6\">\n");
+			Matcher matcher = BBOX.matcher(new String(script.toByteArray(),
+			        UTF8));
+			int boxCount = 0;
+			while (matcher.find()) {
+				int id = nextId.getAndAdd(3);
+				response.append("  <node id=\"").append(id)
+				        .append("\" lat=\"").append(matcher.group(2))
+				        .append("\" lon=\"").append(matcher.group(1))
+				        .append("\"/>\n");
+				response.append("  <node id=\"").append(id + 1)
+				        .append("\" lat=\"").append(matcher.group(4))
+				        .append("\" lon=\"").append(matcher.group(3))
+				        .append("\"/>\n");
+				response.append("  <way id=\"").append(id + 2)
+				        .append("\"><nd ref=\"").append(id)
+				        .append("\"/><nd ref=\"").append(id + 1)
+				        .append("\"/><tag k=\"highway\" v=\"residential\"/>"
+				                + "</way>\n");
+				boxCount++;
+			}
+			response.append("</osm>\n");
+
+			int every = rejectEvery;
+			if (every > 0 && request % every == 0) {
+				rejected.incrementAndGet();
+				exchange.getResponseHeaders().add("Retry-After",
+				        Integer.toString(retryAfterSeconds));
+				exchange.sendResponseHeaders(429, -1);
+				exchange.close();
+				return;
+			} else if (boxCount > maxBoxes) {
+				rejected.incrementAndGet();
+				exchange.sendResponseHeaders(504, -1);
+				exchange.close();
+				return;
+			}
+
+			boxes.addAndGet(boxCount);
+			String encoding =
+			        exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			boolean gzip = encoding != null && encoding.contains("gzip");
+			if (gzip) {
+				exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			}
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream out = exchange.getResponseBody();
+			if (gzip) {
+				out = new GZIPOutputStream(out);
+			}
+			out.write(response.toString().getBytes(UTF8));
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import data.height.SRTMDatapackPosition;
+import data.height.SRTMImporter;
+
+/**
+ * Calls {@link SRTMImporter#getHeight(double, double)} from many threads at
+ * the same time and compares the throughput to a single thread.
+ * <p>
+ * Without arguments, this writes synthetic tiles to a temporary directory.
+ * <p>
+ * Usage: <code>SRTMStressBenchmark [threads] [hgt directory]</code>
+ * 
+ * @author michael
+ */
+public class SRTMStressBenchmark {
+	private static final int LOOKUPS = 4000000;
+	private static final int TILES_LAT = 3;
+	private static final int TILES_LON = 3;
+	private static final int MIN_LAT = 50;
+	private static final int MIN_LON = 8;
+	private static final int SYNTHETIC_SIZE = 1201;
+
+	public static void main(String[] args) throws Exception {
+		int threads =
+		        args.length > 0 ? Integer.parseInt(args[0]) : Runtime
+		                .getRuntime().availableProcessors();
+		File directory;
+		if (args.length > 1) {
+			directory = new File(args[1]);
+		} else {
+			directory = File.createTempFile("srtm", "");
+			directory.delete();
+			directory.mkdirs();
+			writeSyntheticTiles(directory);
+		}
+
+		SRTMImporter importer = new SRTMImporter();
+		importer.setLookupPaths(Arrays.asList(directory));
+		importer.setMaxOpenTiles(TILES_LAT * TILES_LON);
+
+		// warm up, and fill the tile store, so the timed runs only measure
+		// lookups of loaded tiles.
+		run(importer, 1, LOOKUPS / 4);
+
+		double single = run(importer, 1, LOOKUPS);
+		double parallel = run(importer, threads, LOOKUPS);
+		System.out.println(String.format(
+		        "1 thread: %.1f M lookups/s, %d threads: %.1f M lookups/s",
+		        single, threads, parallel));
+	}
+
+	/**
+	 * Runs the lookups on the importer.
+	 * 
+	 * @return The lookups per second, in millions.
+	 */
+	private static double run(final SRTMImporter importer, int threads,
+	        final int lookups) throws InterruptedException {
+		final double[] sums = new double[threads];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int worker = i;
+			workers[i] = new Thread("height-stress-" + i) {
+				@Override
+				public void run() {
+					Random random = new Random(worker);
+					double sum = 0;
+					for (int j = 0; j < lookups / sums.length; j++) {
+						double lat = MIN_LAT + random.nextDouble() * TILES_LAT;
+						double lon = MIN_LON + random.nextDouble() * TILES_LON;
+						sum += importer.getHeight(lat, lon);
+					}
+					sums[worker] = sum;
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long time = System.nanoTime() - start;
+
+		double sum = 0;
+		for (double s : sums) {
+			sum += s;
+		}
+		if (sum <= 0) {
+			throw new IllegalStateException("No heights were found.");
+		}
+		return (double) lookups / time * 1000;
+	}
+
+	private static void writeSyntheticTiles(File directory) throws IOException {
+		for (int lat = MIN_LAT; lat < MIN_LAT + TILES_LAT; lat++) {
+			for (int lon = MIN_LON; lon < MIN_LON + TILES_LON; lon++) {
+				String name = new SRTMDatapackPosition(lat, lon).toFilename();
+				File file = new File(directory, name);
+				file.deleteOnExit();
+				DataOutputStream out =
+				        new DataOutputStream(new BufferedOutputStream(
+				                new FileOutputStream(file)));
+				try {
+					for (int y = 0; y < SYNTHETIC_SIZE; y++) {
+						for (int x = 0; x < SYNTHETIC_SIZE; x++) {
+							out.writeShort(100 + (x + y) % 500);
+						}
+					}
+				} finally {
+					out.close();
+				}
+			}
+		}
+		directory.deleteOnExit();
+	}
+}
@@ -82,7 +82,8 @@ public class Test {
 	}
 
 	public Test() throws FileNotFoundException, IOException {
-		this(OsmDatapack.readFromXMLFile(new File(OSMFILE)));
+		this(OsmDatapack.readFromXMLFileCached(new File(OSMFILE), new File(
+		        OSMFILE + ".snapshot")));
 	}
 
 	public Test(OsmDatapack osmData) {